@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.EnvelopeFormat;
+import io.barracks.eventdispatcher.client.HookMessageFactory;
+import io.barracks.eventdispatcher.client.WireFormat;
+import io.barracks.eventdispatcher.model.ChangeFormat;
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceRequest;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
+import io.barracks.eventdispatcher.utils.WebhookUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.amqp.core.Message;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeDeltaBenchmark {
+
+    @Param({"FULL", "DELTA"})
+    private ChangeFormat changeFormat;
+
+    private HookMessageFactory hookMessageFactory;
+
+    private DeviceChangeEvent deviceChangeEvent;
+
+    private Hook hook;
+
+    @Setup
+    public void setUp() {
+        final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        hookMessageFactory = new HookMessageFactory(objectMapper, EnvelopeFormat.FULL, EnvelopeFormat.FULL, EnvelopeFormat.FULL, WireFormat.JSON, WireFormat.JSON, WireFormat.JSON);
+        final DeviceChangeEvent fixture = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final DeviceRequest oldRequest = fixture.getOldRequest();
+        deviceChangeEvent = fixture.toBuilder()
+                .deviceEvent(fixture.getDeviceEvent().toBuilder()
+                        .request(oldRequest.toBuilder()
+                                .customClientData(oldRequest.getCustomClientData().deepCopy().put("battery", 42))
+                                .build())
+                        .build())
+                .build();
+        hook = WebhookUtils.getWebhook().toBuilder().changeFormat(changeFormat).build();
+        System.out.printf("%n%s: DeviceChangeEvent message %d bytes%n", changeFormat, buildDeviceChangeEventMessage().getBody().length);
+    }
+
+    @Benchmark
+    public Message buildDeviceChangeEventMessage() {
+        return hookMessageFactory.forDeviceChangeEvent(deviceChangeEvent).apply(hook);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.Compression;
+import io.barracks.eventdispatcher.client.MessageCompressor;
+import io.barracks.eventdispatcher.rabbitmq.Lz4DecompressingPostProcessor;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventHookUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.amqp.support.postprocessor.GUnzipPostProcessor;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"GZIP", "LZ4"})
+    private Compression compression;
+
+    private MessageCompressor messageCompressor;
+
+    private DelegatingDecompressingPostProcessor decompressingPostProcessor;
+
+    private byte[] body;
+
+    private Message compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        messageCompressor = new MessageCompressor(mock(CounterService.class, withSettings().stubOnly()), compression, 0);
+        decompressingPostProcessor = new DelegatingDecompressingPostProcessor();
+        decompressingPostProcessor.addDecompressor(Compression.GZIP.getEncoding(), new GUnzipPostProcessor(true));
+        decompressingPostProcessor.addDecompressor(Compression.LZ4.getEncoding(), new Lz4DecompressingPostProcessor(true));
+        body = objectMapper.writeValueAsBytes(DeviceChangeEventHookUtils.getDeviceChangeEventHook());
+        compressed = compress();
+        System.out.printf("%n%s: DeviceChangeEventHook %d bytes, compressed %d bytes%n", compression, body.length, compressed.getBody().length);
+    }
+
+    @Benchmark
+    public Message compress() {
+        final Function<byte[], Message> factory = messageCompressor.compressing(value -> new Message(value, new MessageProperties()));
+        return factory.apply(body);
+    }
+
+    @Benchmark
+    public Message decompress() {
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentEncoding(compressed.getMessageProperties().getContentEncoding());
+        return decompressingPostProcessor.postProcessMessage(new Message(compressed.getBody(), properties));
+    }
+
+}
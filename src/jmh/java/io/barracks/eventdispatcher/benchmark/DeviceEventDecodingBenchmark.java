@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import io.barracks.eventdispatcher.rabbitmq.DeviceEventDecoder;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceEventDecodingBenchmark {
+
+    private ObjectMapper objectMapper;
+
+    private Jackson2JsonMessageConverter messageConverter;
+
+    private DeviceEventDecoder deviceEventDecoder;
+
+    private byte[] deviceEvent;
+
+    private byte[] deviceChangeEvent;
+
+    private Message deviceEventMessage;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        messageConverter = new Jackson2JsonMessageConverter();
+        messageConverter.setJsonObjectMapper(objectMapper);
+        deviceEventDecoder = new DeviceEventDecoder(objectMapper);
+        deviceEvent = objectMapper.writeValueAsBytes(DeviceEventUtils.getDeviceEvent());
+        deviceChangeEvent = objectMapper.writeValueAsBytes(DeviceChangeEventUtils.getDeviceChangeEvent());
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding("UTF-8");
+        properties.setInferredArgumentType(DeviceEvent.class);
+        deviceEventMessage = new Message(deviceEvent, properties);
+    }
+
+    @Benchmark
+    public DeviceEvent decodeDeviceEvent() throws IOException {
+        return objectMapper.readValue(deviceEvent, DeviceEvent.class);
+    }
+
+    @Benchmark
+    public DeviceChangeEvent decodeDeviceChangeEvent() throws IOException {
+        return objectMapper.readValue(deviceChangeEvent, DeviceChangeEvent.class);
+    }
+
+    @Benchmark
+    public Object decodeDeviceEventMessage() {
+        return messageConverter.fromMessage(deviceEventMessage);
+    }
+
+    @Benchmark
+    public RawDeviceEvent streamDeviceEventMessage() {
+        return deviceEventDecoder.decode(deviceEventMessage, EventType.PING);
+    }
+
+}
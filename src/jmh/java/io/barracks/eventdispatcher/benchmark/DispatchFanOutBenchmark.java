@@ -0,0 +1,138 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.*;
+import io.barracks.eventdispatcher.manager.DeviceEventDispatcherManager;
+import io.barracks.eventdispatcher.manager.HookRoutingTable;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.metrics.TenantLoadTracker;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.repository.HookRepository;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import io.barracks.eventdispatcher.utils.WebhookUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchFanOutBenchmark {
+
+    private static final int USERS = 10;
+
+    @Param({"1", "10", "100"})
+    private int hooks;
+
+    @Param({"false", "true"})
+    private boolean routingTable;
+
+    private DeviceEventDispatcherManager deviceEventDispatcherManager;
+
+    private DeviceEvent deviceEvent;
+
+    private List<DeviceEvent> deviceEvents;
+
+    @Setup
+    public void setUp() {
+        final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        final CounterService counterService = mock(CounterService.class, withSettings().stubOnly());
+        final LatencyHistograms latencyHistograms = new LatencyHistograms();
+        final List<Hook> hookList = IntStream.range(0, hooks)
+                .mapToObj(i -> (Hook) WebhookUtils.getWebhook())
+                .collect(Collectors.toList());
+
+        final HookRepository hookRepository = mock(HookRepository.class, withSettings().stubOnly());
+        doAnswer(invocation -> hookList.stream()).when(hookRepository).streamHooksByEventType(anyString(), anyString());
+        final HookRoutingTable hookRoutingTable = mock(HookRoutingTable.class, withSettings().stubOnly());
+        doReturn(routingTable ? Optional.of(hookList) : Optional.empty()).when(hookRoutingTable).getHooks(anyString(), any(EventType.class));
+
+        final QueuingServiceClient queuingServiceClient = new QueuingServiceClient(
+                mock(RabbitTemplate.class, withSettings().stubOnly()),
+                mock(ConfirmingPublisher.class, withSettings().stubOnly()),
+                new HookMessageFactory(objectMapper, EnvelopeFormat.FULL, EnvelopeFormat.FULL, EnvelopeFormat.FULL, WireFormat.JSON, WireFormat.JSON, WireFormat.JSON),
+                new MessageCompressor(counterService, Compression.NONE, 0),
+                new MessageSpool(counterService, false, "", 1, 1, SpoolFsyncPolicy.NEVER),
+                counterService,
+                latencyHistograms,
+                "web",
+                "googleanalytics",
+                "bigquery",
+                "deviceevent",
+                "devicechangeevent"
+        );
+        deviceEventDispatcherManager = new DeviceEventDispatcherManager(
+                mock(AuthorizationServiceClient.class, withSettings().stubOnly()),
+                queuingServiceClient,
+                hookRepository,
+                hookRoutingTable,
+                mock(HookInvalidationClient.class, withSettings().stubOnly()),
+                latencyHistograms,
+                new TenantLoadTracker(256, 20)
+        );
+        deviceEvent = DeviceEventUtils.getDeviceEvent();
+        deviceEvents = IntStream.range(0, 100)
+                .mapToObj(i -> {
+                    final DeviceEvent event = DeviceEventUtils.getDeviceEvent();
+                    return event.toBuilder()
+                            .request(event.getRequest().toBuilder().userId("user-" + i % USERS).build())
+                            .build();
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void postDeviceEvent() {
+        deviceEventDispatcherManager.postDeviceEvent(deviceEvent);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public void postDeviceEvents() {
+        deviceEventDispatcherManager.postDeviceEvents(deviceEvents);
+    }
+
+}
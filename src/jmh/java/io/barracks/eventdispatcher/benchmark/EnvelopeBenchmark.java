@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.*;
+import io.barracks.eventdispatcher.client.entity.DeviceEventHook;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import io.barracks.eventdispatcher.rabbitmq.DeviceEventDecoder;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import io.barracks.eventdispatcher.utils.WebhookUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int hooks;
+
+    @Param({"FULL", "REFERENCE", "PASSTHROUGH"})
+    private EnvelopeFormat envelope;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    private WireFormat encoding;
+
+    private QueuingServiceClient queuingServiceClient;
+
+    private Jackson2JsonMessageConverter messageConverter;
+
+    private DeviceEvent deviceEvent;
+
+    private RawDeviceEvent rawDeviceEvent;
+
+    private List<Hook> hookList;
+
+    @Setup
+    public void setUp() throws IOException {
+        final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        final CounterService counterService = mock(CounterService.class, withSettings().stubOnly());
+        final LatencyHistograms latencyHistograms = new LatencyHistograms();
+        queuingServiceClient = new QueuingServiceClient(
+                mock(RabbitTemplate.class, withSettings().stubOnly()),
+                mock(ConfirmingPublisher.class, withSettings().stubOnly()),
+                new HookMessageFactory(objectMapper, envelope, envelope, envelope, encoding, encoding, encoding),
+                new MessageCompressor(counterService, Compression.NONE, 0),
+                new MessageSpool(counterService, false, "", 1, 1, SpoolFsyncPolicy.NEVER),
+                counterService,
+                latencyHistograms,
+                "web",
+                "googleanalytics",
+                "bigquery",
+                "deviceevent",
+                "devicechangeevent"
+        );
+        messageConverter = new Jackson2JsonMessageConverter();
+        messageConverter.setJsonObjectMapper(objectMapper);
+        deviceEvent = DeviceEventUtils.getDeviceEvent();
+        rawDeviceEvent = new DeviceEventDecoder(objectMapper).decode(objectMapper.writeValueAsBytes(deviceEvent), EventType.PING);
+        hookList = IntStream.range(0, hooks)
+                .mapToObj(i -> (Hook) WebhookUtils.getWebhook())
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<OutboundMessage> buildDeviceEventMessages() {
+        return queuingServiceClient.buildDeviceEventMessages(deviceEvent, hookList);
+    }
+
+    @Benchmark
+    public List<OutboundMessage> buildRawDeviceEventMessages() {
+        return queuingServiceClient.buildRawDeviceEventMessages(rawDeviceEvent, EventType.PING, hookList);
+    }
+
+    @Benchmark
+    public void convertDeviceEventHooks(Blackhole blackhole) {
+        for (Hook hook : hookList) {
+            final Message message = messageConverter.toMessage(
+                    DeviceEventHook.builder().deviceEvent(deviceEvent).hook(hook).build(),
+                    new MessageProperties()
+            );
+            blackhole.consume(message);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.benchmark;
+
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.rest.entity.HookEntity;
+import io.barracks.eventdispatcher.utils.BigQueryHookUtils;
+import io.barracks.eventdispatcher.utils.GoogleAnalyticsHookUtils;
+import io.barracks.eventdispatcher.utils.WebhookUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HookEntityConversionBenchmark {
+
+    @Param({"web", "google_analytics", "bigquery"})
+    private String type;
+
+    private Hook hook;
+
+    private HookEntity entity;
+
+    @Setup
+    public void setUp() {
+        switch (type) {
+            case "web":
+                hook = WebhookUtils.getWebhook();
+                break;
+            case "google_analytics":
+                hook = GoogleAnalyticsHookUtils.getGoogleAnalyticsHook();
+                break;
+            default:
+                hook = BigQueryHookUtils.getBigQueryHook();
+        }
+        entity = HookEntity.fromHook(hook);
+    }
+
+    @Benchmark
+    public HookEntity fromHook() {
+        return HookEntity.fromHook(hook);
+    }
+
+    @Benchmark
+    public Hook toHook() {
+        return entity.toHook();
+    }
+
+}
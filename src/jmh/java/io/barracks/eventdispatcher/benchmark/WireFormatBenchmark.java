@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.barracks.eventdispatcher.client.WireFormat;
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    private WireFormat format;
+
+    private ObjectWriter writer;
+
+    private ObjectReader deviceEventReader;
+
+    private ObjectReader deviceChangeEventReader;
+
+    private DeviceEvent deviceEvent;
+
+    private DeviceChangeEvent deviceChangeEvent;
+
+    private byte[] encodedDeviceEvent;
+
+    private byte[] encodedDeviceChangeEvent;
+
+    @Setup
+    public void setUp() throws IOException {
+        final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        writer = objectMapper.writer();
+        deviceEventReader = objectMapper.readerFor(DeviceEvent.class);
+        deviceChangeEventReader = objectMapper.readerFor(DeviceChangeEvent.class);
+        deviceEvent = DeviceEventUtils.getDeviceEvent();
+        deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        encodedDeviceEvent = encodeDeviceEvent();
+        encodedDeviceChangeEvent = encodeDeviceChangeEvent();
+        System.out.printf("%n%s: DeviceEvent %d bytes, DeviceChangeEvent %d bytes%n", format, encodedDeviceEvent.length, encodedDeviceChangeEvent.length);
+    }
+
+    @Benchmark
+    public byte[] encodeDeviceEvent() throws IOException {
+        return encode(deviceEvent);
+    }
+
+    @Benchmark
+    public byte[] encodeDeviceChangeEvent() throws IOException {
+        return encode(deviceChangeEvent);
+    }
+
+    @Benchmark
+    public DeviceEvent decodeDeviceEvent() throws IOException {
+        try (JsonParser parser = format.getFactory().createParser(encodedDeviceEvent)) {
+            return deviceEventReader.readValue(parser);
+        }
+    }
+
+    @Benchmark
+    public DeviceChangeEvent decodeDeviceChangeEvent() throws IOException {
+        try (JsonParser parser = format.getFactory().createParser(encodedDeviceChangeEvent)) {
+            return deviceChangeEventReader.readValue(parser);
+        }
+    }
+
+    private byte[] encode(Object value) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = format.getFactory().createGenerator(out)) {
+            writer.writeValue(generator, value);
+        }
+        return out.toByteArray();
+    }
+
+}
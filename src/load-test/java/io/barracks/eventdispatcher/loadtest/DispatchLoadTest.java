@@ -0,0 +1,260 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
+import io.arivera.oss.embedded.rabbitmq.EmbeddedRabbitMq;
+import io.arivera.oss.embedded.rabbitmq.EmbeddedRabbitMqConfig;
+import io.barracks.eventdispatcher.Application;
+import io.barracks.eventdispatcher.manager.HookRoutingTable;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.repository.HookRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class DispatchLoadTest {
+
+    private static EmbeddedRabbitMq rabbitMq;
+
+    @Value("${io.barracks.ping.exchangename}")
+    private String eventExchangeName;
+
+    @Value("${io.barracks.enrollment.exchangename}")
+    private String enrollmentExchangeName;
+
+    @Value("${io.barracks.devicedata.exchangename}")
+    private String deviceDataExchangeName;
+
+    @Value("${io.barracks.devicepackage.exchangename}")
+    private String devicePackageExchangeName;
+
+    @Value("${io.barracks.web.exchangename}")
+    private String webhookExchangeName;
+
+    @Value("${io.barracks.googleanalytics.exchangename}")
+    private String googleAnalyticsExchangeName;
+
+    @Value("${io.barracks.bigquery.exchangename}")
+    private String bigQueryExchangeName;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private HookRepository hookRepository;
+
+    @Autowired
+    private HookRoutingTable hookRoutingTable;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> outbound = new ConcurrentHashMap<>();
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong lastReceivedAt = new AtomicLong();
+
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+
+    private volatile long measuredFrom = Long.MAX_VALUE;
+
+    @BeforeClass
+    public static void startBroker() throws ExecutionException, InterruptedException {
+        EmbeddedRabbitMqConfig config = new EmbeddedRabbitMqConfig.Builder()
+                .erlangCheckTimeoutInMillis(150000)
+                .rabbitMqServerInitializationTimeoutInMillis(100000)
+                .defaultRabbitMqCtlTimeoutInMillis(100000)
+                .downloadConnectionTimeoutInMillis(150000)
+                .downloadReadTimeoutInMillis(150000)
+                .build();
+        rabbitMq = new EmbeddedRabbitMq(config);
+        rabbitMq.start();
+    }
+
+    @AfterClass
+    public static void stopBroker() {
+        rabbitMq.stop();
+    }
+
+    @Test
+    public void dispatch_underSustainedLoad_shouldDeliverEveryOutboundMessage() throws Exception {
+        // Given
+        final LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+        final Map<EventType, String> exchanges = new EnumMap<>(EventType.class);
+        exchanges.put(EventType.PING, eventExchangeName);
+        exchanges.put(EventType.ENROLLMENT, enrollmentExchangeName);
+        exchanges.put(EventType.DEVICE_DATA_CHANGE, deviceDataExchangeName);
+        exchanges.put(EventType.DEVICE_PACKAGE_CHANGE, devicePackageExchangeName);
+        final SyntheticTraffic traffic = new SyntheticTraffic(settings, exchanges);
+        hookRepository.deleteAll();
+        hookRepository.insert(traffic.getHooks());
+        hookRoutingTable.reload();
+        final SimpleMessageListenerContainer container = listenOutbound(webhookExchangeName, googleAnalyticsExchangeName, bigQueryExchangeName);
+        log.info("Starting load test with {}", settings);
+
+        try {
+            // When
+            final Instant startedAt = Instant.now();
+            final Map<String, Long> publishedByEventType = new TreeMap<>();
+            final RateLimiter rateLimiter = RateLimiter.create(settings.getRate());
+            final long start = System.nanoTime();
+            final long measureStart = start + TimeUnit.SECONDS.toNanos(settings.getWarmup());
+            final long end = measureStart + TimeUnit.SECONDS.toNanos(settings.getDuration());
+            long sequence = 0;
+            long expectedOutbound = 0;
+            long measuredPublished = 0;
+            while (System.nanoTime() < end) {
+                rateLimiter.acquire();
+                final long now = System.nanoTime();
+                if (now >= measureStart && measuredFrom == Long.MAX_VALUE) {
+                    measuredFrom = sequence;
+                }
+                final SyntheticEvent event = traffic.next(sequence);
+                sentAt.put(sequence, now);
+                rabbitTemplate.convertAndSend(event.getExchange(), event.getRoutingKey(), event.getPayload());
+                expectedOutbound += event.getExpectedOutbound();
+                if (sequence >= measuredFrom) {
+                    measuredPublished++;
+                    publishedByEventType.merge(event.getEventType().name(), 1L, Long::sum);
+                }
+                sequence++;
+            }
+            final long publishedAt = System.nanoTime();
+            awaitOutbound(expectedOutbound, TimeUnit.SECONDS.toNanos(settings.getDrainTimeout()));
+
+            // Then
+            final Map<String, Long> outboundCounts = new TreeMap<>();
+            outbound.forEach((exchange, count) -> outboundCounts.put(exchange, count.get()));
+            final LoadReport report = LoadReport.builder()
+                    .startedAt(startedAt.toString())
+                    .settings(settings)
+                    .published(measuredPublished)
+                    .publishedByEventType(publishedByEventType)
+                    .publishRate(perSecond(measuredPublished, publishedAt - measureStart))
+                    .expectedOutbound(expectedOutbound)
+                    .outbound(outboundCounts)
+                    .missingOutbound(expectedOutbound - received.get())
+                    .outboundRate(perSecond(latencyRecorder.getCount(), lastReceivedAt.get() - measureStart))
+                    .latency(latencyRecorder.getPercentilesInMillis())
+                    .build();
+            report.write(objectMapper, new File(settings.getReport()));
+            log.info("Load test report written to {}: {}", settings.getReport(), report);
+
+            assertThat(measuredPublished).isPositive();
+            assertThat(report.getMissingOutbound()).isZero();
+        } finally {
+            container.stop();
+        }
+    }
+
+    private SimpleMessageListenerContainer listenOutbound(String... exchangeNames) {
+        final List<String> queueNames = new ArrayList<>();
+        for (String exchangeName : exchangeNames) {
+            final TopicExchange exchange = new TopicExchange(exchangeName, true, false);
+            final Queue queue = new AnonymousQueue();
+            amqpAdmin.declareExchange(exchange);
+            amqpAdmin.declareQueue(queue);
+            amqpAdmin.declareBinding(BindingBuilder.bind(queue).to(exchange).with("#"));
+            queueNames.add(queue.getName());
+        }
+        final SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+        container.setQueueNames(queueNames.toArray(new String[queueNames.size()]));
+        container.setAcknowledgeMode(AcknowledgeMode.NONE);
+        container.setConcurrentConsumers(4);
+        container.setMessageListener((MessageListener) this::onOutbound);
+        container.start();
+        return container;
+    }
+
+    private void onOutbound(Message message) {
+        final long now = System.nanoTime();
+        outbound.computeIfAbsent(message.getMessageProperties().getReceivedExchange(), exchange -> new AtomicLong()).incrementAndGet();
+        try {
+            final JsonNode unitId = objectMapper.readTree(message.getBody()).findValue("unitId");
+            final long sequence = SyntheticTraffic.getSequence(unitId != null ? unitId.asText() : null);
+            final Long sent = sentAt.get(sequence);
+            if (sent != null && sequence >= measuredFrom) {
+                latencyRecorder.record(now - sent);
+                lastReceivedAt.accumulateAndGet(now, Math::max);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read outbound message", e);
+        } finally {
+            received.incrementAndGet();
+        }
+    }
+
+    private void awaitOutbound(long expected, long timeoutNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (received.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos > 0 ? count * (double) TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+    }
+
+}
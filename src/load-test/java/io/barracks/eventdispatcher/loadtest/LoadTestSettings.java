@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.loadtest;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@Builder
+@ToString
+public class LoadTestSettings {
+
+    private static final String PREFIX = "loadTest.";
+
+    private final int rate;
+
+    private final int duration;
+
+    private final int warmup;
+
+    private final int drainTimeout;
+
+    private final int users;
+
+    private final double userSkew;
+
+    private final int hooksPerUser;
+
+    private final int pingWeight;
+
+    private final int enrollmentWeight;
+
+    private final int deviceDataWeight;
+
+    private final int devicePackageWeight;
+
+    private final int webhookWeight;
+
+    private final int googleAnalyticsWeight;
+
+    private final int bigQueryWeight;
+
+    private final long seed;
+
+    private final String report;
+
+    public static LoadTestSettings fromSystemProperties() {
+        return LoadTestSettings.builder()
+                .rate(Integer.getInteger(PREFIX + "rate", 500))
+                .duration(Integer.getInteger(PREFIX + "duration", 60))
+                .warmup(Integer.getInteger(PREFIX + "warmup", 10))
+                .drainTimeout(Integer.getInteger(PREFIX + "drainTimeout", 60))
+                .users(Integer.getInteger(PREFIX + "users", 100))
+                .userSkew(Double.parseDouble(System.getProperty(PREFIX + "userSkew", "1.0")))
+                .hooksPerUser(Integer.getInteger(PREFIX + "hooksPerUser", 3))
+                .pingWeight(Integer.getInteger(PREFIX + "pingWeight", 70))
+                .enrollmentWeight(Integer.getInteger(PREFIX + "enrollmentWeight", 10))
+                .deviceDataWeight(Integer.getInteger(PREFIX + "deviceDataWeight", 10))
+                .devicePackageWeight(Integer.getInteger(PREFIX + "devicePackageWeight", 10))
+                .webhookWeight(Integer.getInteger(PREFIX + "webhookWeight", 60))
+                .googleAnalyticsWeight(Integer.getInteger(PREFIX + "googleAnalyticsWeight", 20))
+                .bigQueryWeight(Integer.getInteger(PREFIX + "bigQueryWeight", 20))
+                .seed(Long.getLong(PREFIX + "seed", 42L))
+                .report(System.getProperty(PREFIX + "report", "build/reports/load-test/report.json"))
+                .build();
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.loadtest;
+
+import io.barracks.eventdispatcher.model.*;
+import io.barracks.eventdispatcher.utils.DeviceRequestUtils;
+import io.barracks.eventdispatcher.utils.GoogleClientSecretUtils;
+import io.barracks.eventdispatcher.utils.ResolvedVersionsUtils;
+
+import java.util.*;
+
+public class SyntheticTraffic {
+
+    private static final String UNIT_PREFIX = "load-";
+
+    private final Random random;
+
+    private final WeightedChoice<Integer> users;
+
+    private final WeightedChoice<EventType> eventTypes;
+
+    private final Map<EventType, String> exchanges;
+
+    private final Map<EventType, String> routingKeys = new EnumMap<>(EventType.class);
+
+    private final List<Hook> hooks = new ArrayList<>();
+
+    private final Map<String, Integer> hookCounts = new HashMap<>();
+
+    public SyntheticTraffic(LoadTestSettings settings, Map<EventType, String> exchanges) {
+        this.random = new Random(settings.getSeed());
+        this.users = WeightedChoice.zipf(settings.getUsers(), settings.getUserSkew());
+        this.eventTypes = new WeightedChoice<EventType>()
+                .add(EventType.PING, settings.getPingWeight())
+                .add(EventType.ENROLLMENT, settings.getEnrollmentWeight())
+                .add(EventType.DEVICE_DATA_CHANGE, settings.getDeviceDataWeight())
+                .add(EventType.DEVICE_PACKAGE_CHANGE, settings.getDevicePackageWeight());
+        this.exchanges = exchanges;
+        this.routingKeys.put(EventType.PING, "devices.v2.load");
+        this.routingKeys.put(EventType.ENROLLMENT, "devices.enrollment.load");
+        this.routingKeys.put(EventType.DEVICE_DATA_CHANGE, "devices.data.load");
+        this.routingKeys.put(EventType.DEVICE_PACKAGE_CHANGE, "devices.package.load");
+
+        final WeightedChoice<String> hookTypes = new WeightedChoice<String>()
+                .add("web", settings.getWebhookWeight())
+                .add("google_analytics", settings.getGoogleAnalyticsWeight())
+                .add("bigquery", settings.getBigQueryWeight());
+        for (int user = 0; user < settings.getUsers(); user++) {
+            for (EventType eventType : EventType.values()) {
+                for (int index = 0; index < settings.getHooksPerUser(); index++) {
+                    hooks.add(createHook(hookTypes.next(random), getUserId(user), eventType, index));
+                }
+                hookCounts.put(getUserId(user) + eventType, settings.getHooksPerUser());
+            }
+        }
+    }
+
+    public List<Hook> getHooks() {
+        return Collections.unmodifiableList(hooks);
+    }
+
+    public SyntheticEvent next(long sequence) {
+        final String userId = getUserId(users.next(random));
+        final EventType eventType = eventTypes.next(random);
+        final DeviceEvent deviceEvent = createDeviceEvent(userId, UNIT_PREFIX + sequence);
+        final Object payload = eventType == EventType.PING || eventType == EventType.ENROLLMENT
+                ? deviceEvent
+                : DeviceChangeEvent.builder().oldRequest(deviceEvent.getRequest()).deviceEvent(deviceEvent).build();
+        return SyntheticEvent.builder()
+                .sequence(sequence)
+                .eventType(eventType)
+                .exchange(exchanges.get(eventType))
+                .routingKey(routingKeys.get(eventType))
+                .payload(payload)
+                .expectedOutbound(hookCounts.getOrDefault(userId + eventType, 0))
+                .build();
+    }
+
+    public static long getSequence(String unitId) {
+        if (unitId == null || !unitId.startsWith(UNIT_PREFIX)) {
+            return -1;
+        }
+        return Long.parseLong(unitId.substring(UNIT_PREFIX.length()));
+    }
+
+    private static String getUserId(int user) {
+        return "loaduser" + user;
+    }
+
+    private static DeviceEvent createDeviceEvent(String userId, String unitId) {
+        return DeviceEvent.builder()
+                .userId(userId)
+                .unitId(unitId)
+                .request(DeviceRequestUtils.getDeviceRequest().toBuilder().userId(userId).unitId(unitId).build())
+                .response(ResolvedVersionsUtils.getResolvedVersions())
+                .build();
+    }
+
+    private static Hook createHook(String type, String userId, EventType eventType, int index) {
+        final String id = UUID.randomUUID().toString();
+        final String name = "load " + eventType.name().toLowerCase().replace('_', ' ') + " " + index;
+        switch (type) {
+            case "google_analytics":
+                return GoogleAnalyticsHook.builder()
+                        .id(id).userId(userId).eventType(eventType).name(name)
+                        .gaTrackingId("UA-" + index)
+                        .build();
+            case "bigquery":
+                return BigQueryHook.builder()
+                        .id(id).userId(userId).eventType(eventType).name(name)
+                        .googleClientSecret(GoogleClientSecretUtils.getGoogleClientSecret())
+                        .build();
+            default:
+                return Webhook.builder()
+                        .id(id).userId(userId).eventType(eventType).name(name)
+                        .url("http://localhost/" + userId + "/" + index)
+                        .build();
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class WeightedChoice<T> {
+
+    private final List<T> values = new ArrayList<>();
+
+    private final List<Double> cumulativeWeights = new ArrayList<>();
+
+    private double total = 0;
+
+    public WeightedChoice<T> add(T value, double weight) {
+        if (weight > 0) {
+            total += weight;
+            values.add(value);
+            cumulativeWeights.add(total);
+        }
+        return this;
+    }
+
+    public static WeightedChoice<Integer> zipf(int size, double exponent) {
+        final WeightedChoice<Integer> choice = new WeightedChoice<>();
+        for (int rank = 1; rank <= size; rank++) {
+            choice.add(rank - 1, 1 / Math.pow(rank, exponent));
+        }
+        return choice;
+    }
+
+    public T next(Random random) {
+        final double target = random.nextDouble() * total;
+        int low = 0;
+        int high = cumulativeWeights.size() - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (cumulativeWeights.get(middle) <= target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return values.get(low);
+    }
+
+}
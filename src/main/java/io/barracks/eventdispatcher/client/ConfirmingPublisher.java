@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.client;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ConfirmListener;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+@Slf4j
+@Component
+public class ConfirmingPublisher {
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final String SUCCESS_METRIC = "counter.message.process.success";
+    private static final String RETRY_METRIC = "counter.message.process.retry";
+    private static final String ERROR_METRIC = "counter.message.process.error";
+
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final CounterBuffers counterBuffers;
+
+    private final LatencyHistograms latencyHistograms;
+
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final long confirmTimeout;
+
+    private final int retries;
+
+    private final long initialDelay;
+
+    private final double multiplier;
+
+    private final long maxDelay;
+
+    @Autowired
+    public ConfirmingPublisher(
+            RabbitTemplate rabbitTemplate,
+            CounterBuffers counterBuffers,
+            LatencyHistograms latencyHistograms,
+            @Value("${io.barracks.publisher.confirms.enabled:false}") boolean enabled,
+            @Value("${io.barracks.publisher.batch.size:500}") int batchSize,
+            @Value("${io.barracks.publisher.confirms.timeout:5000}") long confirmTimeout,
+            @Value("${io.barracks.publisher.retries:3}") int retries,
+            @Value("${io.barracks.publisher.retry.initialdelay:100}") long initialDelay,
+            @Value("${io.barracks.publisher.retry.multiplier:2.0}") double multiplier,
+            @Value("${io.barracks.publisher.retry.maxdelay:2000}") long maxDelay
+    ) {
+        if (enabled && rabbitTemplate.getConnectionFactory() instanceof CachingConnectionFactory
+                && !((CachingConnectionFactory) rabbitTemplate.getConnectionFactory()).isPublisherConfirms()) {
+            throw new IllegalStateException("Publisher confirms are enabled but the connection factory is not in confirm mode");
+        }
+        this.rabbitTemplate = rabbitTemplate;
+        this.counterBuffers = counterBuffers;
+        this.latencyHistograms = latencyHistograms;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.confirmTimeout = confirmTimeout;
+        this.retries = retries;
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<OutboundMessage> publish(Stream<OutboundMessage> messages) {
+        final List<OutboundMessage> batch = new ArrayList<>(batchSize);
+        final List<OutboundMessage> dropped = new ArrayList<>();
+        for (Iterator<OutboundMessage> iterator = messages.iterator(); iterator.hasNext(); ) {
+            batch.add(iterator.next());
+            if (batch.size() >= batchSize) {
+                dropped.addAll(publishWithRetries(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            dropped.addAll(publishWithRetries(batch));
+        }
+        return dropped;
+    }
+
+    private List<OutboundMessage> publishWithRetries(List<OutboundMessage> batch) {
+        List<OutboundMessage> pending = new ArrayList<>(batch);
+        for (int attempt = 0; attempt <= retries && !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                final long delay = getDelay(attempt - 1);
+                log.warn("{} messages were not confirmed by RabbitMQ, retrying in {}ms (attempt {}/{})", pending.size(), delay, attempt, retries);
+                incrementRabbitMQMetric(RETRY_METRIC, pending.size());
+                if (!sleep(delay)) {
+                    break;
+                }
+            }
+            final int attempted = pending.size();
+            try {
+                pending = publishBatch(pending);
+            } catch (AmqpException e) {
+                log.error("The batch cannot be sent to RabbitMQ. It is possible that the broker is not running. Exception : " + e);
+            }
+            incrementRabbitMQMetric(SUCCESS_METRIC, attempted - pending.size());
+        }
+        if (!pending.isEmpty()) {
+            log.error("{} messages were not confirmed by RabbitMQ after {} retries and are dropped", pending.size(), retries);
+            incrementRabbitMQMetric(ERROR_METRIC, pending.size());
+        }
+        return pending;
+    }
+
+    List<OutboundMessage> publishBatch(List<OutboundMessage> batch) {
+        return rabbitTemplate.execute(channel -> {
+            final ConcurrentNavigableMap<Long, OutboundMessage> unconfirmed = new ConcurrentSkipListMap<>();
+            final List<OutboundMessage> nacked = Collections.synchronizedList(new ArrayList<>());
+            final long start = System.nanoTime();
+            final ConfirmListener listener = new ConfirmListener() {
+                @Override
+                public void handleAck(long deliveryTag, boolean multiple) {
+                    confirm(unconfirmed, deliveryTag, multiple).forEach(message ->
+                            latencyHistograms.recordSince(message.getPublishMetricName(), start)
+                    );
+                }
+
+                @Override
+                public void handleNack(long deliveryTag, boolean multiple) {
+                    nacked.addAll(confirm(unconfirmed, deliveryTag, multiple));
+                }
+            };
+            channel.confirmSelect();
+            channel.addConfirmListener(listener);
+            try {
+                for (OutboundMessage outboundMessage : batch) {
+                    final AMQP.BasicProperties properties = messagePropertiesConverter.fromMessageProperties(
+                            outboundMessage.getMessage().getMessageProperties(), ENCODING
+                    );
+                    unconfirmed.put(channel.getNextPublishSeqNo(), outboundMessage);
+                    channel.basicPublish(
+                            outboundMessage.getExchange(),
+                            outboundMessage.getRoutingKey(),
+                            false,
+                            properties,
+                            outboundMessage.getMessage().getBody()
+                    );
+                }
+                channel.waitForConfirms(confirmTimeout);
+            } catch (TimeoutException e) {
+                log.warn("Timed out after {}ms waiting for {} publisher confirms", confirmTimeout, unconfirmed.size());
+            } finally {
+                channel.removeConfirmListener(listener);
+            }
+            final List<OutboundMessage> failed = new ArrayList<>(nacked);
+            failed.addAll(unconfirmed.values());
+            return failed;
+        });
+    }
+
+    private static List<OutboundMessage> confirm(ConcurrentNavigableMap<Long, OutboundMessage> unconfirmed, long deliveryTag, boolean multiple) {
+        final Map<Long, OutboundMessage> confirmed = multiple
+                ? unconfirmed.headMap(deliveryTag, true)
+                : unconfirmed.subMap(deliveryTag, true, deliveryTag, true);
+        final List<OutboundMessage> result = new ArrayList<>(confirmed.values());
+        confirmed.clear();
+        return result;
+    }
+
+    long getDelay(int retries) {
+        return Math.min(maxDelay, (long) (initialDelay * Math.pow(multiplier, retries)));
+    }
+
+    private static boolean sleep(long delay) {
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void incrementRabbitMQMetric(String metricName, int count) {
+        if (count > 0) {
+            counterBuffers.increment(metricName, count);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.client;
+
+import io.barracks.eventdispatcher.client.entity.HookInvalidation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class HookInvalidationClient {
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final CounterService counter;
+
+    private final String hookInvalidationExchange;
+
+    @Autowired
+    public HookInvalidationClient(
+            RabbitTemplate rabbitTemplate,
+            CounterService counter,
+            @Value("${io.barracks.hookinvalidation.exchangename}") String hookInvalidationExchange
+    ) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.counter = counter;
+        this.hookInvalidationExchange = hookInvalidationExchange;
+    }
+
+    public void postHookInvalidation(String userId) {
+        try {
+            final HookInvalidation hookInvalidation = HookInvalidation.builder()
+                    .userId(userId)
+                    .build();
+            rabbitTemplate.convertAndSend(hookInvalidationExchange, "", hookInvalidation);
+            counter.increment("message.invalidation.success");
+        } catch (Exception e) {
+            log.error("The invalidation of the hooks of user '" + userId + "' cannot be sent to RabbitMQ. Exception : " + e);
+            counter.increment("message.invalidation.error");
+        }
+    }
+
+}
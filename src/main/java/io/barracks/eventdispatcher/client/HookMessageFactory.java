@@ -0,0 +1,291 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.client;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import io.barracks.eventdispatcher.client.entity.DeviceChangeEventDelta;
+import io.barracks.eventdispatcher.client.entity.DeviceChangeEventDeltaHook;
+import io.barracks.eventdispatcher.client.entity.DeviceChangeEventHook;
+import io.barracks.eventdispatcher.client.entity.DeviceEventHook;
+import io.barracks.eventdispatcher.client.entity.HookReference;
+import io.barracks.eventdispatcher.model.*;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+@Component
+public class HookMessageFactory {
+
+    private static final String ENCODING = StandardCharsets.UTF_8.name();
+    private static final byte[] HOOK_FIELD = ",\"hook\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte END_OBJECT = '}';
+
+    static final String ENVELOPE_FORMAT_HEADER = "x-barracks-envelope-format";
+    static final String ENVELOPE_VERSION_HEADER = "x-barracks-envelope-version";
+    static final int ENVELOPE_VERSION = 1;
+    static final String HOOK_ID_HEADER = "x-barracks-hook-id";
+    static final String HOOK_TYPE_HEADER = "x-barracks-hook-type";
+    static final String HOOK_USER_ID_HEADER = "x-barracks-hook-user-id";
+    static final String HOOK_NAME_HEADER = "x-barracks-hook-name";
+    static final String CHANGE_FORMAT_HEADER = "x-barracks-change-format";
+
+    private static final String CUSTOM_CLIENT_DATA_FIELD = "customClientData";
+    private static final String PACKAGES_FIELD = "packages";
+
+    private final Jackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+
+    private final ObjectMapper objectMapper;
+
+    private final ObjectWriter hookWriter;
+
+    private final ObjectWriter hookReferenceWriter;
+
+    private final Map<Class<? extends Hook>, EnvelopeFormat> envelopeFormats = new HashMap<>();
+
+    private final Map<Class<? extends Hook>, WireFormat> wireFormats = new HashMap<>();
+
+    @Autowired
+    public HookMessageFactory(
+            ObjectMapper objectMapper,
+            @Value("${io.barracks.web.envelope:FULL}") EnvelopeFormat webhookEnvelope,
+            @Value("${io.barracks.googleanalytics.envelope:FULL}") EnvelopeFormat googleAnalyticsEnvelope,
+            @Value("${io.barracks.bigquery.envelope:FULL}") EnvelopeFormat bigQueryEnvelope,
+            @Value("${io.barracks.web.encoding:JSON}") WireFormat webhookEncoding,
+            @Value("${io.barracks.googleanalytics.encoding:JSON}") WireFormat googleAnalyticsEncoding,
+            @Value("${io.barracks.bigquery.encoding:JSON}") WireFormat bigQueryEncoding
+    ) {
+        this.objectMapper = objectMapper;
+        this.hookWriter = objectMapper.writerFor(Hook.class);
+        this.hookReferenceWriter = objectMapper.writerFor(HookReference.class);
+        this.envelopeFormats.put(Webhook.class, webhookEnvelope);
+        this.envelopeFormats.put(GoogleAnalyticsHook.class, googleAnalyticsEnvelope);
+        this.envelopeFormats.put(BigQueryHook.class, bigQueryEnvelope);
+        this.wireFormats.put(Webhook.class, webhookEncoding);
+        this.wireFormats.put(GoogleAnalyticsHook.class, googleAnalyticsEncoding);
+        this.wireFormats.put(BigQueryHook.class, bigQueryEncoding);
+    }
+
+    public Function<Hook, Message> forDeviceEvent(DeviceEvent deviceEvent) {
+        return forEvent("deviceEvent", () -> write(objectMapper.writer(), deviceEvent), DeviceEvent.class, DeviceEventHook.class);
+    }
+
+    public Function<Hook, Message> forRawDeviceEvent(RawDeviceEvent rawDeviceEvent) {
+        return forEvent("deviceEvent", rawDeviceEvent::getBody, DeviceEvent.class, DeviceEventHook.class);
+    }
+
+    public Function<Hook, Message> forDeviceChangeEvent(DeviceChangeEvent deviceChangeEvent) {
+        return forChangeEvent(
+                forEvent("deviceChangeEvent", () -> write(objectMapper.writer(), deviceChangeEvent), DeviceChangeEvent.class, DeviceChangeEventHook.class),
+                () -> deviceChangeEvent
+        );
+    }
+
+    public Function<Hook, Message> forRawDeviceChangeEvent(RawDeviceEvent rawDeviceChangeEvent) {
+        return forChangeEvent(
+                forEvent("deviceChangeEvent", rawDeviceChangeEvent::getBody, DeviceChangeEvent.class, DeviceChangeEventHook.class),
+                () -> read(rawDeviceChangeEvent.getBody(), DeviceChangeEvent.class)
+        );
+    }
+
+    private Function<Hook, Message> forChangeEvent(Function<Hook, Message> full, Supplier<DeviceChangeEvent> deviceChangeEvent) {
+        final Function<Hook, Message> delta = forEvent(
+                "deviceChangeEventDelta",
+                () -> write(objectMapper.writer(), toDelta(deviceChangeEvent.get())),
+                DeviceChangeEventDelta.class,
+                DeviceChangeEventDeltaHook.class
+        );
+        return hook -> {
+            if (hook.getChangeFormat() != ChangeFormat.DELTA) {
+                return full.apply(hook);
+            }
+            final Message message = delta.apply(hook);
+            message.getMessageProperties().setHeader(CHANGE_FORMAT_HEADER, ChangeFormat.DELTA.name().toLowerCase());
+            return message;
+        };
+    }
+
+    DeviceChangeEventDelta toDelta(DeviceChangeEvent deviceChangeEvent) {
+        final DeviceEvent deviceEvent = deviceChangeEvent.getDeviceEvent();
+        return DeviceChangeEventDelta.builder()
+                .userId(deviceEvent.getUserId())
+                .unitId(deviceEvent.getUnitId())
+                .changes(JsonPatchDiff.diff(toDeltaSource(deviceChangeEvent.getOldRequest()), toDeltaSource(deviceEvent.getRequest())))
+                .build();
+    }
+
+    private ObjectNode toDeltaSource(DeviceRequest request) {
+        final ObjectNode source = objectMapper.createObjectNode();
+        source.set(CUSTOM_CLIENT_DATA_FIELD, request != null ? request.getCustomClientData() : objectMapper.createObjectNode());
+        source.set(PACKAGES_FIELD, request != null && request.getPackages() != null
+                ? objectMapper.valueToTree(request.getPackages())
+                : objectMapper.createArrayNode());
+        return source;
+    }
+
+    private Function<Hook, Message> forEvent(String field, Supplier<byte[]> event, Class<?> eventType, Class<?> envelopeType) {
+        final Supplier<byte[]> eventBody = Suppliers.memoize(event);
+        final Supplier<byte[]> prefix = Suppliers.memoize(() -> concat(
+                ("{\"" + field + "\":").getBytes(StandardCharsets.UTF_8),
+                eventBody.get(),
+                HOOK_FIELD
+        ));
+        final Map<WireFormat, Supplier<byte[]>> encodedBodies = new EnumMap<>(WireFormat.class);
+        for (WireFormat wireFormat : WireFormat.values()) {
+            encodedBodies.put(wireFormat, Suppliers.memoize(() -> WireFormat.JSON.transcode(eventBody.get(), wireFormat)));
+        }
+        final JavaType eventJavaType = objectMapper.constructType(eventType);
+        final JavaType envelopeJavaType = objectMapper.constructType(envelopeType);
+        return hook -> {
+            final EnvelopeFormat envelopeFormat = getEnvelopeFormat(hook);
+            final WireFormat wireFormat = getWireFormat(hook);
+            final MessageProperties properties = new MessageProperties();
+            final byte[] body;
+            if (envelopeFormat == EnvelopeFormat.PASSTHROUGH) {
+                body = encodedBodies.get(wireFormat).get();
+                typeMapper.fromJavaType(eventJavaType, properties);
+                setHookHeaders(properties, toReference(hook));
+            } else {
+                final ObjectWriter writer = envelopeFormat == EnvelopeFormat.REFERENCE ? hookReferenceWriter : hookWriter;
+                final Object hookValue = envelopeFormat == EnvelopeFormat.REFERENCE ? toReference(hook) : hook;
+                body = wireFormat == WireFormat.JSON
+                        ? concat(prefix.get(), write(writer, hookValue), new byte[]{END_OBJECT})
+                        : writeEnvelope(wireFormat, field, eventBody.get(), writer, hookValue);
+                typeMapper.fromJavaType(envelopeJavaType, properties);
+            }
+            properties.setContentType(wireFormat.getContentType());
+            if (wireFormat == WireFormat.JSON) {
+                properties.setContentEncoding(ENCODING);
+            }
+            properties.setContentLength(body.length);
+            if (envelopeFormat != EnvelopeFormat.FULL) {
+                properties.setHeader(ENVELOPE_FORMAT_HEADER, envelopeFormat.name().toLowerCase());
+                properties.setHeader(ENVELOPE_VERSION_HEADER, ENVELOPE_VERSION);
+            }
+            return new Message(body, properties);
+        };
+    }
+
+    private static void setHookHeaders(MessageProperties properties, HookReference reference) {
+        setHeader(properties, HOOK_ID_HEADER, reference.getId());
+        setHeader(properties, HOOK_TYPE_HEADER, reference.getType());
+        setHeader(properties, HOOK_USER_ID_HEADER, reference.getUserId());
+        setHeader(properties, HOOK_NAME_HEADER, reference.getName());
+    }
+
+    private static void setHeader(MessageProperties properties, String name, String value) {
+        if (value != null) {
+            properties.setHeader(name, value);
+        }
+    }
+
+    EnvelopeFormat getEnvelopeFormat(Hook hook) {
+        return envelopeFormats.getOrDefault(hook.getClass(), EnvelopeFormat.FULL);
+    }
+
+    WireFormat getWireFormat(Hook hook) {
+        return wireFormats.getOrDefault(hook.getClass(), WireFormat.JSON);
+    }
+
+    static HookReference toReference(Hook hook) {
+        final JsonTypeName typeName = hook.getClass().getAnnotation(JsonTypeName.class);
+        return HookReference.builder()
+                .id(hook.getId())
+                .type(typeName != null ? typeName.value() : null)
+                .userId(hook.getUserId())
+                .name(hook.getName())
+                .build();
+    }
+
+    private static byte[] write(ObjectWriter writer, Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new MessageConversionException("Failed to convert Message content", e);
+        }
+    }
+
+    private <T> T read(byte[] body, Class<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert Message content", e);
+        }
+    }
+
+    private static byte[] writeEnvelope(WireFormat wireFormat, String field, byte[] event, ObjectWriter hookWriter, Object hook) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(event.length);
+        try (JsonParser parser = WireFormat.JSON.getFactory().createParser(event);
+             JsonGenerator generator = wireFormat.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeFieldName(field);
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+            generator.writeFieldName("hook");
+            hookWriter.writeValue(generator, hook);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert Message content", e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        final byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+
+public final class JsonPatchDiff {
+
+    private static final String OP = "op";
+    private static final String PATH = "path";
+    private static final String VALUE = "value";
+
+    private JsonPatchDiff() {
+    }
+
+    public static ArrayNode diff(JsonNode source, JsonNode target) {
+        final ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+        diff(patch, "", source, target);
+        return patch;
+    }
+
+    private static void diff(ArrayNode patch, String path, JsonNode source, JsonNode target) {
+        if (source.equals(target)) {
+            return;
+        }
+        if (source.isObject() && target.isObject()) {
+            diffObjects(patch, path, source, target);
+        } else if (source.isArray() && target.isArray()) {
+            diffArrays(patch, path, source, target);
+        } else {
+            patch.add(operation("replace", path).set(VALUE, target));
+        }
+    }
+
+    private static void diffObjects(ArrayNode patch, String path, JsonNode source, JsonNode target) {
+        final Iterator<String> sourceFields = source.fieldNames();
+        while (sourceFields.hasNext()) {
+            final String field = sourceFields.next();
+            final String fieldPath = path + "/" + escape(field);
+            if (target.has(field)) {
+                diff(patch, fieldPath, source.get(field), target.get(field));
+            } else {
+                patch.add(operation("remove", fieldPath));
+            }
+        }
+        final Iterator<String> targetFields = target.fieldNames();
+        while (targetFields.hasNext()) {
+            final String field = targetFields.next();
+            if (!source.has(field)) {
+                patch.add(operation("add", path + "/" + escape(field)).set(VALUE, target.get(field)));
+            }
+        }
+    }
+
+    private static void diffArrays(ArrayNode patch, String path, JsonNode source, JsonNode target) {
+        final int common = Math.min(source.size(), target.size());
+        for (int i = 0; i < common; i++) {
+            diff(patch, path + "/" + i, source.get(i), target.get(i));
+        }
+        for (int i = common; i < target.size(); i++) {
+            patch.add(operation("add", path + "/" + i).set(VALUE, target.get(i)));
+        }
+        for (int i = source.size() - 1; i >= common; i--) {
+            patch.add(operation("remove", path + "/" + i));
+        }
+    }
+
+    private static ObjectNode operation(String op, String path) {
+        final ObjectNode operation = JsonNodeFactory.instance.objectNode();
+        operation.put(OP, op);
+        operation.put(PATH, path);
+        return operation;
+    }
+
+    private static String escape(String field) {
+        return field.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+@Component
+public class MessageCompressor {
+
+    private final CounterService counter;
+
+    private final Compression compression;
+
+    private final int threshold;
+
+    @Autowired
+    public MessageCompressor(
+            CounterService counter,
+            @Value("${io.barracks.compression.algorithm:NONE}") Compression compression,
+            @Value("${io.barracks.compression.threshold:16384}") int threshold
+    ) {
+        this.counter = counter;
+        this.compression = compression;
+        this.threshold = threshold;
+    }
+
+    public boolean isEnabled() {
+        return compression != Compression.NONE;
+    }
+
+    public <T> Function<T, Message> compressing(Function<T, Message> messageFactory) {
+        if (!isEnabled()) {
+            return messageFactory;
+        }
+        final AtomicReference<CompressedBody> last = new AtomicReference<>();
+        return value -> {
+            final Message message = messageFactory.apply(value);
+            final byte[] body = message.getBody();
+            if (body.length < threshold) {
+                return message;
+            }
+            CompressedBody compressed = last.get();
+            if (compressed == null || compressed.source != body) {
+                compressed = new CompressedBody(body, compress(body));
+                last.set(compressed);
+            }
+            if (compressed.body.length >= body.length) {
+                counter.increment("message.compression.skipped");
+                return message;
+            }
+            counter.increment("message.compression." + compression.getEncoding());
+            return new Message(compressed.body, withEncoding(message.getMessageProperties(), compressed.body.length));
+        };
+    }
+
+    private byte[] compress(byte[] body) {
+        try {
+            return compression.compress(body);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to compress Message content", e);
+        }
+    }
+
+    private MessageProperties withEncoding(MessageProperties properties, int length) {
+        final String encoding = properties.getContentEncoding();
+        properties.setContentEncoding(encoding == null ? compression.getEncoding() : compression.getEncoding() + ":" + encoding);
+        properties.setContentLength(length);
+        properties.setHeader(MessageProperties.SPRING_AUTO_DECOMPRESS, true);
+        return properties;
+    }
+
+    private static final class CompressedBody {
+
+        private final byte[] source;
+
+        private final byte[] body;
+
+        private CompressedBody(byte[] source, byte[] body) {
+            this.source = source;
+            this.body = body;
+        }
+    }
+}
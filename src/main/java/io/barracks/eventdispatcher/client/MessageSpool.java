@@ -0,0 +1,435 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+@Slf4j
+@Component
+public class MessageSpool implements PublicMetrics, DisposableBean {
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final byte STRING = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte BOOLEAN = 3;
+
+    private final CounterService counter;
+
+    private final boolean enabled;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final SpoolFsyncPolicy fsyncPolicy;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long nextSegment;
+
+    private long depth;
+
+    @Autowired
+    public MessageSpool(
+            CounterService counter,
+            @Value("${io.barracks.spool.enabled:false}") boolean enabled,
+            @Value("${io.barracks.spool.directory:${java.io.tmpdir}/eventdispatcher-spool}") String directory,
+            @Value("${io.barracks.spool.segment.size:67108864}") int segmentSize,
+            @Value("${io.barracks.spool.max.size:1073741824}") long maxSize,
+            @Value("${io.barracks.spool.fsync:PERIODIC}") SpoolFsyncPolicy fsyncPolicy
+    ) {
+        this.counter = counter;
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, maxSize / segmentSize);
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort((first, second) -> Long.compare(sequenceOf(first), sequenceOf(second)));
+        for (Path file : files) {
+            final Segment segment = Segment.open(file, segmentSize);
+            segments.addLast(segment);
+            depth += segment.countRecords();
+            nextSegment = sequenceOf(file) + 1;
+        }
+        if (depth > 0) {
+            log.info("Recovered {} spooled messages from {}", depth, directory);
+        }
+    }
+
+    public synchronized boolean append(OutboundMessage message) {
+        if (!enabled) {
+            return false;
+        }
+        try {
+            final byte[] record = encode(message);
+            if (record.length > segmentSize - Segment.HEADER_SIZE - 2 * Integer.BYTES) {
+                return overflow("message too large for a spool segment");
+            }
+            Segment tail = segments.peekLast();
+            if (tail == null || !tail.fits(record.length)) {
+                if (segments.size() >= maxSegments) {
+                    return overflow("spool is full");
+                }
+                tail = Segment.open(directory.resolve(SEGMENT_PREFIX + nextSegment++ + SEGMENT_SUFFIX), segmentSize);
+                segments.addLast(tail);
+            }
+            tail.append(record);
+            if (fsyncPolicy == SpoolFsyncPolicy.ALWAYS) {
+                tail.force();
+            }
+            depth++;
+            counter.increment("spool.append");
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            log.error("The message cannot be spooled", e);
+            return overflow("spool write failed");
+        }
+    }
+
+    public int drain(Predicate<OutboundMessage> sender) {
+        int drained = 0;
+        OutboundMessage message;
+        while ((message = peek()) != null) {
+            if (!sender.test(message)) {
+                break;
+            }
+            commit();
+            drained++;
+        }
+        return drained;
+    }
+
+    public synchronized long getDepth() {
+        return depth;
+    }
+
+    @Scheduled(fixedDelayString = "${io.barracks.spool.fsync.interval:1000}")
+    public synchronized void sync() {
+        if (enabled && fsyncPolicy == SpoolFsyncPolicy.PERIODIC) {
+            segments.forEach(Segment::force);
+        }
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.pendingBytes();
+        }
+        return Arrays.<Metric<?>>asList(
+                new Metric<>("spool.depth", depth),
+                new Metric<>("spool.bytes", bytes),
+                new Metric<>("spool.segments", segments.size())
+        );
+    }
+
+    @Override
+    public synchronized void destroy() throws IOException {
+        for (Segment segment : segments) {
+            segment.force();
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private synchronized OutboundMessage peek() {
+        while (!segments.isEmpty()) {
+            final Segment head = segments.peekFirst();
+            final byte[] record = head.peek();
+            if (record != null) {
+                return decode(record);
+            }
+            if (head == segments.peekLast()) {
+                head.reset();
+                return null;
+            }
+            segments.removeFirst();
+            head.delete();
+        }
+        return null;
+    }
+
+    private synchronized void commit() {
+        segments.peekFirst().advance();
+        depth--;
+        counter.increment("spool.replayed");
+    }
+
+    private boolean overflow(String reason) {
+        log.error("Dropping outbound message: {}", reason);
+        counter.increment("spool.overflow");
+        return false;
+    }
+
+    private static long sequenceOf(Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static byte[] encode(OutboundMessage message) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final MessageProperties properties = message.getMessage().getMessageProperties();
+        out.writeUTF(message.getExchange());
+        out.writeUTF(message.getRoutingKey());
+        writeNullable(out, properties.getContentType());
+        writeNullable(out, properties.getContentEncoding());
+        writeNullable(out, properties.getMessageId());
+        out.writeBoolean(properties.getDeliveryMode() == MessageDeliveryMode.PERSISTENT);
+        final Map<String, Object> headers = properties.getHeaders();
+        out.writeInt(headers.size());
+        for (Map.Entry<String, Object> header : headers.entrySet()) {
+            out.writeUTF(header.getKey());
+            writeHeaderValue(out, header.getValue());
+        }
+        final byte[] body = message.getMessage().getBody();
+        out.writeInt(body.length);
+        out.write(body);
+        return bytes.toByteArray();
+    }
+
+    static OutboundMessage decode(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            final String exchange = in.readUTF();
+            final String routingKey = in.readUTF();
+            final MessageProperties properties = new MessageProperties();
+            properties.setContentType(readNullable(in));
+            properties.setContentEncoding(readNullable(in));
+            properties.setMessageId(readNullable(in));
+            properties.setDeliveryMode(in.readBoolean() ? MessageDeliveryMode.PERSISTENT : MessageDeliveryMode.NON_PERSISTENT);
+            final int headers = in.readInt();
+            for (int i = 0; i < headers; i++) {
+                properties.setHeader(in.readUTF(), readHeaderValue(in));
+            }
+            final byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            properties.setContentLength(body.length);
+            return new OutboundMessage(exchange, routingKey, new Message(body, properties));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeHeaderValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(STRING);
+            out.writeUTF(String.valueOf(value));
+        }
+    }
+
+    private static Object readHeaderValue(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOLEAN:
+                return in.readBoolean();
+            default:
+                return in.readUTF();
+        }
+    }
+
+    static class Segment {
+
+        static final int HEADER_SIZE = Long.BYTES;
+
+        private final Path file;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private int readPosition;
+
+        private int writePosition;
+
+        private Segment(Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.readPosition = (int) Math.max(HEADER_SIZE, buffer.getLong(0));
+            this.writePosition = readPosition;
+            while (writePosition + Integer.BYTES <= buffer.capacity()) {
+                final int length = buffer.getInt(writePosition);
+                if (length <= 0 || writePosition + Integer.BYTES + length > buffer.capacity()) {
+                    break;
+                }
+                writePosition += Integer.BYTES + length;
+            }
+        }
+
+        static Segment open(Path file, int size) throws IOException {
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        boolean fits(int length) {
+            return writePosition + 2 * Integer.BYTES + length <= buffer.capacity();
+        }
+
+        void append(byte[] record) {
+            final int start = writePosition;
+            final ByteBuffer view = buffer.duplicate();
+            view.position(start + Integer.BYTES);
+            view.put(record);
+            writePosition = start + Integer.BYTES + record.length;
+            buffer.putInt(writePosition, 0);
+            buffer.putInt(start, record.length);
+        }
+
+        byte[] peek() {
+            if (readPosition >= writePosition) {
+                return null;
+            }
+            final byte[] record = new byte[buffer.getInt(readPosition)];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(readPosition + Integer.BYTES);
+            view.get(record);
+            return record;
+        }
+
+        void advance() {
+            readPosition += Integer.BYTES + buffer.getInt(readPosition);
+            buffer.putLong(0, readPosition);
+        }
+
+        void reset() {
+            if (readPosition > HEADER_SIZE) {
+                buffer.putInt(HEADER_SIZE, 0);
+                buffer.putLong(0, HEADER_SIZE);
+                readPosition = HEADER_SIZE;
+                writePosition = HEADER_SIZE;
+            }
+        }
+
+        int countRecords() {
+            int count = 0;
+            for (int position = readPosition; position < writePosition; position += Integer.BYTES + buffer.getInt(position)) {
+                count++;
+            }
+            return count;
+        }
+
+        long pendingBytes() {
+            return writePosition - readPosition;
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("The drained spool segment {} cannot be deleted", file, e);
+            }
+        }
+
+    }
+
+}
@@ -1,125 +1,243 @@
-/*
- * MIT License
- *
- * Copyright (c) 2017 Barracks Inc.
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in all
- * copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
- * SOFTWARE.
- */
-
-package io.barracks.eventdispatcher.client;
-
-
-import io.barracks.eventdispatcher.client.entity.DeviceChangeEventHook;
-import io.barracks.eventdispatcher.model.DeviceChangeEvent;
-import io.barracks.eventdispatcher.model.DeviceEvent;
-import io.barracks.eventdispatcher.client.entity.DeviceEventHook;
-import io.barracks.eventdispatcher.model.Hook;
-import io.barracks.eventdispatcher.exception.InvalidHookException;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.actuate.metrics.CounterService;
-import org.springframework.stereotype.Component;
-
-@Component
-@Slf4j
-public class QueuingServiceClient {
-
-    private static final String WEBHOOK_CLASS = "Webhook";
-    private static final String GOOGLE_ANALYTICS_CLASS = "GoogleAnalyticsHook";
-    private static final String BIGQUERY_CLASS = "BigQueryHook";
-
-
-    private final RabbitTemplate rabbitTemplate;
-
-    private final CounterService counter;
-    private final String deviceEventRoutingKey;
-    private final String deviceChangeEventoutingKey;
-    private String webhookExchange;
-    private String googleAnalyticsExchange;
-    private String bigQueryExchange;
-
-    @Autowired
-    public QueuingServiceClient(
-            RabbitTemplate rabbitTemplate,
-            CounterService counter,
-            @Value("${io.barracks.web.exchangename}") String webhookExchange,
-            @Value("${io.barracks.googleanalytics.exchangename}") String googleAnalyticsExchange,
-            @Value("${io.barracks.bigquery.exchangename}") String bigQueryExchange,
-            @Value("${io.barracks.deviceevent.routingkey}") String deviceEventRoutingKey,
-            @Value("${io.barracks.devicechangeevent.routingkey}") String deviceChangeEventoutingKey
-    ) {
-        this.rabbitTemplate = rabbitTemplate;
-        this.counter = counter;
-        this.webhookExchange = webhookExchange;
-        this.googleAnalyticsExchange = googleAnalyticsExchange;
-        this.bigQueryExchange = bigQueryExchange;
-        this.deviceEventRoutingKey = deviceEventRoutingKey;
-        this.deviceChangeEventoutingKey = deviceChangeEventoutingKey;
-    }
-
-    public void postDeviceEventHook(DeviceEvent deviceEvent, Hook hook) {
-        try {
-            final DeviceEventHook deviceEventHook = DeviceEventHook.builder()
-                    .deviceEvent(deviceEvent)
-                    .hook(hook)
-                    .build();
-            final String exchangeName = getExchangeName(hook);
-            rabbitTemplate.convertAndSend(exchangeName, deviceEventRoutingKey, deviceEventHook);
-            incrementRabbitMQMetric("success");
-        } catch (Exception e) {
-            log.error("The message cannot be sent to RabbitMQ. It is possible that the broker is not running. Exception : " + e);
-            incrementRabbitMQMetric("error");
-        }
-    }
-
-    public void postDeviceChangeEventHook(DeviceChangeEvent deviceChangeEvent, Hook hook) {
-        try {
-            final DeviceChangeEventHook deviceChangeEventHook = DeviceChangeEventHook.builder()
-                    .deviceChangeEvent(deviceChangeEvent)
-                    .hook(hook)
-                    .build();
-            final String exchangeName = getExchangeName(hook);
-            rabbitTemplate.convertAndSend(exchangeName, deviceChangeEventoutingKey, deviceChangeEventHook);
-            incrementRabbitMQMetric("success");
-        } catch (Exception e) {
-            log.error("The message cannot be sent to RabbitMQ. It is possible that the broker is not running. Exception : " + e);
-            incrementRabbitMQMetric("error");
-        }
-    }
-
-    String getExchangeName(Hook hook) {
-        switch (hook.getClass().getSimpleName()) {
-            case WEBHOOK_CLASS:
-                return webhookExchange;
-            case GOOGLE_ANALYTICS_CLASS:
-                return googleAnalyticsExchange;
-            case BIGQUERY_CLASS:
-                return bigQueryExchange;
-            default:
-                throw new InvalidHookException(hook.getUserId(), hook.getName());
-        }
-    }
-
-    private void incrementRabbitMQMetric(String status) {
-        counter.increment("message.process." + status);
-    }
-
-}
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.client.exception.HookDispatchException;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import io.barracks.eventdispatcher.exception.InvalidHookException;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Component
+@Slf4j
+public class QueuingServiceClient {
+
+    private static final String WEBHOOK_CLASS = "Webhook";
+    private static final String GOOGLE_ANALYTICS_CLASS = "GoogleAnalyticsHook";
+    private static final String BIGQUERY_CLASS = "BigQueryHook";
+
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final ConfirmingPublisher confirmingPublisher;
+
+    private final HookMessageFactory hookMessageFactory;
+
+    private final MessageCompressor messageCompressor;
+
+    private final MessageSpool messageSpool;
+
+    private final CounterService counter;
+
+    private final LatencyHistograms latencyHistograms;
+    private final String deviceEventRoutingKey;
+    private final String deviceChangeEventoutingKey;
+    private String webhookExchange;
+    private String googleAnalyticsExchange;
+    private String bigQueryExchange;
+
+    @Autowired
+    public QueuingServiceClient(
+            RabbitTemplate rabbitTemplate,
+            ConfirmingPublisher confirmingPublisher,
+            HookMessageFactory hookMessageFactory,
+            MessageCompressor messageCompressor,
+            MessageSpool messageSpool,
+            CounterService counter,
+            LatencyHistograms latencyHistograms,
+            @Value("${io.barracks.web.exchangename}") String webhookExchange,
+            @Value("${io.barracks.googleanalytics.exchangename}") String googleAnalyticsExchange,
+            @Value("${io.barracks.bigquery.exchangename}") String bigQueryExchange,
+            @Value("${io.barracks.deviceevent.routingkey}") String deviceEventRoutingKey,
+            @Value("${io.barracks.devicechangeevent.routingkey}") String deviceChangeEventoutingKey
+    ) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.confirmingPublisher = confirmingPublisher;
+        this.hookMessageFactory = hookMessageFactory;
+        this.messageCompressor = messageCompressor;
+        this.messageSpool = messageSpool;
+        this.counter = counter;
+        this.latencyHistograms = latencyHistograms;
+        this.webhookExchange = webhookExchange;
+        this.googleAnalyticsExchange = googleAnalyticsExchange;
+        this.bigQueryExchange = bigQueryExchange;
+        this.deviceEventRoutingKey = deviceEventRoutingKey;
+        this.deviceChangeEventoutingKey = deviceChangeEventoutingKey;
+    }
+
+    public void postDeviceEventHooks(DeviceEvent deviceEvent, Stream<Hook> hooks) {
+        publish(hooks, deviceEventRoutingKey, hookMessageFactory.forDeviceEvent(deviceEvent));
+    }
+
+    public void postRawDeviceEventHooks(RawDeviceEvent rawDeviceEvent, EventType eventType, Stream<Hook> hooks) {
+        publish(hooks, getRoutingKey(eventType), getRawMessageFactory(rawDeviceEvent, eventType));
+    }
+
+    public void postDeviceChangeEventHooks(DeviceChangeEvent deviceChangeEvent, Stream<Hook> hooks) {
+        publish(hooks, deviceChangeEventoutingKey, hookMessageFactory.forDeviceChangeEvent(deviceChangeEvent));
+    }
+
+    public List<OutboundMessage> buildDeviceEventMessages(DeviceEvent deviceEvent, List<Hook> hooks) {
+        return toMessages(hooks.stream(), deviceEventRoutingKey, hookMessageFactory.forDeviceEvent(deviceEvent))
+                .collect(Collectors.toList());
+    }
+
+    public List<OutboundMessage> buildRawDeviceEventMessages(RawDeviceEvent rawDeviceEvent, EventType eventType, List<Hook> hooks) {
+        return toMessages(hooks.stream(), getRoutingKey(eventType), getRawMessageFactory(rawDeviceEvent, eventType))
+                .collect(Collectors.toList());
+    }
+
+    public List<OutboundMessage> buildDeviceChangeEventMessages(DeviceChangeEvent deviceChangeEvent, List<Hook> hooks) {
+        return toMessages(hooks.stream(), deviceChangeEventoutingKey, hookMessageFactory.forDeviceChangeEvent(deviceChangeEvent))
+                .collect(Collectors.toList());
+    }
+
+    public int sendMessages(List<OutboundMessage> messages) {
+        return send(messages.stream());
+    }
+
+    private String getRoutingKey(EventType eventType) {
+        return isChangeEvent(eventType) ? deviceChangeEventoutingKey : deviceEventRoutingKey;
+    }
+
+    private Function<Hook, Message> getRawMessageFactory(RawDeviceEvent rawDeviceEvent, EventType eventType) {
+        return isChangeEvent(eventType)
+                ? hookMessageFactory.forRawDeviceChangeEvent(rawDeviceEvent)
+                : hookMessageFactory.forRawDeviceEvent(rawDeviceEvent);
+    }
+
+    private static boolean isChangeEvent(EventType eventType) {
+        return eventType == EventType.DEVICE_DATA_CHANGE || eventType == EventType.DEVICE_PACKAGE_CHANGE;
+    }
+
+    private void publish(Stream<Hook> hooks, String routingKey, Function<Hook, Message> messageFactory) {
+        final int dropped = send(toMessages(hooks, routingKey, messageFactory));
+        if (dropped > 0) {
+            throw new HookDispatchException(dropped);
+        }
+    }
+
+    private Stream<OutboundMessage> toMessages(Stream<Hook> hooks, String routingKey, Function<Hook, Message> messageFactory) {
+        final Function<Hook, Message> compressingFactory = messageCompressor.compressing(messageFactory);
+        return hooks.flatMap(hook -> {
+            try {
+                return Stream.of(new OutboundMessage(
+                        getExchangeName(hook),
+                        routingKey,
+                        latencyHistograms.time(LatencyHistograms.name(LatencyHistograms.SERIALIZE, hook.getEventType(), hook), () -> compressingFactory.apply(hook)),
+                        LatencyHistograms.name(LatencyHistograms.PUBLISH, hook.getEventType(), hook)
+                ));
+            } catch (Exception e) {
+                log.error("The message for hook '" + hook.getName() + "' cannot be built. Exception : " + e);
+                incrementRabbitMQMetric("error");
+                return Stream.empty();
+            }
+        });
+    }
+
+    private int send(Stream<OutboundMessage> messages) {
+        if (confirmingPublisher.isEnabled()) {
+            return (int) confirmingPublisher.publish(messages).stream()
+                    .filter(message -> !spool(message))
+                    .count();
+        }
+        return (int) messages.filter(message -> !send(message) && !spool(message)).count();
+    }
+
+    private boolean send(OutboundMessage outboundMessage) {
+        final long start = System.nanoTime();
+        try {
+            rabbitTemplate.send(outboundMessage.getExchange(), outboundMessage.getRoutingKey(), outboundMessage.getMessage());
+            incrementRabbitMQMetric("success");
+            return true;
+        } catch (Exception e) {
+            log.error("The message cannot be sent to RabbitMQ. It is possible that the broker is not running. Exception : " + e);
+            incrementRabbitMQMetric("error");
+            return false;
+        } finally {
+            latencyHistograms.recordSince(outboundMessage.getPublishMetricName(), start);
+        }
+    }
+
+    private boolean spool(OutboundMessage outboundMessage) {
+        if (messageSpool.isEnabled() && messageSpool.append(outboundMessage)) {
+            incrementRabbitMQMetric("spooled");
+            return true;
+        }
+        return false;
+    }
+
+    @Scheduled(fixedDelayString = "${io.barracks.spool.drain.interval:1000}")
+    public void drainSpool() {
+        if (messageSpool.isEnabled() && messageSpool.getDepth() > 0) {
+            final int drained = messageSpool.drain(this::replay);
+            if (drained > 0) {
+                log.info("Replayed {} spooled messages, {} remaining", drained, messageSpool.getDepth());
+            }
+        }
+    }
+
+    private boolean replay(OutboundMessage outboundMessage) {
+        if (confirmingPublisher.isEnabled()) {
+            return confirmingPublisher.publish(Stream.of(outboundMessage)).isEmpty();
+        }
+        return send(outboundMessage);
+    }
+
+    String getExchangeName(Hook hook) {
+        switch (hook.getClass().getSimpleName()) {
+            case WEBHOOK_CLASS:
+                return webhookExchange;
+            case GOOGLE_ANALYTICS_CLASS:
+                return googleAnalyticsExchange;
+            case BIGQUERY_CLASS:
+                return bigQueryExchange;
+            default:
+                throw new InvalidHookException(hook.getUserId(), hook.getName());
+        }
+    }
+
+    private void incrementRabbitMQMetric(String status) {
+        counter.increment("message.process." + status);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public enum WireFormat {
+    JSON(MessageProperties.CONTENT_TYPE_JSON, new JsonFactory()),
+    SMILE("application/x-jackson-smile", new SmileFactory()),
+    CBOR("application/cbor", new CBORFactory());
+
+    private final String contentType;
+
+    private final JsonFactory factory;
+
+    WireFormat(String contentType, JsonFactory factory) {
+        this.contentType = contentType;
+        this.factory = factory;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public JsonFactory getFactory() {
+        return factory;
+    }
+
+    public byte[] transcode(byte[] body, WireFormat target) {
+        if (target == this) {
+            return body;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+        try (JsonParser parser = factory.createParser(body);
+             JsonGenerator generator = target.factory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to transcode " + this + " content to " + target, e);
+        }
+        return out.toByteArray();
+    }
+
+    public static WireFormat forContentType(String contentType) {
+        if (contentType == null || contentType.contains("json")) {
+            return JSON;
+        }
+        for (WireFormat format : values()) {
+            if (contentType.startsWith(format.contentType)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.config;
+
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.pipeline.DispatchPipeline;
+import io.barracks.eventdispatcher.rabbitmq.PipelineMessageListener;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty("io.barracks.pipeline.enabled")
+public class DispatchPipelineConfig {
+
+    @Bean
+    public SimpleMessageListenerContainer pingPipelineListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DispatchPipeline dispatchPipeline,
+            @Value("${io.barracks.ping.queuename}") String queueName,
+            @Value("${io.barracks.ping.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.ping.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.pipeline.prefetch:250}") int prefetch
+    ) {
+        return pipelineListenerContainer(connectionFactory, decompressingPostProcessor, dispatchPipeline, EventType.PING, queueName, concurrency, maxConcurrency, prefetch);
+    }
+
+    @Bean
+    public SimpleMessageListenerContainer enrollmentPipelineListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DispatchPipeline dispatchPipeline,
+            @Value("${io.barracks.enrollment.queuename}") String queueName,
+            @Value("${io.barracks.enrollment.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.enrollment.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.pipeline.prefetch:250}") int prefetch
+    ) {
+        return pipelineListenerContainer(connectionFactory, decompressingPostProcessor, dispatchPipeline, EventType.ENROLLMENT, queueName, concurrency, maxConcurrency, prefetch);
+    }
+
+    @Bean
+    public SimpleMessageListenerContainer deviceDataPipelineListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DispatchPipeline dispatchPipeline,
+            @Value("${io.barracks.devicedata.queuename}") String queueName,
+            @Value("${io.barracks.devicedata.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.devicedata.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.pipeline.prefetch:250}") int prefetch
+    ) {
+        return pipelineListenerContainer(connectionFactory, decompressingPostProcessor, dispatchPipeline, EventType.DEVICE_DATA_CHANGE, queueName, concurrency, maxConcurrency, prefetch);
+    }
+
+    @Bean
+    public SimpleMessageListenerContainer devicePackagePipelineListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DispatchPipeline dispatchPipeline,
+            @Value("${io.barracks.devicepackage.queuename}") String queueName,
+            @Value("${io.barracks.devicepackage.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.devicepackage.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.pipeline.prefetch:250}") int prefetch
+    ) {
+        return pipelineListenerContainer(connectionFactory, decompressingPostProcessor, dispatchPipeline, EventType.DEVICE_PACKAGE_CHANGE, queueName, concurrency, maxConcurrency, prefetch);
+    }
+
+    private static SimpleMessageListenerContainer pipelineListenerContainer(
+            ConnectionFactory connectionFactory,
+            MessagePostProcessor decompressingPostProcessor,
+            DispatchPipeline dispatchPipeline,
+            EventType eventType,
+            String queueName,
+            int concurrency,
+            int maxConcurrency,
+            int prefetch
+    ) {
+        final SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+        container.setQueueNames(queueName);
+        container.setAfterReceivePostProcessors(decompressingPostProcessor);
+        container.setMessageListener(new PipelineMessageListener(dispatchPipeline, eventType));
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        container.setConcurrentConsumers(concurrency);
+        container.setMaxConcurrentConsumers(Math.max(concurrency, maxConcurrency));
+        container.setPrefetchCount(prefetch);
+        return container;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.config;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class HttpClientConfig {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpClientConnectionManager(
+            @Value("${io.barracks.httpclient.maxtotal:100}") int maxTotal,
+            @Value("${io.barracks.httpclient.maxperroute:20}") int maxPerRoute,
+            @Value("${io.barracks.httpclient.timetolive:300000}") long timeToLive
+    ) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(timeToLive, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(1000);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(
+            PoolingHttpClientConnectionManager httpClientConnectionManager,
+            @Value("${io.barracks.httpclient.idletimeout:30000}") long idleTimeout
+    ) {
+        return HttpClients.custom()
+                .setConnectionManager(httpClientConnectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Bean
+    public ClientHttpRequestFactory pooledClientHttpRequestFactory(
+            CloseableHttpClient httpClient,
+            @Value("${io.barracks.httpclient.connecttimeout:2000}") int connectTimeout,
+            @Value("${io.barracks.httpclient.readtimeout:5000}") int readTimeout,
+            @Value("${io.barracks.httpclient.connectionrequesttimeout:1000}") int connectionRequestTimeout
+    ) {
+        final HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        requestFactory.setConnectionRequestTimeout(connectionRequestTimeout);
+        return requestFactory;
+    }
+
+    @Bean
+    public RestTemplateCustomizer pooledRestTemplateCustomizer(ClientHttpRequestFactory pooledClientHttpRequestFactory) {
+        return restTemplate -> restTemplate.setRequestFactory(pooledClientHttpRequestFactory);
+    }
+
+    @Bean
+    public PublicMetrics httpClientPoolMetrics(PoolingHttpClientConnectionManager httpClientConnectionManager) {
+        return () -> {
+            final PoolStats stats = httpClientConnectionManager.getTotalStats();
+            return Arrays.<Metric<?>>asList(
+                    new Metric<>("httpclient.pool.leased", stats.getLeased()),
+                    new Metric<>("httpclient.pool.available", stats.getAvailable()),
+                    new Metric<>("httpclient.pool.pending", stats.getPending()),
+                    new Metric<>("httpclient.pool.max", stats.getMax())
+            );
+        };
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.config;
+
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import io.barracks.eventdispatcher.rabbitmq.BatchingMessageListener;
+import io.barracks.eventdispatcher.rabbitmq.DeviceEventDecoder;
+import io.barracks.eventdispatcher.rabbitmq.DeviceMessageReceiver;
+import io.barracks.eventdispatcher.rabbitmq.RetryRouter;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+@Configuration
+@ConditionalOnExpression("!${io.barracks.pipeline.enabled:false}")
+public class RabbitBatchListenerConfig implements RabbitListenerConfigurer, DisposableBean {
+
+    private static final List<BatchQueue<?>> QUEUES = Arrays.asList(
+            new BatchQueue<>("ping", EventType.PING, "event", DeviceEvent.class, DeviceMessageReceiver::receiveDeviceEventMessages),
+            new BatchQueue<>("enrollment", EventType.ENROLLMENT, "enrollment", DeviceEvent.class, DeviceMessageReceiver::receiveEnrollmentMessages),
+            new BatchQueue<>("devicedata", EventType.DEVICE_DATA_CHANGE, "device.data", DeviceChangeEvent.class, DeviceMessageReceiver::receiveDeviceDataMessages),
+            new BatchQueue<>("devicepackage", EventType.DEVICE_PACKAGE_CHANGE, "device.package", DeviceChangeEvent.class, DeviceMessageReceiver::receiveDevicePackageMessages)
+    );
+
+    @Autowired
+    private Environment environment;
+    @Autowired
+    private ConnectionFactory connectionFactory;
+    @Autowired
+    private DelegatingDecompressingPostProcessor decompressingPostProcessor;
+    @Autowired
+    private MessageConverter messageConverter;
+    @Autowired
+    private DeviceEventDecoder deviceEventDecoder;
+    @Autowired
+    private DeviceMessageReceiver receiver;
+    @Autowired
+    private CounterService counter;
+    @Autowired
+    private RetryRouter retryRouter;
+
+    private final List<BatchingMessageListener<?>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        QUEUES.stream()
+                .filter(queue -> getProperty(queue, "listener.batch.enabled", Boolean.class, false))
+                .forEach(queue -> {
+                    final BatchingMessageListener<?> listener = batchListener(queue);
+                    listeners.add(listener);
+                    registrar.registerEndpoint(
+                            new BatchListenerEndpoint(queue.prefix + "BatchListenerContainer", getRequiredProperty(queue, "queuename"), listener),
+                            batchListenerContainerFactory(queue)
+                    );
+                });
+    }
+
+    @Override
+    public void destroy() {
+        listeners.forEach(BatchingMessageListener::destroy);
+    }
+
+    private BatchingMessageListener<?> batchListener(BatchQueue<?> queue) {
+        final int batchSize = getBatchSize(queue);
+        final long flushInterval = getProperty(queue, "listener.batch.flushinterval", Long.class, 200L);
+        final boolean requeueRejected = getProperty(queue, "listener.batch.requeuerejected", Boolean.class, false);
+        if (getProperty(queue, "listener.streaming.enabled", Boolean.class, false)) {
+            return new BatchingMessageListener<>(
+                    message -> deviceEventDecoder.decode(message, queue.eventType),
+                    RawDeviceEvent.class,
+                    events -> receiver.receiveRawDeviceEventMessages(events, queue.eventType),
+                    counter,
+                    retryRouter,
+                    queue.name,
+                    batchSize,
+                    flushInterval,
+                    requeueRejected
+            );
+        }
+        return typedBatchListener(queue, batchSize, flushInterval, requeueRejected);
+    }
+
+    private <T> BatchingMessageListener<T> typedBatchListener(BatchQueue<T> queue, int batchSize, long flushInterval, boolean requeueRejected) {
+        return new BatchingMessageListener<>(
+                messageConverter,
+                queue.type,
+                events -> queue.handler.accept(receiver, events),
+                counter,
+                retryRouter,
+                queue.name,
+                batchSize,
+                flushInterval,
+                requeueRejected
+        );
+    }
+
+    private SimpleRabbitListenerContainerFactory batchListenerContainerFactory(BatchQueue<?> queue) {
+        final int concurrency = getProperty(queue, "listener.concurrency", Integer.class, 1);
+        final int maxConcurrency = getProperty(queue, "listener.maxconcurrency", Integer.class, 1);
+        final int prefetch = getProperty(queue, "listener.prefetch", Integer.class, 1);
+        final SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory() {
+            @Override
+            protected void initializeContainer(SimpleMessageListenerContainer instance) {
+                super.initializeContainer(instance);
+                instance.setAfterReceivePostProcessors(decompressingPostProcessor);
+            }
+        };
+        factory.setConnectionFactory(connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(Math.max(concurrency, maxConcurrency));
+        factory.setPrefetchCount(Math.max(prefetch, getBatchSize(queue)));
+        return factory;
+    }
+
+    private int getBatchSize(BatchQueue<?> queue) {
+        return getProperty(queue, "listener.batch.size", Integer.class, 100);
+    }
+
+    private <T> T getProperty(BatchQueue<?> queue, String key, Class<T> type, T defaultValue) {
+        return environment.getProperty("io.barracks." + queue.prefix + "." + key, type, defaultValue);
+    }
+
+    private String getRequiredProperty(BatchQueue<?> queue, String key) {
+        return environment.getRequiredProperty("io.barracks." + queue.prefix + "." + key);
+    }
+
+    private static class BatchQueue<T> {
+
+        private final String prefix;
+
+        private final EventType eventType;
+
+        private final String name;
+
+        private final Class<T> type;
+
+        private final BiConsumer<DeviceMessageReceiver, List<T>> handler;
+
+        private BatchQueue(String prefix, EventType eventType, String name, Class<T> type, BiConsumer<DeviceMessageReceiver, List<T>> handler) {
+            this.prefix = prefix;
+            this.eventType = eventType;
+            this.name = name;
+            this.type = type;
+            this.handler = handler;
+        }
+
+    }
+
+    private static class BatchListenerEndpoint implements RabbitListenerEndpoint {
+
+        private final String id;
+
+        private final String queueName;
+
+        private final BatchingMessageListener<?> listener;
+
+        private BatchListenerEndpoint(String id, String queueName, BatchingMessageListener<?> listener) {
+            this.id = id;
+            this.queueName = queueName;
+            this.listener = listener;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getGroup() {
+            return null;
+        }
+
+        @Override
+        public void setupListenerContainer(MessageListenerContainer listenerContainer) {
+            ((SimpleMessageListenerContainer) listenerContainer).setQueueNames(queueName);
+            listenerContainer.setupMessageListener(listener);
+        }
+
+    }
+
+}
@@ -25,11 +25,28 @@
 package io.barracks.eventdispatcher.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.Compression;
+import io.barracks.eventdispatcher.client.WireFormat;
+import io.barracks.eventdispatcher.rabbitmq.Lz4DecompressingPostProcessor;
+import io.barracks.eventdispatcher.rabbitmq.RetryRouter;
+import io.barracks.eventdispatcher.rabbitmq.WireFormatMessageConverter;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
+import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.amqp.support.postprocessor.GUnzipPostProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -44,19 +61,145 @@ public class RabbitMQConfig {
 
     @Value("${io.barracks.amqp.uri}")
     private String uri;
+    @Value("${io.barracks.hookinvalidation.exchangename}")
+    private String hookInvalidationExchangeName;
+    @Value("${io.barracks.pipeline.enabled:false}")
+    private boolean pipelineEnabled;
+    @Value("${io.barracks.publisher.confirms.enabled:false}")
+    private boolean publisherConfirms;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private RetryRouter retryRouter;
 
     @Bean
     public MessageConverter messageConverter(ObjectMapper objectMapper) {
         Jackson2JsonMessageConverter jackson2JsonMessageConverter = new Jackson2JsonMessageConverter();
         jackson2JsonMessageConverter.setJsonObjectMapper(objectMapper);
-        return jackson2JsonMessageConverter;
+        final ContentTypeDelegatingMessageConverter messageConverter = new ContentTypeDelegatingMessageConverter(jackson2JsonMessageConverter);
+        messageConverter.addDelegate(WireFormat.SMILE.getContentType(), new WireFormatMessageConverter(objectMapper, WireFormat.SMILE));
+        messageConverter.addDelegate(WireFormat.CBOR.getContentType(), new WireFormatMessageConverter(objectMapper, WireFormat.CBOR));
+        return messageConverter;
+    }
+
+    @Bean
+    public DelegatingDecompressingPostProcessor decompressingPostProcessor() {
+        final DelegatingDecompressingPostProcessor decompressingPostProcessor = new DelegatingDecompressingPostProcessor();
+        decompressingPostProcessor.addDecompressor(Compression.GZIP.getEncoding(), new GUnzipPostProcessor(true));
+        decompressingPostProcessor.addDecompressor(Compression.LZ4.getEncoding(), new Lz4DecompressingPostProcessor(true));
+        return decompressingPostProcessor;
     }
 
     @Bean
     public ConnectionFactory cf() throws URISyntaxException {
-        return new CachingConnectionFactory(new URI(uri));
+        final CachingConnectionFactory connectionFactory = new CachingConnectionFactory(new URI(uri));
+        connectionFactory.setPublisherConfirms(publisherConfirms);
+        return connectionFactory;
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory pingListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            @Value("${io.barracks.ping.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.ping.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.ping.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.ping.listener.txsize:1}") int txSize,
+            @Value("${io.barracks.ping.listener.batch.enabled:false}") boolean batchEnabled,
+            @Value("${io.barracks.ping.listener.streaming.enabled:false}") boolean streamingEnabled
+    ) {
+        return listenerContainerFactory(connectionFactory, messageConverter, decompressingPostProcessor(), retryRouter, concurrency, maxConcurrency, prefetch, txSize, batchEnabled || pipelineEnabled || streamingEnabled);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory enrollmentListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            @Value("${io.barracks.enrollment.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.enrollment.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.enrollment.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.enrollment.listener.txsize:1}") int txSize,
+            @Value("${io.barracks.enrollment.listener.batch.enabled:false}") boolean batchEnabled,
+            @Value("${io.barracks.enrollment.listener.streaming.enabled:false}") boolean streamingEnabled
+    ) {
+        return listenerContainerFactory(connectionFactory, messageConverter, decompressingPostProcessor(), retryRouter, concurrency, maxConcurrency, prefetch, txSize, batchEnabled || pipelineEnabled || streamingEnabled);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory deviceDataListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            @Value("${io.barracks.devicedata.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.devicedata.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.devicedata.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.devicedata.listener.txsize:1}") int txSize,
+            @Value("${io.barracks.devicedata.listener.batch.enabled:false}") boolean batchEnabled,
+            @Value("${io.barracks.devicedata.listener.streaming.enabled:false}") boolean streamingEnabled
+    ) {
+        return listenerContainerFactory(connectionFactory, messageConverter, decompressingPostProcessor(), retryRouter, concurrency, maxConcurrency, prefetch, txSize, batchEnabled || pipelineEnabled || streamingEnabled);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory devicePackageListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            @Value("${io.barracks.devicepackage.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.devicepackage.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.devicepackage.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.devicepackage.listener.txsize:1}") int txSize,
+            @Value("${io.barracks.devicepackage.listener.batch.enabled:false}") boolean batchEnabled,
+            @Value("${io.barracks.devicepackage.listener.streaming.enabled:false}") boolean streamingEnabled
+    ) {
+        return listenerContainerFactory(connectionFactory, messageConverter, decompressingPostProcessor(), retryRouter, concurrency, maxConcurrency, prefetch, txSize, batchEnabled || pipelineEnabled || streamingEnabled);
+    }
+
+    private static SimpleRabbitListenerContainerFactory listenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            MessagePostProcessor decompressingPostProcessor,
+            RetryRouter retryRouter,
+            int concurrency,
+            int maxConcurrency,
+            int prefetch,
+            int txSize,
+            boolean customListener
+    ) {
+        final SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory() {
+            @Override
+            protected void initializeContainer(SimpleMessageListenerContainer instance) {
+                super.initializeContainer(instance);
+                instance.setAfterReceivePostProcessors(decompressingPostProcessor);
+            }
+        };
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(Math.max(concurrency, maxConcurrency));
+        factory.setPrefetchCount(Math.max(prefetch, txSize));
+        factory.setTxSize(txSize);
+        factory.setAutoStartup(!customListener);
+        if (retryRouter.isEnabled()) {
+            factory.setAdviceChain(RetryInterceptorBuilder.stateless()
+                    .maxAttempts(1)
+                    .recoverer(retryRouter)
+                    .build());
+        }
+        return factory;
+    }
+
+    @Bean
+    public FanoutExchange hookInvalidationExchange() {
+        return new FanoutExchange(hookInvalidationExchangeName, true, false);
+    }
+
+    @Bean
+    public Queue hookInvalidationQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding hookInvalidationBinding(FanoutExchange hookInvalidationExchange, Queue hookInvalidationQueue) {
+        return BindingBuilder.bind(hookInvalidationQueue).to(hookInvalidationExchange);
     }
 
 }
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.config;
+
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.rabbitmq.DeviceEventDecoder;
+import io.barracks.eventdispatcher.rabbitmq.DeviceMessageReceiver;
+import io.barracks.eventdispatcher.rabbitmq.RetryRouter;
+import org.springframework.amqp.core.MessageListener;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RabbitStreamingListenerConfig {
+
+    @Bean
+    @ConditionalOnExpression("${io.barracks.ping.listener.streaming.enabled:false} && !${io.barracks.ping.listener.batch.enabled:false} && !${io.barracks.pipeline.enabled:false}")
+    public SimpleMessageListenerContainer pingStreamingListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DeviceEventDecoder deviceEventDecoder,
+            DeviceMessageReceiver receiver,
+            RetryRouter retryRouter,
+            @Value("${io.barracks.ping.queuename}") String queueName,
+            @Value("${io.barracks.ping.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.ping.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.ping.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.ping.listener.txsize:1}") int txSize
+    ) {
+        return streamingListenerContainer(connectionFactory, decompressingPostProcessor, deviceEventDecoder, receiver, retryRouter, EventType.PING, queueName, concurrency, maxConcurrency, prefetch, txSize);
+    }
+
+    @Bean
+    @ConditionalOnExpression("${io.barracks.enrollment.listener.streaming.enabled:false} && !${io.barracks.enrollment.listener.batch.enabled:false} && !${io.barracks.pipeline.enabled:false}")
+    public SimpleMessageListenerContainer enrollmentStreamingListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DeviceEventDecoder deviceEventDecoder,
+            DeviceMessageReceiver receiver,
+            RetryRouter retryRouter,
+            @Value("${io.barracks.enrollment.queuename}") String queueName,
+            @Value("${io.barracks.enrollment.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.enrollment.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.enrollment.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.enrollment.listener.txsize:1}") int txSize
+    ) {
+        return streamingListenerContainer(connectionFactory, decompressingPostProcessor, deviceEventDecoder, receiver, retryRouter, EventType.ENROLLMENT, queueName, concurrency, maxConcurrency, prefetch, txSize);
+    }
+
+    @Bean
+    @ConditionalOnExpression("${io.barracks.devicedata.listener.streaming.enabled:false} && !${io.barracks.devicedata.listener.batch.enabled:false} && !${io.barracks.pipeline.enabled:false}")
+    public SimpleMessageListenerContainer deviceDataStreamingListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DeviceEventDecoder deviceEventDecoder,
+            DeviceMessageReceiver receiver,
+            RetryRouter retryRouter,
+            @Value("${io.barracks.devicedata.queuename}") String queueName,
+            @Value("${io.barracks.devicedata.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.devicedata.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.devicedata.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.devicedata.listener.txsize:1}") int txSize
+    ) {
+        return streamingListenerContainer(connectionFactory, decompressingPostProcessor, deviceEventDecoder, receiver, retryRouter, EventType.DEVICE_DATA_CHANGE, queueName, concurrency, maxConcurrency, prefetch, txSize);
+    }
+
+    @Bean
+    @ConditionalOnExpression("${io.barracks.devicepackage.listener.streaming.enabled:false} && !${io.barracks.devicepackage.listener.batch.enabled:false} && !${io.barracks.pipeline.enabled:false}")
+    public SimpleMessageListenerContainer devicePackageStreamingListenerContainer(
+            ConnectionFactory connectionFactory,
+            DelegatingDecompressingPostProcessor decompressingPostProcessor,
+            DeviceEventDecoder deviceEventDecoder,
+            DeviceMessageReceiver receiver,
+            RetryRouter retryRouter,
+            @Value("${io.barracks.devicepackage.queuename}") String queueName,
+            @Value("${io.barracks.devicepackage.listener.concurrency:1}") int concurrency,
+            @Value("${io.barracks.devicepackage.listener.maxconcurrency:1}") int maxConcurrency,
+            @Value("${io.barracks.devicepackage.listener.prefetch:1}") int prefetch,
+            @Value("${io.barracks.devicepackage.listener.txsize:1}") int txSize
+    ) {
+        return streamingListenerContainer(connectionFactory, decompressingPostProcessor, deviceEventDecoder, receiver, retryRouter, EventType.DEVICE_PACKAGE_CHANGE, queueName, concurrency, maxConcurrency, prefetch, txSize);
+    }
+
+    private static SimpleMessageListenerContainer streamingListenerContainer(
+            ConnectionFactory connectionFactory,
+            MessagePostProcessor decompressingPostProcessor,
+            DeviceEventDecoder deviceEventDecoder,
+            DeviceMessageReceiver receiver,
+            RetryRouter retryRouter,
+            EventType eventType,
+            String queueName,
+            int concurrency,
+            int maxConcurrency,
+            int prefetch,
+            int txSize
+    ) {
+        final SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+        container.setQueueNames(queueName);
+        container.setAfterReceivePostProcessors(decompressingPostProcessor);
+        container.setMessageListener((MessageListener) message ->
+                receiver.receiveRawDeviceEventMessage(deviceEventDecoder.decode(message, eventType), eventType)
+        );
+        container.setConcurrentConsumers(concurrency);
+        container.setMaxConcurrentConsumers(Math.max(concurrency, maxConcurrency));
+        container.setPrefetchCount(Math.max(prefetch, txSize));
+        container.setTxSize(txSize);
+        if (retryRouter.isEnabled()) {
+            container.setAdviceChain(RetryInterceptorBuilder.stateless()
+                    .maxAttempts(1)
+                    .recoverer(retryRouter)
+                    .build());
+        }
+        return container;
+    }
+
+}
@@ -25,20 +25,37 @@
 package io.barracks.eventdispatcher.manager;
 
 import io.barracks.eventdispatcher.client.AuthorizationServiceClient;
+import io.barracks.eventdispatcher.client.HookInvalidationClient;
 import io.barracks.eventdispatcher.client.QueuingServiceClient;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.metrics.TenantLoadTracker;
 import io.barracks.eventdispatcher.model.DeviceChangeEvent;
 import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.DeviceRequest;
 import io.barracks.eventdispatcher.model.EventType;
 import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
 import io.barracks.eventdispatcher.repository.HookRepository;
 import io.barracks.eventdispatcher.repository.exception.HookNotFoundException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 @Slf4j
 @Service
 public class DeviceEventDispatcherManager {
@@ -49,74 +66,205 @@ public class DeviceEventDispatcherManager {
 
     private HookRepository hookRepository;
 
+    private HookRoutingTable hookRoutingTable;
+
+    private HookInvalidationClient hookInvalidationClient;
+
+    private LatencyHistograms latencyHistograms;
+
+    private TenantLoadTracker tenantLoadTracker;
+
     @Autowired
     public DeviceEventDispatcherManager(AuthorizationServiceClient authorizationServiceClient,
                                         QueuingServiceClient queuingServiceClient,
-                                        HookRepository hookRepository) {
+                                        HookRepository hookRepository,
+                                        HookRoutingTable hookRoutingTable,
+                                        HookInvalidationClient hookInvalidationClient,
+                                        LatencyHistograms latencyHistograms,
+                                        TenantLoadTracker tenantLoadTracker) {
         this.authorizationServiceClient = authorizationServiceClient;
         this.queuingServiceClient = queuingServiceClient;
         this.hookRepository = hookRepository;
+        this.hookRoutingTable = hookRoutingTable;
+        this.hookInvalidationClient = hookInvalidationClient;
+        this.latencyHistograms = latencyHistograms;
+        this.tenantLoadTracker = tenantLoadTracker;
     }
 
     public void postDeviceEvent(DeviceEvent deviceEvent) {
 
-        sendMessageToAllHookPagesForType(deviceEvent, 0, EventType.PING);
+        sendMessageToAllHooksForType(deviceEvent, EventType.PING);
+    }
+
+    public void postDeviceEvents(List<DeviceEvent> deviceEvents) {
+
+        sendMessagesToAllHooksForType(deviceEvents, EventType.PING);
+    }
+
+    public void postRawDeviceEvent(RawDeviceEvent rawDeviceEvent, EventType eventType) {
+        sendToHooks(rawDeviceEvent.getRequestUserId(), eventType, hooks ->
+                queuingServiceClient.postRawDeviceEventHooks(rawDeviceEvent, eventType, hooks)
+        );
+    }
+
+    public void postRawDeviceEvents(List<RawDeviceEvent> rawDeviceEvents, EventType eventType) {
+
+        sendToUsersHooks(groupByUserId(rawDeviceEvents, RawDeviceEvent::getRequestUserId), eventType, (event, hooks) ->
+                queuingServiceClient.postRawDeviceEventHooks(event, eventType, hooks.stream())
+        );
     }
 
     public void postDeviceEnrollment(DeviceEvent deviceEvent) {
 
-        final DeviceEvent event = deviceEvent.toBuilder()
+        sendMessageToAllHooksForType(withRequestIdentity(deviceEvent), EventType.ENROLLMENT);
+    }
+
+    public void postDeviceEnrollments(List<DeviceEvent> deviceEvents) {
+
+        final List<DeviceEvent> events = deviceEvents.stream()
+                .map(this::withRequestIdentity)
+                .collect(Collectors.toList());
+        sendMessagesToAllHooksForType(events, EventType.ENROLLMENT);
+    }
+
+    public void postDeviceChangeEvent(DeviceChangeEvent deviceChangeEvent, EventType eventType) {
+
+        sendMessageToAllHooksWithChangeForType(withRequestIdentity(deviceChangeEvent), eventType);
+    }
+
+    public void postDeviceChangeEvents(List<DeviceChangeEvent> deviceChangeEvents, EventType eventType) {
+
+        final List<DeviceChangeEvent> events = deviceChangeEvents.stream()
+                .map(this::withRequestIdentity)
+                .collect(Collectors.toList());
+        sendToUsersHooks(groupByUserId(events, event -> event.getDeviceEvent().getRequest().getUserId()), eventType, (event, hooks) ->
+                queuingServiceClient.postDeviceChangeEventHooks(event, hooks.stream())
+        );
+    }
+
+    public DeviceEvent withRequestIdentity(DeviceEvent deviceEvent) {
+        final DeviceRequest request = deviceEvent.getRequest();
+        if (Objects.equals(request.getUserId(), deviceEvent.getUserId())
+                && Objects.equals(request.getUnitId(), deviceEvent.getUnitId())) {
+            return deviceEvent;
+        }
+        return deviceEvent.toBuilder()
                 .request(
-                        deviceEvent.getRequest().toBuilder()
+                        request.toBuilder()
                                 .userId(deviceEvent.getUserId())
                                 .unitId(deviceEvent.getUnitId())
                                 .build())
                 .build();
-        sendMessageToAllHookPagesForType(event, 0, EventType.ENROLLMENT);
     }
 
-    public void postDeviceChangeEvent(DeviceChangeEvent deviceChangeEvent, EventType eventType) {
-
-        final DeviceEvent deviceEvent = deviceChangeEvent.getDeviceEvent();
-        final DeviceChangeEvent event = deviceChangeEvent.toBuilder()
-                .deviceEvent(deviceEvent.toBuilder()
-                        .request(
-                                deviceEvent.getRequest().toBuilder()
-                                        .userId(deviceEvent.getUserId())
-                                        .unitId(deviceEvent.getUnitId())
-                                        .build())
-                        .build()
-                )
+    public DeviceChangeEvent withRequestIdentity(DeviceChangeEvent deviceChangeEvent) {
+        final DeviceEvent deviceEvent = withRequestIdentity(deviceChangeEvent.getDeviceEvent());
+        if (deviceEvent == deviceChangeEvent.getDeviceEvent()) {
+            return deviceChangeEvent;
+        }
+        return deviceChangeEvent.toBuilder()
+                .deviceEvent(deviceEvent)
                 .build();
-        sendMessageToAllHookWithChangePagesForType(event, 0, eventType);
     }
 
-    private void sendMessageToAllHookPagesForType(DeviceEvent deviceEvent, int pageIndex, EventType eventType) {
-        final Pageable pageable = new PageRequest(pageIndex, 100);
-        final Page<Hook> page = hookRepository.getHooksByEventType(deviceEvent.getRequest().getUserId(), pageable, eventType.name());
-        page.getContent().forEach(hook ->
-                queuingServiceClient.postDeviceEventHook(deviceEvent, hook)
+    private void sendMessagesToAllHooksForType(List<DeviceEvent> deviceEvents, EventType eventType) {
+        sendToUsersHooks(groupByUserId(deviceEvents, event -> event.getRequest().getUserId()), eventType, (event, hooks) ->
+                queuingServiceClient.postDeviceEventHooks(event, hooks.stream())
         );
-        final long totalPages = page.getTotalPages();
-        if (pageIndex < totalPages - 1) {
-            sendMessageToAllHookPagesForType(deviceEvent, ++pageIndex, eventType);
+    }
+
+    private <T> void sendToUsersHooks(Map<String, List<T>> eventsByUser, EventType eventType, BiConsumer<T, List<Hook>> sender) {
+        RuntimeException failure = null;
+        for (Map.Entry<String, List<T>> userEvents : eventsByUser.entrySet()) {
+            try {
+                sendToUserHooks(userEvents.getKey(), eventType, userEvents.getValue(), sender);
+            } catch (RuntimeException e) {
+                log.error("Error while sending " + eventType + " events of user " + userEvents.getKey(), e);
+                if (failure == null) {
+                    failure = e;
+                } else if (failure != e) {
+                    failure.addSuppressed(e);
+                }
+            }
         }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private <T> void sendToUserHooks(String userId, EventType eventType, List<T> events, BiConsumer<T, List<Hook>> sender) {
+        final long start = System.nanoTime();
+        final List<Hook> hooks = resolveHooks(userId, eventType);
+        if (!hooks.isEmpty()) {
+            events.forEach(event -> sender.accept(event, hooks));
+        }
+        tenantLoadTracker.record(userId, events.size(), events.size() * hooks.size(), System.nanoTime() - start);
     }
 
-    private void sendMessageToAllHookWithChangePagesForType(DeviceChangeEvent deviceEvent, int pageIndex, EventType eventType) {
-        final Pageable pageable = new PageRequest(pageIndex, 100);
-        final Page<Hook> page = hookRepository.getHooksByEventType(deviceEvent.getDeviceEvent().getRequest().getUserId(), pageable, eventType.name());
-        page.getContent().forEach(hook ->
-                queuingServiceClient.postDeviceChangeEventHook(deviceEvent, hook)
+    private static <T> Map<String, List<T>> groupByUserId(List<T> events, Function<T, String> userId) {
+        return events.stream()
+                .filter(event -> userId.apply(event) != null)
+                .collect(Collectors.groupingBy(userId, LinkedHashMap::new, Collectors.toList()));
+    }
+
+    private void sendMessageToAllHooksForType(DeviceEvent deviceEvent, EventType eventType) {
+        sendToHooks(deviceEvent.getRequest().getUserId(), eventType, hooks ->
+                queuingServiceClient.postDeviceEventHooks(deviceEvent, hooks)
         );
-        final long totalPages = page.getTotalPages();
-        if (pageIndex < totalPages - 1) {
-            sendMessageToAllHookWithChangePagesForType(deviceEvent, ++pageIndex, eventType);
+    }
+
+    private void sendMessageToAllHooksWithChangeForType(DeviceChangeEvent deviceEvent, EventType eventType) {
+        sendToHooks(deviceEvent.getDeviceEvent().getRequest().getUserId(), eventType, hooks ->
+                queuingServiceClient.postDeviceChangeEventHooks(deviceEvent, hooks)
+        );
+    }
+
+    private void sendToHooks(String userId, EventType eventType, Consumer<Stream<Hook>> sender) {
+        final long start = System.nanoTime();
+        final AtomicInteger hookCount = new AtomicInteger();
+        try (Stream<Hook> hooks = streamHooks(userId, eventType)) {
+            sender.accept(hooks.peek(hook -> hookCount.incrementAndGet()));
+        }
+        tenantLoadTracker.record(userId, 1, hookCount.get(), System.nanoTime() - start);
+    }
+
+    public List<Hook> resolveHooks(String userId, EventType eventType) {
+        final long start = System.nanoTime();
+        final Optional<List<Hook>> hooks = hookRoutingTable.getHooks(userId, eventType);
+        if (hooks.isPresent()) {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.LOOKUP, eventType), start);
+            return hooks.get();
         }
+        try (Stream<Hook> repositoryHooks = timeFirstHook(hookRepository.streamHooksByEventType(userId, eventType.name()), eventType, start)) {
+            return repositoryHooks.collect(Collectors.toList());
+        }
+    }
+
+    public Stream<Hook> streamHooks(String userId, EventType eventType) {
+        final long start = System.nanoTime();
+        final Optional<List<Hook>> hooks = hookRoutingTable.getHooks(userId, eventType);
+        if (hooks.isPresent()) {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.LOOKUP, eventType), start);
+            return hooks.get().stream();
+        }
+        return timeFirstHook(hookRepository.streamHooksByEventType(userId, eventType.name()), eventType, start);
+    }
+
+    private Stream<Hook> timeFirstHook(Stream<Hook> hooks, EventType eventType, long start) {
+        final AtomicBoolean recorded = new AtomicBoolean();
+        final Runnable record = () -> {
+            if (recorded.compareAndSet(false, true)) {
+                latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.LOOKUP, eventType), start);
+            }
+        };
+        return hooks.peek(hook -> record.run()).onClose(record);
     }
 
     public Hook saveHook(Hook hook) {
-        return hookRepository.saveHook(hook);
+        final Hook result = hookRepository.saveHook(hook);
+        hookRoutingTable.put(result);
+        hookInvalidationClient.postHookInvalidation(result.getUserId());
+        return result;
     }
 
     public Hook getHook(String userId, String name) {
@@ -129,11 +277,16 @@ public class DeviceEventDispatcherManager {
 
     public void deleteHook(String userId, String name) {
         hookRepository.deleteHook(userId, name);
+        hookRoutingTable.remove(userId, name);
+        hookInvalidationClient.postHookInvalidation(userId);
     }
 
     public Hook updateHook(String userId, String name, Hook hook) {
         final Hook oldHook = hookRepository.getHookByUserIdAndName(userId, name).get();
         hook.setId(oldHook.getId());
-        return hookRepository.updateHook(name, hook);
+        final Hook result = hookRepository.updateHook(name, hook);
+        hookRoutingTable.put(result);
+        hookInvalidationClient.postHookInvalidation(userId);
+        return result;
     }
 }
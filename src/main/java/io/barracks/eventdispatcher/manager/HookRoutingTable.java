@@ -0,0 +1,223 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.manager;
+
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.repository.HookRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Slf4j
+@Component
+public class HookRoutingTable {
+
+    private final HookRepository hookRepository;
+
+    private final CounterService counter;
+
+    private final GaugeService gauge;
+
+    private final boolean enabled;
+
+    private volatile ConcurrentMap<String, Map<EventType, List<Hook>>> routes = new ConcurrentHashMap<>();
+
+    private volatile ConcurrentMap<String, String> userIdByHookId = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded = false;
+
+    @Autowired
+    public HookRoutingTable(
+            HookRepository hookRepository,
+            CounterService counter,
+            GaugeService gauge,
+            @Value("${io.barracks.hookcache.enabled:false}") boolean enabled
+    ) {
+        this.hookRepository = hookRepository;
+        this.counter = counter;
+        this.gauge = gauge;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            try {
+                reload();
+            } catch (Exception e) {
+                log.error("Failed to load the hook routing table, events will be dispatched from the database", e);
+            }
+        }
+    }
+
+    @Scheduled(
+            initialDelayString = "${io.barracks.hookcache.reload.interval:300000}",
+            fixedDelayString = "${io.barracks.hookcache.reload.interval:300000}"
+    )
+    public void scheduledReload() {
+        if (enabled) {
+            try {
+                reload();
+            } catch (Exception e) {
+                log.error("Failed to reload the hook routing table, keeping the previous version", e);
+            }
+        }
+    }
+
+    public Optional<List<Hook>> getHooks(String userId, EventType eventType) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        if (!loaded) {
+            counter.increment("hooks.cache.miss");
+            return Optional.empty();
+        }
+        counter.increment("hooks.cache.hit");
+        final Map<EventType, List<Hook>> userRoutes = routes.getOrDefault(userId, Collections.emptyMap());
+        return Optional.of(userRoutes.getOrDefault(eventType, Collections.emptyList()));
+    }
+
+    public synchronized void reload() {
+        final ConcurrentMap<String, Map<EventType, List<Hook>>> newRoutes = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, String> newUserIdByHookId = new ConcurrentHashMap<>();
+        final Map<String, List<Hook>> hooksByUserId = new HashMap<>();
+        for (Hook hook : hookRepository.getAllHooks()) {
+            hooksByUserId.computeIfAbsent(hook.getUserId(), userId -> new ArrayList<>()).add(hook);
+            newUserIdByHookId.put(hook.getId(), hook.getUserId());
+        }
+        hooksByUserId.forEach((userId, hooks) -> newRoutes.put(userId, index(hooks)));
+        this.routes = newRoutes;
+        this.userIdByHookId = newUserIdByHookId;
+        this.loaded = true;
+        log.debug("Loaded {} hooks for {} users in the hook routing table", newUserIdByHookId.size(), newRoutes.size());
+        submitSizeMetrics();
+    }
+
+    public synchronized void reload(String userId) {
+        if (!enabled || !loaded) {
+            return;
+        }
+        final List<Hook> hooks = hookRepository.getAllHooks(userId);
+        userIdByHookId.values().removeIf(userId::equals);
+        hooks.forEach(hook -> userIdByHookId.put(hook.getId(), userId));
+        if (hooks.isEmpty()) {
+            routes.remove(userId);
+        } else {
+            routes.put(userId, index(hooks));
+        }
+        submitSizeMetrics();
+    }
+
+    public synchronized void put(Hook hook) {
+        if (!enabled) {
+            return;
+        }
+        final String previousOwner = userIdByHookId.put(hook.getId(), hook.getUserId());
+        routes.compute(hook.getUserId(), (userId, userRoutes) -> replace(userRoutes, hook.getId(), hook));
+        if (previousOwner != null && !previousOwner.equals(hook.getUserId())) {
+            routes.computeIfPresent(previousOwner, (userId, userRoutes) -> replace(userRoutes, hook.getId(), null));
+        }
+        submitSizeMetrics();
+    }
+
+    public synchronized void remove(String hookId) {
+        if (!enabled || hookId == null) {
+            return;
+        }
+        final String owner = userIdByHookId.remove(hookId);
+        if (owner != null) {
+            routes.computeIfPresent(owner, (userId, userRoutes) -> replace(userRoutes, hookId, null));
+        }
+        submitSizeMetrics();
+    }
+
+    public synchronized void remove(String userId, String name) {
+        if (!enabled) {
+            return;
+        }
+        flatten(routes.get(userId)).stream()
+                .filter(hook -> Objects.equals(name, hook.getName()))
+                .forEach(hook -> remove(hook.getId()));
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        return userIdByHookId.size();
+    }
+
+    private static List<Hook> flatten(Map<EventType, List<Hook>> userRoutes) {
+        final List<Hook> hooks = new ArrayList<>();
+        if (userRoutes != null) {
+            userRoutes.values().forEach(hooks::addAll);
+        }
+        return hooks;
+    }
+
+    private static Map<EventType, List<Hook>> replace(Map<EventType, List<Hook>> userRoutes, String hookId, Hook replacement) {
+        final List<Hook> hooks = new ArrayList<>();
+        boolean replaced = false;
+        for (Hook hook : flatten(userRoutes)) {
+            if (!hookId.equals(hook.getId())) {
+                hooks.add(hook);
+            } else if (replacement != null && !replaced) {
+                hooks.add(replacement);
+                replaced = true;
+            }
+        }
+        if (replacement != null && !replaced) {
+            hooks.add(replacement);
+        }
+        return hooks.isEmpty() ? null : index(hooks);
+    }
+
+    private static Map<EventType, List<Hook>> index(List<Hook> hooks) {
+        final Map<EventType, List<Hook>> userRoutes = new EnumMap<>(EventType.class);
+        hooks.stream()
+                .filter(hook -> hook.getEventType() != null)
+                .forEach(hook -> userRoutes.computeIfAbsent(hook.getEventType(), eventType -> new ArrayList<>()).add(hook));
+        userRoutes.replaceAll((eventType, eventHooks) -> Collections.unmodifiableList(eventHooks));
+        return Collections.unmodifiableMap(userRoutes);
+    }
+
+    private void submitSizeMetrics() {
+        gauge.submit("hooks.cache.size", userIdByHookId.size());
+        gauge.submit("hooks.cache.users", routes.size());
+    }
+}
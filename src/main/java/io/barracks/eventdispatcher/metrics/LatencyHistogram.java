@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+class LatencyHistogram {
+
+    private static final long HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toNanos(1);
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+
+    private Histogram interval;
+
+    private Histogram current = new Histogram(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+
+    private Histogram previous = new Histogram(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+
+    void record(long nanos) {
+        recorder.recordValue(Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE_VALUE));
+    }
+
+    synchronized Histogram snapshot() {
+        drain();
+        final Histogram snapshot = previous.copy();
+        snapshot.add(current);
+        return snapshot;
+    }
+
+    synchronized void rotate() {
+        drain();
+        final Histogram recycled = previous;
+        recycled.reset();
+        previous = current;
+        current = recycled;
+    }
+
+    private void drain() {
+        interval = recorder.getIntervalHistogram(interval);
+        current.add(interval);
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@Component
+public class LatencyHistograms implements PublicMetrics {
+
+    public static final String LOOKUP = "lookup";
+
+    public static final String SERIALIZE = "serialize";
+
+    public static final String PUBLISH = "publish";
+
+    public static final String HANDLE = "handle";
+
+    public static final String HANDLE_BATCH = "handle.batch";
+
+    public static final String TOKEN_REQUEST = "authorization.token.request";
+
+    private static final String PREFIX = "histogram.dispatch.";
+
+    private static final String UNKNOWN = "unknown";
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final Map<String, Map<EventType, String>> NAMES = names("");
+
+    private static final ConcurrentMap<Class<?>, Map<String, Map<EventType, String>>> HOOK_NAMES = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public static String name(String stage, EventType eventType) {
+        final String name = lookup(NAMES, stage, eventType);
+        return name != null ? name : format(stage, eventType);
+    }
+
+    public static String name(String stage, EventType eventType, Hook hook) {
+        final String name = lookup(HOOK_NAMES.computeIfAbsent(hook.getClass(), type -> names("." + hookType(type))), stage, eventType);
+        return name != null ? name : format(stage, eventType) + "." + hookType(hook);
+    }
+
+    public static String hookType(Hook hook) {
+        return hookType(hook.getClass());
+    }
+
+    private static String hookType(Class<?> hookClass) {
+        final JsonTypeName typeName = hookClass.getAnnotation(JsonTypeName.class);
+        return typeName != null ? typeName.value() : UNKNOWN;
+    }
+
+    private static String lookup(Map<String, Map<EventType, String>> names, String stage, EventType eventType) {
+        final Map<EventType, String> stageNames = names.get(stage);
+        return stageNames != null && eventType != null ? stageNames.get(eventType) : null;
+    }
+
+    private static Map<String, Map<EventType, String>> names(String suffix) {
+        final Map<String, Map<EventType, String>> names = new HashMap<>();
+        for (String stage : Arrays.asList(LOOKUP, SERIALIZE, PUBLISH, HANDLE, HANDLE_BATCH)) {
+            final Map<EventType, String> stageNames = new EnumMap<>(EventType.class);
+            for (EventType eventType : EventType.values()) {
+                stageNames.put(eventType, format(stage, eventType) + suffix);
+            }
+            names.put(stage, stageNames);
+        }
+        return names;
+    }
+
+    private static String format(String stage, EventType eventType) {
+        return stage + "." + (eventType != null ? eventType.name().toLowerCase() : UNKNOWN);
+    }
+
+    public void record(String name, long nanos) {
+        histograms.computeIfAbsent(name, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    public void recordSince(String name, long startNanos) {
+        record(name, System.nanoTime() - startNanos);
+    }
+
+    public <T> T time(String name, Supplier<T> supplier) {
+        final long start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            recordSince(name, start);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${io.barracks.metrics.histogram.window:60000}")
+    public void rotate() {
+        histograms.values().forEach(LatencyHistogram::rotate);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        histograms.forEach((name, histogram) -> {
+            final Histogram snapshot = histogram.snapshot();
+            final String prefix = PREFIX + name;
+            metrics.add(new Metric<>(prefix + ".count", snapshot.getTotalCount()));
+            metrics.add(new Metric<>(prefix + ".mean", snapshot.getMean() / NANOS_PER_MILLI));
+            metrics.add(new Metric<>(prefix + ".p50", toMillis(snapshot.getValueAtPercentile(50))));
+            metrics.add(new Metric<>(prefix + ".p90", toMillis(snapshot.getValueAtPercentile(90))));
+            metrics.add(new Metric<>(prefix + ".p99", toMillis(snapshot.getValueAtPercentile(99))));
+            metrics.add(new Metric<>(prefix + ".p999", toMillis(snapshot.getValueAtPercentile(99.9))));
+            metrics.add(new Metric<>(prefix + ".max", toMillis(snapshot.getMaxValue())));
+        });
+        return metrics;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+}
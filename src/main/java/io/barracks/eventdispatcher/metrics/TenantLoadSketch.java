@@ -0,0 +1,171 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+class TenantLoadSketch {
+
+    private final int capacity;
+
+    private final String[] keys;
+
+    private final long[] events;
+
+    private final long[] errors;
+
+    private final long[] messages;
+
+    private final long[] nanos;
+
+    private final int[] index;
+
+    private final int mask;
+
+    private int size;
+
+    private long totalEvents;
+
+    private long totalMessages;
+
+    TenantLoadSketch(int capacity) {
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.events = new long[capacity];
+        this.errors = new long[capacity];
+        this.messages = new long[capacity];
+        this.nanos = new long[capacity];
+        this.index = new int[Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1];
+        this.mask = index.length - 1;
+    }
+
+    void record(String key, long eventCount, long messageCount, long elapsedNanos) {
+        totalEvents += eventCount;
+        totalMessages += messageCount;
+        int slot = find(key);
+        if (slot < 0) {
+            if (size < capacity) {
+                slot = size++;
+                errors[slot] = 0;
+                events[slot] = 0;
+            } else {
+                slot = minSlot();
+                unindex(keys[slot]);
+                errors[slot] = events[slot];
+            }
+            keys[slot] = key;
+            messages[slot] = 0;
+            nanos[slot] = 0;
+            index(key, slot);
+        }
+        events[slot] += eventCount;
+        messages[slot] += messageCount;
+        nanos[slot] += elapsedNanos;
+    }
+
+    void snapshot(List<TenantLoad> tenants) {
+        for (int slot = 0; slot < size; slot++) {
+            tenants.add(TenantLoad.builder()
+                    .userId(keys[slot])
+                    .events(events[slot])
+                    .maxOverestimation(errors[slot])
+                    .messages(messages[slot])
+                    .dispatchMillis(nanos[slot] / 1000000d)
+                    .build());
+        }
+    }
+
+    long getTotalEvents() {
+        return totalEvents;
+    }
+
+    long getTotalMessages() {
+        return totalMessages;
+    }
+
+    void reset() {
+        Arrays.fill(keys, null);
+        Arrays.fill(index, 0);
+        size = 0;
+        totalEvents = 0;
+        totalMessages = 0;
+    }
+
+    private int minSlot() {
+        int min = 0;
+        for (int slot = 1; slot < size; slot++) {
+            if (events[slot] < events[min]) {
+                min = slot;
+            }
+        }
+        return min;
+    }
+
+    private int find(String key) {
+        for (int position = home(key); ; position = (position + 1) & mask) {
+            final int entry = index[position];
+            if (entry == 0) {
+                return -1;
+            }
+            if (keys[entry - 1].equals(key)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void index(String key, int slot) {
+        int position = home(key);
+        while (index[position] != 0) {
+            position = (position + 1) & mask;
+        }
+        index[position] = slot + 1;
+    }
+
+    private void unindex(String key) {
+        int position = home(key);
+        while (!keys[index[position] - 1].equals(key)) {
+            position = (position + 1) & mask;
+        }
+        index[position] = 0;
+        for (int next = (position + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            final int nextHome = home(keys[index[next] - 1]);
+            final boolean movable = position <= next
+                    ? nextHome <= position || nextHome > next
+                    : nextHome <= position && nextHome > next;
+            if (movable) {
+                index[position] = index[next];
+                index[next] = 0;
+                position = next;
+            }
+        }
+    }
+
+    private int home(String key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Component
+public class TenantLoadTracker {
+
+    private static final int STRIPES = 8;
+
+    private final TenantLoadSketch[] sketches = new TenantLoadSketch[STRIPES];
+
+    private final int top;
+
+    private volatile long windowStart = System.currentTimeMillis();
+
+    private volatile TenantLoadReport previous;
+
+    @Autowired
+    public TenantLoadTracker(
+            @Value("${io.barracks.tenants.capacity:256}") int capacity,
+            @Value("${io.barracks.tenants.top:20}") int top
+    ) {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sketches[stripe] = new TenantLoadSketch(Math.max(1, (capacity + STRIPES - 1) / STRIPES));
+        }
+        this.top = top;
+        this.previous = TenantLoadReport.builder().windowStart(windowStart).tenants(new ArrayList<>()).build();
+    }
+
+    public void record(String userId, int events, int messages, long elapsedNanos) {
+        if (userId == null) {
+            return;
+        }
+        final TenantLoadSketch sketch = sketches[(userId.hashCode() & Integer.MAX_VALUE) % STRIPES];
+        synchronized (sketch) {
+            sketch.record(userId, events, messages, elapsedNanos);
+        }
+    }
+
+    public TenantLoadReport getCurrent() {
+        return snapshot(false);
+    }
+
+    public TenantLoadReport getPrevious() {
+        return previous;
+    }
+
+    @Scheduled(fixedDelayString = "${io.barracks.tenants.window:300000}")
+    public void rotate() {
+        previous = snapshot(true);
+    }
+
+    private TenantLoadReport snapshot(boolean reset) {
+        final List<TenantLoad> tenants = new ArrayList<>();
+        final long start = windowStart;
+        long totalEvents = 0;
+        long totalMessages = 0;
+        for (TenantLoadSketch sketch : sketches) {
+            synchronized (sketch) {
+                sketch.snapshot(tenants);
+                totalEvents += sketch.getTotalEvents();
+                totalMessages += sketch.getTotalMessages();
+                if (reset) {
+                    sketch.reset();
+                }
+            }
+        }
+        if (reset) {
+            windowStart = System.currentTimeMillis();
+        }
+        return TenantLoadReport.builder()
+                .windowStart(start)
+                .totalEvents(totalEvents)
+                .totalMessages(totalMessages)
+                .tenants(tenants.stream()
+                        .sorted(Comparator.comparingLong(TenantLoad::getEvents).reversed())
+                        .limit(top)
+                        .collect(Collectors.toList()))
+                .build();
+    }
+
+}
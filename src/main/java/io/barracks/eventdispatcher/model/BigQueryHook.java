@@ -42,8 +42,9 @@ public class BigQueryHook extends Hook {
                         @JsonProperty("eventType") EventType eventType,
                         @JsonProperty("name") String name,
                         @JsonProperty("userId") String userId,
-                        @JsonProperty("googleClientSecret") GoogleClientSecret googleClientSecret) {
-        super(id, eventType, userId, name);
+                        @JsonProperty("googleClientSecret") GoogleClientSecret googleClientSecret,
+                        @JsonProperty("changeFormat") ChangeFormat changeFormat) {
+        super(id, eventType, userId, name, changeFormat);
         this.googleClientSecret = googleClientSecret;
     }
 
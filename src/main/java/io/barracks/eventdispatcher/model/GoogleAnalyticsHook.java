@@ -43,8 +43,9 @@ public class GoogleAnalyticsHook extends Hook {
                                @JsonProperty("eventType") EventType eventType,
                                @JsonProperty("name") String name,
                                @JsonProperty("userId") String userId,
-                               @JsonProperty("gaTrackingId") String gaTrackingId) {
-        super(id, eventType, userId, name);
+                               @JsonProperty("gaTrackingId") String gaTrackingId,
+                               @JsonProperty("changeFormat") ChangeFormat changeFormat) {
+        super(id, eventType, userId, name, changeFormat);
         this.gaTrackingId = gaTrackingId;
     }
 
@@ -59,4 +59,6 @@ public abstract class Hook extends HookDocument {
     @Pattern(regexp = "^[\\p{Alnum}\\p{Blank}]*$", message = "must be composed of alphanumeric characters only")
     protected String name;
 
+    protected ChangeFormat changeFormat;
+
 }
\ No newline at end of file
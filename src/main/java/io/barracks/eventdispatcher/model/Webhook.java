@@ -43,8 +43,9 @@ public class Webhook extends Hook {
                    @JsonProperty("name") String name,
                    @JsonProperty("eventType") EventType eventType,
                    @JsonProperty("userId") String userId,
-                   @JsonProperty("url") String url) {
-        super(id, eventType, userId, name);
+                   @JsonProperty("url") String url,
+                   @JsonProperty("changeFormat") ChangeFormat changeFormat) {
+        super(id, eventType, userId, name, changeFormat);
         this.url = url;
     }
 
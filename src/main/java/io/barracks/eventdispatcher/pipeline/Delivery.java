@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.pipeline;
+
+import com.rabbitmq.client.Channel;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Slf4j
+@Getter
+@ToString(exclude = "channel")
+public class Delivery {
+
+    private final Channel channel;
+
+    private final long deliveryTag;
+
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    public Delivery(Channel channel, long deliveryTag) {
+        this.channel = channel;
+        this.deliveryTag = deliveryTag;
+    }
+
+    public boolean ack() {
+        if (!settled.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            channel.basicAck(deliveryTag, false);
+            return true;
+        } catch (IOException e) {
+            log.error("Delivery " + deliveryTag + " cannot be acknowledged", e);
+            return false;
+        }
+    }
+
+    public boolean reject(boolean requeue) {
+        if (!settled.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            channel.basicNack(deliveryTag, false, requeue);
+            return true;
+        } catch (IOException e) {
+            log.error("Delivery " + deliveryTag + " cannot be rejected", e);
+            return false;
+        }
+    }
+
+    public boolean isSettled() {
+        return settled.get();
+    }
+
+}
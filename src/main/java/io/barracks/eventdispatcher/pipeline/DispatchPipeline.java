@@ -0,0 +1,311 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.pipeline;
+
+import io.barracks.eventdispatcher.client.OutboundMessage;
+import io.barracks.eventdispatcher.client.QueuingServiceClient;
+import io.barracks.eventdispatcher.client.exception.HookDispatchException;
+import io.barracks.eventdispatcher.manager.DeviceEventDispatcherManager;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.metrics.TenantLoadTracker;
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import lombok.extern.slf4j.Slf4j;
+import io.barracks.eventdispatcher.rabbitmq.DeviceEventDecoder;
+import io.barracks.eventdispatcher.rabbitmq.RetryRouter;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+@Slf4j
+@Component
+@ConditionalOnProperty("io.barracks.pipeline.enabled")
+public class DispatchPipeline implements PublicMetrics, DisposableBean {
+
+    private final MessageConverter messageConverter;
+
+    private final DeviceEventDecoder deviceEventDecoder;
+
+    private final DeviceEventDispatcherManager deviceEventDispatcherManager;
+
+    private final QueuingServiceClient queuingServiceClient;
+
+    private final RetryRouter retryRouter;
+
+    private final CounterService counter;
+
+    private final LatencyHistograms latencyHistograms;
+
+    private final TenantLoadTracker tenantLoadTracker;
+
+    private final PipelineStage decode;
+
+    private final PipelineStage resolve;
+
+    private final PipelineStage envelope;
+
+    private final PipelineStage publish;
+
+    private final long shutdownTimeout;
+
+    private final Set<EventType> streamingEventTypes = EnumSet.noneOf(EventType.class);
+
+    @Autowired
+    public DispatchPipeline(
+            MessageConverter messageConverter,
+            DeviceEventDecoder deviceEventDecoder,
+            DeviceEventDispatcherManager deviceEventDispatcherManager,
+            QueuingServiceClient queuingServiceClient,
+            RetryRouter retryRouter,
+            CounterService counter,
+            LatencyHistograms latencyHistograms,
+            TenantLoadTracker tenantLoadTracker,
+            @Value("${io.barracks.pipeline.decode.threads:2}") int decodeThreads,
+            @Value("${io.barracks.pipeline.decode.capacity:500}") int decodeCapacity,
+            @Value("${io.barracks.pipeline.resolve.threads:0}") int resolveThreads,
+            @Value("${io.barracks.pipeline.resolve.capacity:500}") int resolveCapacity,
+            @Value("${io.barracks.pipeline.envelope.threads:2}") int envelopeThreads,
+            @Value("${io.barracks.pipeline.envelope.capacity:500}") int envelopeCapacity,
+            @Value("${io.barracks.pipeline.publish.threads:0}") int publishThreads,
+            @Value("${io.barracks.pipeline.publish.capacity:500}") int publishCapacity,
+            @Value("#{${io.barracks.ping.listener.maxconcurrency:1} + ${io.barracks.enrollment.listener.maxconcurrency:1}"
+                    + " + ${io.barracks.devicedata.listener.maxconcurrency:1} + ${io.barracks.devicepackage.listener.maxconcurrency:1}}") int listenerThreads,
+            @Value("${io.barracks.pipeline.shutdown.timeout:10000}") long shutdownTimeout,
+            @Value("${io.barracks.ping.listener.streaming.enabled:false}") boolean pingStreamingEnabled,
+            @Value("${io.barracks.enrollment.listener.streaming.enabled:false}") boolean enrollmentStreamingEnabled,
+            @Value("${io.barracks.devicedata.listener.streaming.enabled:false}") boolean deviceDataStreamingEnabled,
+            @Value("${io.barracks.devicepackage.listener.streaming.enabled:false}") boolean devicePackageStreamingEnabled
+    ) {
+        this.messageConverter = messageConverter;
+        this.deviceEventDecoder = deviceEventDecoder;
+        this.deviceEventDispatcherManager = deviceEventDispatcherManager;
+        this.queuingServiceClient = queuingServiceClient;
+        this.retryRouter = retryRouter;
+        this.counter = counter;
+        this.latencyHistograms = latencyHistograms;
+        this.tenantLoadTracker = tenantLoadTracker;
+        this.decode = new PipelineStage("decode", decodeThreads, decodeCapacity, latencyHistograms);
+        this.resolve = new PipelineStage("resolve", resolveThreads > 0 ? resolveThreads : listenerThreads, resolveCapacity, latencyHistograms);
+        this.envelope = new PipelineStage("envelope", envelopeThreads, envelopeCapacity, latencyHistograms);
+        this.publish = new PipelineStage("publish", publishThreads > 0 ? publishThreads : listenerThreads, publishCapacity, latencyHistograms);
+        this.shutdownTimeout = shutdownTimeout;
+        if (pingStreamingEnabled) {
+            streamingEventTypes.add(EventType.PING);
+        }
+        if (enrollmentStreamingEnabled) {
+            streamingEventTypes.add(EventType.ENROLLMENT);
+        }
+        if (deviceDataStreamingEnabled) {
+            streamingEventTypes.add(EventType.DEVICE_DATA_CHANGE);
+        }
+        if (devicePackageStreamingEnabled) {
+            streamingEventTypes.add(EventType.DEVICE_PACKAGE_CHANGE);
+        }
+    }
+
+    public CompletableFuture<Void> dispatch(Delivery delivery, Message message, EventType eventType) {
+        final long start = System.nanoTime();
+        final CompletableFuture<PendingDispatch> resolved = decode.submit(() -> decode(message, eventType))
+                .thenCompose(dispatch -> dispatch.userId == null
+                        ? CompletableFuture.completedFuture(dispatch)
+                        : resolve.submit(() -> dispatch.withHooks(deviceEventDispatcherManager.resolveHooks(dispatch.userId, eventType))));
+        return resolved
+                .thenCompose(dispatch -> dispatch.hooks.isEmpty()
+                        ? CompletableFuture.completedFuture(Collections.<OutboundMessage>emptyList())
+                        : envelope.submit(dispatch::buildMessages))
+                .thenCompose(messages -> messages.isEmpty()
+                        ? CompletableFuture.completedFuture(0)
+                        : publish.submit(() -> queuingServiceClient.sendMessages(messages)))
+                .handle((dropped, error) -> {
+                    settle(delivery, message, eventType, dropped, error);
+                    if (!resolved.isCompletedExceptionally()) {
+                        final PendingDispatch dispatch = resolved.join();
+                        tenantLoadTracker.record(dispatch.userId, 1, dispatch.hooks.size(), System.nanoTime() - start);
+                    }
+                    latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE, eventType), start);
+                    return null;
+                });
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        stages().forEach(stage -> metrics.addAll(stage.metrics()));
+        return metrics;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        for (PipelineStage stage : stages()) {
+            stage.shutdown(shutdownTimeout);
+        }
+    }
+
+    private List<PipelineStage> stages() {
+        return Arrays.asList(decode, resolve, envelope, publish);
+    }
+
+    private PendingDispatch decode(Message message, EventType eventType) {
+        if (streamingEventTypes.contains(eventType)) {
+            final RawDeviceEvent rawDeviceEvent = deviceEventDecoder.decode(message, eventType);
+            return new PendingDispatch(
+                    rawDeviceEvent.getRequestUserId(),
+                    hooks -> queuingServiceClient.buildRawDeviceEventMessages(rawDeviceEvent, eventType, hooks)
+            );
+        }
+        switch (eventType) {
+            case PING: {
+                final DeviceEvent deviceEvent = convert(message, DeviceEvent.class);
+                return new PendingDispatch(
+                        deviceEvent.getRequest().getUserId(),
+                        hooks -> queuingServiceClient.buildDeviceEventMessages(deviceEvent, hooks)
+                );
+            }
+            case ENROLLMENT: {
+                final DeviceEvent deviceEvent = deviceEventDispatcherManager.withRequestIdentity(convert(message, DeviceEvent.class));
+                return new PendingDispatch(
+                        deviceEvent.getRequest().getUserId(),
+                        hooks -> queuingServiceClient.buildDeviceEventMessages(deviceEvent, hooks)
+                );
+            }
+            default: {
+                final DeviceChangeEvent deviceChangeEvent = deviceEventDispatcherManager.withRequestIdentity(convert(message, DeviceChangeEvent.class));
+                return new PendingDispatch(
+                        deviceChangeEvent.getDeviceEvent().getRequest().getUserId(),
+                        hooks -> queuingServiceClient.buildDeviceChangeEventMessages(deviceChangeEvent, hooks)
+                );
+            }
+        }
+    }
+
+    private <T> T convert(Message message, Class<T> type) {
+        message.getMessageProperties().setInferredArgumentType(type);
+        final Object payload = messageConverter.fromMessage(message);
+        if (!type.isInstance(payload)) {
+            throw new MessageConversionException("Expected a " + type.getSimpleName() + " but got " + payload);
+        }
+        return type.cast(payload);
+    }
+
+    private void settle(Delivery delivery, Message message, EventType eventType, Integer dropped, Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause == null && (dropped == null || dropped == 0)) {
+            delivery.ack();
+            incrementRabbitMQMetric(eventType, "success");
+            return;
+        }
+        incrementRabbitMQMetric(eventType, "error");
+        final Throwable failure = cause != null
+                ? cause
+                : new HookDispatchException(dropped);
+        if (retryRouter.isEnabled()) {
+            recover(delivery, message, eventType, failure);
+        } else if (RetryRouter.isPoison(failure)) {
+            log.error("Dropping " + eventType + " message that cannot be decoded", failure);
+            delivery.reject(false);
+        } else {
+            log.error("Error while dispatching " + eventType + " message, requeuing it", failure);
+            delivery.reject(true);
+        }
+    }
+
+    private void recover(Delivery delivery, Message message, EventType eventType, Throwable failure) {
+        try {
+            retryRouter.recover(message, failure);
+            delivery.ack();
+        } catch (Exception e) {
+            log.error("The " + eventType + " message cannot be routed for retry, requeuing it", e);
+            delivery.reject(true);
+        }
+    }
+
+    private void incrementRabbitMQMetric(EventType eventType, String status) {
+        counter.increment("message.process." + metricName(eventType) + "." + status);
+    }
+
+    private static String metricName(EventType eventType) {
+        switch (eventType) {
+            case PING:
+                return "event";
+            case ENROLLMENT:
+                return "enrollment";
+            case DEVICE_DATA_CHANGE:
+                return "device.data";
+            default:
+                return "device.package";
+        }
+    }
+
+    private static class PendingDispatch {
+
+        private final String userId;
+
+        private final Function<List<Hook>, List<OutboundMessage>> messageBuilder;
+
+        private final List<Hook> hooks;
+
+        PendingDispatch(String userId, Function<List<Hook>, List<OutboundMessage>> messageBuilder) {
+            this(userId, messageBuilder, Collections.emptyList());
+        }
+
+        private PendingDispatch(String userId, Function<List<Hook>, List<OutboundMessage>> messageBuilder, List<Hook> hooks) {
+            this.userId = userId;
+            this.messageBuilder = messageBuilder;
+            this.hooks = hooks;
+        }
+
+        PendingDispatch withHooks(List<Hook> hooks) {
+            return new PendingDispatch(userId, messageBuilder, hooks);
+        }
+
+        List<OutboundMessage> buildMessages() {
+            return messageBuilder.apply(hooks);
+        }
+
+    }
+
+}
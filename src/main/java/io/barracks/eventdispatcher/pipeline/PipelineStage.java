@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.pipeline;
+
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import lombok.Getter;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class PipelineStage {
+
+    @Getter
+    private final String name;
+
+    private final int capacity;
+
+    private final LatencyHistograms latencyHistograms;
+
+    private final String runMetricName;
+
+    private final String waitMetricName;
+
+    private final ThreadPoolExecutor executor;
+
+    public PipelineStage(String name, int threads, int capacity, LatencyHistograms latencyHistograms) {
+        this.name = name;
+        this.capacity = capacity;
+        this.latencyHistograms = latencyHistograms;
+        this.runMetricName = "pipeline." + name;
+        this.waitMetricName = "pipeline." + name + ".wait";
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                new CustomizableThreadFactory("pipeline-" + name + "-"),
+                new BlockingSubmissionPolicy()
+        );
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long enqueued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                final long start = System.nanoTime();
+                latencyHistograms.record(waitMetricName, start - enqueued);
+                final T value;
+                try {
+                    value = task.get();
+                } catch (Throwable e) {
+                    latencyHistograms.recordSince(runMetricName, start);
+                    result.completeExceptionally(e);
+                    return;
+                }
+                latencyHistograms.recordSince(runMetricName, start);
+                result.complete(value);
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public Collection<Metric<?>> metrics() {
+        return Arrays.<Metric<?>>asList(
+                new Metric<>("pipeline." + name + ".queue.depth", getQueueDepth()),
+                new Metric<>("pipeline." + name + ".queue.capacity", capacity),
+                new Metric<>("pipeline." + name + ".threads", getThreads()),
+                new Metric<>("pipeline." + name + ".active", getActiveCount()),
+                new Metric<>("pipeline." + name + ".completed", executor.getCompletedTaskCount())
+        );
+    }
+
+    public void shutdown(long timeout) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static class BlockingSubmissionPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The pipeline stage is shut down");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the pipeline stage", e);
+            }
+        }
+
+    }
+
+}
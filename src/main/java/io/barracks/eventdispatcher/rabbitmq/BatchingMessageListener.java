@@ -0,0 +1,265 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.ChannelAwareMessageListener;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+@Slf4j
+public class BatchingMessageListener<T> implements ChannelAwareMessageListener, DisposableBean {
+
+    private final Function<Message, T> decoder;
+
+    private final Class<T> type;
+
+    private final Consumer<List<T>> handler;
+
+    private final CounterService counter;
+
+    private final RetryRouter retryRouter;
+
+    private final String name;
+
+    private final int batchSize;
+
+    private final boolean requeueRejected;
+
+    private final Map<Channel, Batch<T>> batches = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    public BatchingMessageListener(
+            MessageConverter messageConverter,
+            Class<T> type,
+            Consumer<List<T>> handler,
+            CounterService counter,
+            RetryRouter retryRouter,
+            String name,
+            int batchSize,
+            long flushInterval,
+            boolean requeueRejected
+    ) {
+        this(message -> {
+            message.getMessageProperties().setInferredArgumentType(type);
+            return type.cast(messageConverter.fromMessage(message));
+        }, type, handler, counter, retryRouter, name, batchSize, flushInterval, requeueRejected);
+    }
+
+    public BatchingMessageListener(
+            Function<Message, T> decoder,
+            Class<T> type,
+            Consumer<List<T>> handler,
+            CounterService counter,
+            RetryRouter retryRouter,
+            String name,
+            int batchSize,
+            long flushInterval,
+            boolean requeueRejected
+    ) {
+        this.decoder = decoder;
+        this.type = type;
+        this.handler = handler;
+        this.counter = counter;
+        this.retryRouter = retryRouter;
+        this.name = name;
+        this.batchSize = batchSize;
+        this.requeueRejected = requeueRejected;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, name + "-batch-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushAll, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onMessage(Message message, Channel channel) {
+        final Batch<T> batch = batches.computeIfAbsent(channel, Batch::new);
+        final long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        final T payload;
+        try {
+            payload = decoder.apply(message);
+        } catch (Exception e) {
+            log.error("Message cannot be converted to " + type.getSimpleName(), e);
+            counter.increment("message.process." + name + ".batch.conversion.error");
+            synchronized (batch) {
+                reject(channel, message, deliveryTag, e);
+            }
+            return;
+        }
+        if (batch.add(payload, message, deliveryTag) >= batchSize) {
+            flush(batch);
+        }
+    }
+
+    void flushAll() {
+        batches.values().forEach(batch -> {
+            try {
+                flush(batch);
+            } catch (Exception e) {
+                log.error("Error while flushing " + name + " batch", e);
+            }
+        });
+    }
+
+    private void flush(Batch<T> batch) {
+        synchronized (batch) {
+            if (!batch.channel.isOpen()) {
+                batches.remove(batch.channel);
+                batch.clear();
+                return;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            final List<T> payloads = batch.getPayloads();
+            final Map<Long, Message> deliveries = batch.getDeliveries();
+            final long lastDeliveryTag = batch.lastDeliveryTag;
+            batch.clear();
+            try {
+                handler.accept(payloads);
+                counter.increment("message.process." + name + ".batch.success");
+            } catch (Exception e) {
+                log.error("Error while dispatching " + name + " batch", e);
+                counter.increment("message.process." + name + ".batch.error");
+                reject(batch.channel, deliveries, lastDeliveryTag, e);
+                return;
+            }
+            try {
+                batch.channel.basicAck(lastDeliveryTag, true);
+            } catch (IOException e) {
+                log.warn("Unable to acknowledge " + name + " batch, it will be redelivered", e);
+            }
+        }
+    }
+
+    private void reject(Channel channel, Map<Long, Message> deliveries, long lastDeliveryTag, Exception cause) {
+        if (!retryRouter.isEnabled()) {
+            try {
+                channel.basicNack(lastDeliveryTag, true, requeueRejected);
+            } catch (IOException e) {
+                log.warn("Unable to reject " + name + " batch, it will be redelivered", e);
+            }
+            return;
+        }
+        deliveries.forEach((deliveryTag, message) -> recover(channel, message, deliveryTag, cause));
+    }
+
+    private void reject(Channel channel, Message message, long deliveryTag, Exception cause) {
+        if (retryRouter.isEnabled()) {
+            recover(channel, message, deliveryTag, cause);
+            return;
+        }
+        try {
+            channel.basicReject(deliveryTag, false);
+        } catch (IOException e) {
+            log.warn("Unable to reject " + name + " delivery " + deliveryTag + ", it will be redelivered", e);
+        }
+    }
+
+    private void recover(Channel channel, Message message, long deliveryTag, Exception cause) {
+        try {
+            retryRouter.recover(message, cause);
+            channel.basicAck(deliveryTag, false);
+        } catch (Exception e) {
+            log.error("The " + name + " delivery " + deliveryTag + " cannot be routed for retry, requeuing it", e);
+            requeue(channel, deliveryTag);
+        }
+    }
+
+    private void requeue(Channel channel, long deliveryTag) {
+        try {
+            channel.basicNack(deliveryTag, false, true);
+        } catch (IOException e) {
+            log.warn("Unable to reject " + name + " delivery " + deliveryTag + ", it will be redelivered", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+        flushAll();
+    }
+
+    private static class Batch<T> {
+
+        private final Channel channel;
+
+        private final List<T> payloads = new ArrayList<>();
+
+        private final Map<Long, Message> deliveries = new LinkedHashMap<>();
+
+        private long lastDeliveryTag = -1;
+
+        private Batch(Channel channel) {
+            this.channel = channel;
+        }
+
+        private synchronized int add(T payload, Message message, long deliveryTag) {
+            payloads.add(payload);
+            deliveries.put(deliveryTag, message);
+            lastDeliveryTag = deliveryTag;
+            return payloads.size();
+        }
+
+        private synchronized boolean isEmpty() {
+            return lastDeliveryTag < 0;
+        }
+
+        private synchronized List<T> getPayloads() {
+            return new ArrayList<>(payloads);
+        }
+
+        private synchronized Map<Long, Message> getDeliveries() {
+            return new LinkedHashMap<>(deliveries);
+        }
+
+        private synchronized void clear() {
+            payloads.clear();
+            deliveries.clear();
+            lastDeliveryTag = -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.WireFormat;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+@Component
+public class DeviceEventDecoder {
+
+    private static final String USER_ID_FIELD = "userId";
+    private static final String UNIT_ID_FIELD = "unitId";
+    private static final String REQUEST_FIELD = "request";
+    private static final String DEVICE_EVENT_FIELD = "deviceEvent";
+    private static final byte[] NULL_VALUE = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final JsonFactory jsonFactory;
+
+    @Autowired
+    public DeviceEventDecoder(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public RawDeviceEvent decode(Message message, EventType eventType) {
+        final String contentType = message.getMessageProperties().getContentType();
+        final WireFormat wireFormat = WireFormat.forContentType(contentType);
+        if (wireFormat == null) {
+            throw new MessageConversionException("Expected a JSON, Smile or CBOR message but got " + contentType);
+        }
+        return decode(wireFormat.transcode(message.getBody(), WireFormat.JSON), eventType);
+    }
+
+    public RawDeviceEvent decode(byte[] body, EventType eventType) {
+        switch (eventType) {
+            case PING:
+                return scan(body, false).toRawDeviceEvent(body);
+            case ENROLLMENT:
+                return scan(body, false).withRequestIdentity(body);
+            default:
+                return scan(body, true).withRequestIdentity(body);
+        }
+    }
+
+    private Scan scan(byte[] body, boolean changeEvent) {
+        final Scan scan = new Scan();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MessageConversionException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (!changeEvent) {
+                    readDeviceEventField(parser, field, scan);
+                } else if (DEVICE_EVENT_FIELD.equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String deviceEventField = parser.getCurrentName();
+                        parser.nextToken();
+                        readDeviceEventField(parser, deviceEventField, scan);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (parser.nextToken() != null) {
+                throw new MessageConversionException("Unexpected content after the JSON object");
+            }
+            return scan;
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to decode device event", e);
+        }
+    }
+
+    private static void readDeviceEventField(JsonParser parser, String field, Scan scan) throws IOException {
+        if (USER_ID_FIELD.equals(field)) {
+            scan.userId = readString(parser);
+        } else if (UNIT_ID_FIELD.equals(field)) {
+            scan.unitId = readString(parser);
+        } else if (REQUEST_FIELD.equals(field) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            readRequest(parser, scan);
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private static void readRequest(JsonParser parser, Scan scan) throws IOException {
+        scan.requestStart = (int) parser.getCurrentLocation().getByteOffset();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            scan.requestMembers++;
+            final int start = (int) parser.getTokenLocation().getByteOffset();
+            if (USER_ID_FIELD.equals(field)) {
+                scan.requestUserId = readString(parser);
+                scan.requestUserIdStart = start;
+                scan.requestUserIdEnd = (int) parser.getCurrentLocation().getByteOffset();
+            } else if (UNIT_ID_FIELD.equals(field)) {
+                scan.requestUnitId = readString(parser);
+                scan.requestUnitIdStart = start;
+                scan.requestUnitIdEnd = (int) parser.getCurrentLocation().getByteOffset();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String readString(JsonParser parser) throws IOException {
+        final String value = parser.getValueAsString();
+        parser.skipChildren();
+        return value;
+    }
+
+    private static byte[] toJson(String value) {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+        final byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        final byte[] result = new byte[quoted.length + 2];
+        result[0] = '"';
+        System.arraycopy(quoted, 0, result, 1, quoted.length);
+        result[result.length - 1] = '"';
+        return result;
+    }
+
+    private static class Scan {
+
+        private String userId;
+
+        private String unitId;
+
+        private String requestUserId;
+
+        private String requestUnitId;
+
+        private int requestStart = -1;
+
+        private int requestMembers;
+
+        private int requestUserIdStart = -1;
+
+        private int requestUserIdEnd = -1;
+
+        private int requestUnitIdStart = -1;
+
+        private int requestUnitIdEnd = -1;
+
+        private RawDeviceEvent toRawDeviceEvent(byte[] body) {
+            return RawDeviceEvent.builder()
+                    .userId(userId)
+                    .unitId(unitId)
+                    .requestUserId(requestUserId)
+                    .requestUnitId(requestUnitId)
+                    .body(body)
+                    .build();
+        }
+
+        private RawDeviceEvent withRequestIdentity(byte[] body) {
+            if (requestStart < 0) {
+                throw new MessageConversionException("Expected the device event to contain a request");
+            }
+            final boolean patchUserId = !isUpToDate(requestUserId, requestUserIdStart, userId);
+            final boolean patchUnitId = !isUpToDate(requestUnitId, requestUnitIdStart, unitId);
+            final byte[] patched = patchUserId || patchUnitId ? patch(body, patchUserId, patchUnitId) : body;
+            return RawDeviceEvent.builder()
+                    .userId(userId)
+                    .unitId(unitId)
+                    .requestUserId(userId)
+                    .requestUnitId(unitId)
+                    .body(patched)
+                    .build();
+        }
+
+        private static boolean isUpToDate(String current, int start, String expected) {
+            return Objects.equals(current, expected) && (start >= 0 || expected == null);
+        }
+
+        private byte[] patch(byte[] body, boolean patchUserId, boolean patchUnitId) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 64);
+            out.write(body, 0, requestStart);
+            int inserted = 0;
+            if (patchUserId && requestUserIdStart < 0) {
+                writeMember(out, USER_ID_FIELD, userId);
+                inserted++;
+            }
+            if (patchUnitId && requestUnitIdStart < 0) {
+                if (inserted > 0) {
+                    out.write(',');
+                }
+                writeMember(out, UNIT_ID_FIELD, unitId);
+                inserted++;
+            }
+            if (inserted > 0 && requestMembers > 0) {
+                out.write(',');
+            }
+            final boolean userIdFirst = requestUserIdStart < requestUnitIdStart;
+            int position = requestStart;
+            position = userIdFirst
+                    ? replace(out, body, position, patchUserId ? requestUserIdStart : -1, requestUserIdEnd, userId)
+                    : replace(out, body, position, patchUnitId ? requestUnitIdStart : -1, requestUnitIdEnd, unitId);
+            position = userIdFirst
+                    ? replace(out, body, position, patchUnitId ? requestUnitIdStart : -1, requestUnitIdEnd, unitId)
+                    : replace(out, body, position, patchUserId ? requestUserIdStart : -1, requestUserIdEnd, userId);
+            out.write(body, position, body.length - position);
+            return out.toByteArray();
+        }
+
+        private static int replace(ByteArrayOutputStream out, byte[] body, int position, int start, int end, String value) {
+            if (start < 0) {
+                return position;
+            }
+            out.write(body, position, start - position);
+            final byte[] json = toJson(value);
+            out.write(json, 0, json.length);
+            return end;
+        }
+
+        private static void writeMember(ByteArrayOutputStream out, String field, String value) {
+            final byte[] name = toJson(field);
+            out.write(name, 0, name.length);
+            out.write(':');
+            final byte[] json = toJson(value);
+            out.write(json, 0, json.length);
+        }
+
+    }
+
+}
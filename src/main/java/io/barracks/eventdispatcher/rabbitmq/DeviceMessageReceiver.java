@@ -25,20 +25,27 @@
 package io.barracks.eventdispatcher.rabbitmq;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.exception.HookDispatchException;
 import io.barracks.eventdispatcher.manager.DeviceEventDispatcherManager;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
 import io.barracks.eventdispatcher.model.DeviceChangeEvent;
 import io.barracks.eventdispatcher.model.DeviceEvent;
 import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.metrics.CounterService;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
 @Slf4j
 public class DeviceMessageReceiver {
@@ -46,18 +53,25 @@ public class DeviceMessageReceiver {
     private final DeviceEventDispatcherManager deviceEventDispatcherManager;
     private final CounterService counter;
     private final ObjectMapper objectMapper;
+    private final LatencyHistograms latencyHistograms;
+    private final boolean retryEnabled;
 
     @Autowired
     public DeviceMessageReceiver(DeviceEventDispatcherManager deviceEventDispatcherManager,
                                  ObjectMapper objectMapper,
-                                 CounterService counter
+                                 CounterService counter,
+                                 LatencyHistograms latencyHistograms,
+                                 @Value("${io.barracks.retry.enabled:false}") boolean retryEnabled
     ) {
         this.deviceEventDispatcherManager = deviceEventDispatcherManager;
         this.objectMapper = objectMapper;
         this.counter = counter;
+        this.latencyHistograms = latencyHistograms;
+        this.retryEnabled = retryEnabled;
     }
 
     @RabbitListener(
+            containerFactory = "pingListenerContainerFactory",
             bindings = @QueueBinding(
                     value = @Queue(value = "${io.barracks.ping.queuename}", durable = "true", autoDelete = "false"),
                     exchange = @Exchange(value = "${io.barracks.ping.exchangename}", type = "fanout", durable = "true"),
@@ -65,16 +79,35 @@ public class DeviceMessageReceiver {
             )
     )
     public void receiveDeviceEventMessage(@Payload DeviceEvent deviceEvent) {
+        final long start = System.nanoTime();
         try {
             deviceEventDispatcherManager.postDeviceEvent(deviceEvent);
             incrementRabbitMQMetric("event.success");
         } catch (Exception e) {
             log.error("Error while sending event data", e);
             incrementRabbitMQMetric("event.error");
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE, EventType.PING), start);
+        }
+    }
+
+    public void receiveRawDeviceEventMessage(RawDeviceEvent rawDeviceEvent, EventType eventType) {
+        final long start = System.nanoTime();
+        try {
+            deviceEventDispatcherManager.postRawDeviceEvent(rawDeviceEvent, eventType);
+            incrementRabbitMQMetric(metricName(eventType) + ".success");
+        } catch (Exception e) {
+            log.error("Error while sending " + eventType + " data", e);
+            incrementRabbitMQMetric(metricName(eventType) + ".error");
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE, eventType), start);
         }
     }
 
     @RabbitListener(
+            containerFactory = "enrollmentListenerContainerFactory",
             bindings = @QueueBinding(
                     value = @Queue(value = "${io.barracks.enrollment.queuename}", durable = "true", autoDelete = "false"),
                     exchange = @Exchange(value = "${io.barracks.enrollment.exchangename}", type = "topic", durable = "true"),
@@ -82,16 +115,21 @@ public class DeviceMessageReceiver {
             )
     )
     public void receiveEnrollmentMessage(@Payload DeviceEvent deviceEvent) {
+        final long start = System.nanoTime();
         try {
             deviceEventDispatcherManager.postDeviceEnrollment(deviceEvent);
             incrementRabbitMQMetric("enrollment.success");
         } catch (Exception e) {
             log.error("Error while sending enrollment data", e);
             incrementRabbitMQMetric("enrollment.error");
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE, EventType.ENROLLMENT), start);
         }
     }
 
     @RabbitListener(
+            containerFactory = "deviceDataListenerContainerFactory",
             bindings = @QueueBinding(
                     value = @Queue(value = "${io.barracks.devicedata.queuename}", durable = "true", autoDelete = "false"),
                     exchange = @Exchange(value = "${io.barracks.devicedata.exchangename}", type = "topic", durable = "true"),
@@ -99,16 +137,21 @@ public class DeviceMessageReceiver {
             )
     )
     public void receiveDeviceDataMessage(@Payload DeviceChangeEvent deviceChangeEvent) {
+        final long start = System.nanoTime();
         try {
             deviceEventDispatcherManager.postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_DATA_CHANGE);
             incrementRabbitMQMetric("device.data.success");
         } catch (Exception e) {
             log.error("Error while sending enrollment data", e);
             incrementRabbitMQMetric("device.data.error");
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE, EventType.DEVICE_DATA_CHANGE), start);
         }
     }
 
     @RabbitListener(
+            containerFactory = "devicePackageListenerContainerFactory",
             bindings = @QueueBinding(
                     value = @Queue(value = "${io.barracks.devicepackage.queuename}", durable = "true", autoDelete = "false"),
                     exchange = @Exchange(value = "${io.barracks.devicepackage.exchangename}", type = "topic", durable = "true"),
@@ -116,12 +159,105 @@ public class DeviceMessageReceiver {
             )
     )
     public void receiveDevicePackageMessage(@Payload DeviceChangeEvent deviceChangeEvent) {
+        final long start = System.nanoTime();
         try {
             deviceEventDispatcherManager.postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_PACKAGE_CHANGE);
             incrementRabbitMQMetric("device.package.success");
         } catch (Exception e) {
             log.error("Error while sending enrollment data", e);
             incrementRabbitMQMetric("device.package.error");
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE, EventType.DEVICE_PACKAGE_CHANGE), start);
+        }
+    }
+
+    public void receiveDeviceEventMessages(List<DeviceEvent> deviceEvents) {
+        final long start = System.nanoTime();
+        try {
+            deviceEventDispatcherManager.postDeviceEvents(deviceEvents);
+            incrementRabbitMQMetric("event.success", deviceEvents.size());
+        } catch (Exception e) {
+            log.error("Error while sending event data", e);
+            incrementRabbitMQMetric("event.error", deviceEvents.size());
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE_BATCH, EventType.PING), start);
+        }
+    }
+
+    public void receiveRawDeviceEventMessages(List<RawDeviceEvent> rawDeviceEvents, EventType eventType) {
+        final long start = System.nanoTime();
+        try {
+            deviceEventDispatcherManager.postRawDeviceEvents(rawDeviceEvents, eventType);
+            incrementRabbitMQMetric(metricName(eventType) + ".success", rawDeviceEvents.size());
+        } catch (Exception e) {
+            log.error("Error while sending " + eventType + " data", e);
+            incrementRabbitMQMetric(metricName(eventType) + ".error", rawDeviceEvents.size());
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE_BATCH, eventType), start);
+        }
+    }
+
+    public void receiveEnrollmentMessages(List<DeviceEvent> deviceEvents) {
+        final long start = System.nanoTime();
+        try {
+            deviceEventDispatcherManager.postDeviceEnrollments(deviceEvents);
+            incrementRabbitMQMetric("enrollment.success", deviceEvents.size());
+        } catch (Exception e) {
+            log.error("Error while sending enrollment data", e);
+            incrementRabbitMQMetric("enrollment.error", deviceEvents.size());
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE_BATCH, EventType.ENROLLMENT), start);
+        }
+    }
+
+    public void receiveDeviceDataMessages(List<DeviceChangeEvent> deviceChangeEvents) {
+        final long start = System.nanoTime();
+        try {
+            deviceEventDispatcherManager.postDeviceChangeEvents(deviceChangeEvents, EventType.DEVICE_DATA_CHANGE);
+            incrementRabbitMQMetric("device.data.success", deviceChangeEvents.size());
+        } catch (Exception e) {
+            log.error("Error while sending device data", e);
+            incrementRabbitMQMetric("device.data.error", deviceChangeEvents.size());
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE_BATCH, EventType.DEVICE_DATA_CHANGE), start);
+        }
+    }
+
+    public void receiveDevicePackageMessages(List<DeviceChangeEvent> deviceChangeEvents) {
+        final long start = System.nanoTime();
+        try {
+            deviceEventDispatcherManager.postDeviceChangeEvents(deviceChangeEvents, EventType.DEVICE_PACKAGE_CHANGE);
+            incrementRabbitMQMetric("device.package.success", deviceChangeEvents.size());
+        } catch (Exception e) {
+            log.error("Error while sending device package data", e);
+            incrementRabbitMQMetric("device.package.error", deviceChangeEvents.size());
+            rethrowIfRedeliverable(e);
+        } finally {
+            latencyHistograms.recordSince(LatencyHistograms.name(LatencyHistograms.HANDLE_BATCH, EventType.DEVICE_PACKAGE_CHANGE), start);
+        }
+    }
+
+    private static String metricName(EventType eventType) {
+        switch (eventType) {
+            case PING:
+                return "event";
+            case ENROLLMENT:
+                return "enrollment";
+            case DEVICE_DATA_CHANGE:
+                return "device.data";
+            default:
+                return "device.package";
+        }
+    }
+
+    private void rethrowIfRedeliverable(Exception e) {
+        if (retryEnabled || e instanceof HookDispatchException) {
+            throw e instanceof RuntimeException ? (RuntimeException) e : new AmqpException(e);
         }
     }
 
@@ -129,4 +265,10 @@ public class DeviceMessageReceiver {
         counter.increment("message.process." + status);
     }
 
+    private void incrementRabbitMQMetric(String status, int count) {
+        for (int i = 0; i < count; i++) {
+            incrementRabbitMQMetric(status);
+        }
+    }
+
 }
@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import io.barracks.eventdispatcher.client.entity.HookInvalidation;
+import io.barracks.eventdispatcher.manager.HookRoutingTable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class HookInvalidationReceiver {
+
+    private final HookRoutingTable hookRoutingTable;
+
+    private final CounterService counter;
+
+    @Autowired
+    public HookInvalidationReceiver(HookRoutingTable hookRoutingTable, CounterService counter) {
+        this.hookRoutingTable = hookRoutingTable;
+        this.counter = counter;
+    }
+
+    @RabbitListener(queues = "#{hookInvalidationQueue.name}")
+    public void receiveHookInvalidationMessage(@Payload HookInvalidation hookInvalidation) {
+        try {
+            hookRoutingTable.reload(hookInvalidation.getUserId());
+            incrementRabbitMQMetric("invalidation.success");
+        } catch (Exception e) {
+            log.error("Error while reloading the hooks of user '" + hookInvalidation.getUserId() + "'", e);
+            incrementRabbitMQMetric("invalidation.error");
+        }
+    }
+
+    private void incrementRabbitMQMetric(String status) {
+        counter.increment("message.process." + status);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.pipeline.Delivery;
+import io.barracks.eventdispatcher.pipeline.DispatchPipeline;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.ChannelAwareMessageListener;
+
+@Slf4j
+public class PipelineMessageListener implements ChannelAwareMessageListener {
+
+    private final DispatchPipeline dispatchPipeline;
+
+    private final EventType eventType;
+
+    public PipelineMessageListener(DispatchPipeline dispatchPipeline, EventType eventType) {
+        this.dispatchPipeline = dispatchPipeline;
+        this.eventType = eventType;
+    }
+
+    @Override
+    public void onMessage(Message message, Channel channel) {
+        final Delivery delivery = new Delivery(channel, message.getMessageProperties().getDeliveryTag());
+        try {
+            dispatchPipeline.dispatch(delivery, message, eventType)
+                    .whenComplete((result, error) -> settle(delivery, error));
+        } catch (Exception e) {
+            settle(delivery, e);
+        }
+    }
+
+    private void settle(Delivery delivery, Throwable error) {
+        if (error != null && delivery.reject(true)) {
+            log.error("The " + eventType + " message was not settled by the pipeline, requeuing it", error);
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Component
+public class RetryRouter implements MessageRecoverer {
+
+    public static final String RETRY_COUNT_HEADER = "x-barracks-retry-count";
+    public static final String ERROR_HEADER = "x-barracks-error";
+    public static final String ORIGINAL_QUEUE_HEADER = "x-barracks-original-queue";
+
+    private static final int MAX_ERROR_LENGTH = 512;
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final AmqpAdmin amqpAdmin;
+
+    private final CounterService counter;
+
+    private final boolean enabled;
+
+    private final int maxAttempts;
+
+    private final long initialDelay;
+
+    private final double multiplier;
+
+    private final long maxDelay;
+
+    private final String deadLetterExchange;
+
+    private final Set<String> declaredDelayQueues = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public RetryRouter(
+            RabbitTemplate rabbitTemplate,
+            AmqpAdmin amqpAdmin,
+            CounterService counter,
+            @Value("${io.barracks.retry.enabled:false}") boolean enabled,
+            @Value("${io.barracks.retry.maxattempts:5}") int maxAttempts,
+            @Value("${io.barracks.retry.initialdelay:1000}") long initialDelay,
+            @Value("${io.barracks.retry.multiplier:2.0}") double multiplier,
+            @Value("${io.barracks.retry.maxdelay:60000}") long maxDelay,
+            @Value("${io.barracks.deadletter.exchangename:eventdispatcher.dlx}") String deadLetterExchange
+    ) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.amqpAdmin = amqpAdmin;
+        this.counter = counter;
+        this.enabled = enabled;
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+        this.deadLetterExchange = deadLetterExchange;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void recover(Message message, Throwable cause) {
+        final String queue = message.getMessageProperties().getConsumerQueue();
+        if (isPoison(cause)) {
+            deadLetter(message, queue, cause);
+            return;
+        }
+        final int retries = getRetryCount(message);
+        if (retries >= maxAttempts) {
+            deadLetter(message, queue, cause);
+            return;
+        }
+        final long delay = getDelay(retries);
+        final String delayQueue = declareDelayQueue(queue, delay);
+        final MessageProperties properties = message.getMessageProperties();
+        properties.setHeader(RETRY_COUNT_HEADER, retries + 1);
+        properties.setHeader(ERROR_HEADER, describe(cause));
+        properties.setHeader(ORIGINAL_QUEUE_HEADER, queue);
+        rabbitTemplate.send("", delayQueue, message);
+        log.warn("Message from '{}' failed, retrying in {}ms (attempt {}/{})", queue, delay, retries + 1, maxAttempts);
+        counter.increment("message.retry.scheduled");
+    }
+
+    private void deadLetter(Message message, String queue, Throwable cause) {
+        final MessageProperties properties = message.getMessageProperties();
+        properties.setHeader(ERROR_HEADER, describe(cause));
+        properties.setHeader(ORIGINAL_QUEUE_HEADER, queue);
+        rabbitTemplate.send(deadLetterExchange, queue, message);
+        log.error("Message from '" + queue + "' was dead-lettered after " + getRetryCount(message) + " retries", cause);
+        counter.increment("message.retry.deadlettered");
+    }
+
+    long getDelay(int retries) {
+        return Math.min(maxDelay, (long) (initialDelay * Math.pow(multiplier, retries)));
+    }
+
+    static int getRetryCount(Message message) {
+        final Object retries = message.getMessageProperties().getHeaders().get(RETRY_COUNT_HEADER);
+        return retries instanceof Number ? ((Number) retries).intValue() : 0;
+    }
+
+    public static boolean isPoison(Throwable cause) {
+        for (Throwable current = cause; current != null; current = current.getCause()) {
+            if (current instanceof MessageConversionException
+                    || current instanceof org.springframework.messaging.converter.MessageConversionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String declareDelayQueue(String queue, long delay) {
+        final String delayQueue = queue + ".delay." + delay;
+        if (!declaredDelayQueues.contains(delayQueue)) {
+            final Map<String, Object> arguments = new HashMap<>();
+            arguments.put("x-message-ttl", delay);
+            arguments.put("x-dead-letter-exchange", "");
+            arguments.put("x-dead-letter-routing-key", queue);
+            amqpAdmin.declareQueue(new Queue(delayQueue, true, false, false, arguments));
+            declaredDelayQueues.add(delayQueue);
+        }
+        return delayQueue;
+    }
+
+    private static String describe(Throwable cause) {
+        if (cause == null) {
+            return "";
+        }
+        final String description = cause.getClass().getName() + ": " + cause.getMessage();
+        return description.length() > MAX_ERROR_LENGTH ? description.substring(0, MAX_ERROR_LENGTH) : description;
+    }
+
+}
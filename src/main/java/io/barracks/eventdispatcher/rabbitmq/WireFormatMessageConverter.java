@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.WireFormat;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class WireFormatMessageConverter extends AbstractMessageConverter {
+
+    private final Jackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+
+    private final ObjectMapper objectMapper;
+
+    private final WireFormat wireFormat;
+
+    public WireFormatMessageConverter(ObjectMapper objectMapper, WireFormat wireFormat) {
+        this.objectMapper = objectMapper;
+        this.wireFormat = wireFormat;
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = wireFormat.getFactory().createGenerator(out)) {
+            objectMapper.writeValue(generator, object);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert Message content", e);
+        }
+        final byte[] body = out.toByteArray();
+        messageProperties.setContentType(wireFormat.getContentType());
+        messageProperties.setContentLength(body.length);
+        typeMapper.fromJavaType(objectMapper.constructType(object.getClass()), messageProperties);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        final MessageProperties properties = message.getMessageProperties();
+        if (WireFormat.forContentType(properties.getContentType()) != wireFormat) {
+            throw new MessageConversionException("Expected a " + wireFormat + " message but got " + properties.getContentType());
+        }
+        final JavaType javaType = typeMapper.toJavaType(properties);
+        try (JsonParser parser = wireFormat.getFactory().createParser(message.getBody())) {
+            return objectMapper.readerFor(javaType).readValue(parser);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert Message content", e);
+        }
+    }
+}
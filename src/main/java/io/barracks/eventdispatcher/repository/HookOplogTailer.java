@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import io.barracks.eventdispatcher.manager.HookRoutingTable;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.repository.document.HookIndexCheckpoint;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.BSONTimestamp;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Slf4j
+@Component
+public class HookOplogTailer {
+
+    static final String LOCAL_DATABASE = "local";
+    static final String OPLOG_COLLECTION = "oplog.rs";
+
+    private static final String TIMESTAMP_KEY = "ts";
+    private static final String OPERATION_KEY = "op";
+    private static final String NAMESPACE_KEY = "ns";
+    private static final String OBJECT_KEY = "o";
+    private static final String UPDATED_OBJECT_KEY = "o2";
+    private static final String ID_KEY = "_id";
+    private static final String COMMAND_COLLECTION = "$cmd";
+    private static final String ADMIN_DATABASE = "admin";
+
+    private final MongoDbFactory mongoDbFactory;
+
+    private final MongoOperations operations;
+
+    private final HookIndexCheckpointRepository checkpointRepository;
+
+    private final HookRoutingTable hookRoutingTable;
+
+    private final CounterService counter;
+
+    private final boolean enabled;
+
+    private final String checkpointId;
+
+    private final long retryDelay;
+
+    private final long idleDelay;
+
+    private final long checkpointDelay;
+
+    private final int checkpointBatch;
+
+    private volatile boolean running = false;
+
+    private ExecutorService executor;
+
+    @Autowired
+    public HookOplogTailer(
+            MongoDbFactory mongoDbFactory,
+            MongoOperations operations,
+            HookIndexCheckpointRepository checkpointRepository,
+            HookRoutingTable hookRoutingTable,
+            CounterService counter,
+            @Value("${io.barracks.hookindex.oplog.enabled:false}") boolean enabled,
+            @Value("${io.barracks.hookindex.oplog.checkpoint:${HOSTNAME:eventdispatcher}}") String checkpointId,
+            @Value("${io.barracks.hookindex.oplog.retrydelay:5000}") long retryDelay,
+            @Value("${io.barracks.hookindex.oplog.idledelay:500}") long idleDelay,
+            @Value("${io.barracks.hookindex.oplog.checkpointdelay:1000}") long checkpointDelay,
+            @Value("${io.barracks.hookindex.oplog.checkpointbatch:100}") int checkpointBatch
+    ) {
+        this.mongoDbFactory = mongoDbFactory;
+        this.operations = operations;
+        this.checkpointRepository = checkpointRepository;
+        this.hookRoutingTable = hookRoutingTable;
+        this.counter = counter;
+        this.enabled = enabled;
+        this.checkpointId = checkpointId;
+        this.retryDelay = retryDelay;
+        this.idleDelay = idleDelay;
+        this.checkpointDelay = checkpointDelay;
+        this.checkpointBatch = checkpointBatch;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (!mongoDbFactory.getDb(LOCAL_DATABASE).collectionExists(OPLOG_COLLECTION)) {
+            log.warn("No oplog found, the database is not a replica set member. Hook changes will not be tailed.");
+            return;
+        }
+        running = true;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "hook-oplog-tailer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::tail);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    void tail() {
+        BSONTimestamp position = null;
+        while (running) {
+            try {
+                position = tailFrom(getStartPosition(position));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("Error while tailing the hooks oplog, resuming in " + retryDelay + "ms", e);
+                counter.increment("hooks.oplog.error");
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    BSONTimestamp getStartPosition(BSONTimestamp position) {
+        final DBCollection oplog = getOplog();
+        final BSONTimestamp resume = position != null ? position : getCheckpoint();
+        final BSONTimestamp oldest = getOplogTimestamp(oplog, 1);
+        if (resume != null && oldest != null && toLong(oldest) <= toLong(resume)) {
+            log.info("Resuming the hooks oplog from {}", resume);
+            return resume;
+        }
+        if (resume != null) {
+            log.warn("The hooks oplog rolled over past {}, reloading the routing table", resume);
+            counter.increment("hooks.oplog.rollover");
+        }
+        final BSONTimestamp latest = getOplogTimestamp(oplog, -1);
+        final BSONTimestamp start = latest != null ? latest : new BSONTimestamp();
+        hookRoutingTable.reload();
+        saveCheckpoint(start);
+        log.info("Tailing the hooks oplog from its current end");
+        return start;
+    }
+
+    private BSONTimestamp getCheckpoint() {
+        final HookIndexCheckpoint checkpoint = checkpointRepository.findOne(checkpointId);
+        return checkpoint != null ? fromLong(checkpoint.getTimestamp()) : null;
+    }
+
+    private BSONTimestamp tailFrom(BSONTimestamp position) throws InterruptedException {
+        BSONTimestamp current = position;
+        BSONTimestamp saved = position;
+        long savedAt = System.currentTimeMillis();
+        int pending = 0;
+        try (DBCursor cursor = getOplog().find(getQuery(position))
+                .addOption(Bytes.QUERYOPTION_TAILABLE)
+                .addOption(Bytes.QUERYOPTION_AWAITDATA)
+                .addOption(Bytes.QUERYOPTION_OPLOGREPLAY)
+                .addOption(Bytes.QUERYOPTION_NOTIMEOUT)) {
+            while (running) {
+                final DBObject entry = cursor.tryNext();
+                if (entry == null) {
+                    if (pending > 0) {
+                        saveCheckpoint(current);
+                        saved = current;
+                        savedAt = System.currentTimeMillis();
+                        pending = 0;
+                    }
+                    Thread.sleep(idleDelay);
+                    continue;
+                }
+                apply(entry);
+                current = (BSONTimestamp) entry.get(TIMESTAMP_KEY);
+                if (++pending >= checkpointBatch || System.currentTimeMillis() - savedAt >= checkpointDelay) {
+                    saveCheckpoint(current);
+                    saved = current;
+                    savedAt = System.currentTimeMillis();
+                    pending = 0;
+                }
+            }
+        } finally {
+            if (current != saved) {
+                saveCheckpoint(current);
+            }
+        }
+        return current;
+    }
+
+    DBObject getQuery(BSONTimestamp position) {
+        final String database = mongoDbFactory.getDb().getName();
+        final String collection = operations.getCollectionName(Hook.class);
+        final String commands = database + "." + COMMAND_COLLECTION;
+        return new BasicDBObject(TIMESTAMP_KEY, new BasicDBObject("$gt", position))
+                .append("$or", Arrays.asList(
+                        new BasicDBObject(NAMESPACE_KEY, database + "." + collection),
+                        new BasicDBObject(NAMESPACE_KEY, commands).append(OBJECT_KEY + ".drop", collection),
+                        new BasicDBObject(NAMESPACE_KEY, commands).append(OBJECT_KEY + ".dropDatabase", 1),
+                        new BasicDBObject(NAMESPACE_KEY, ADMIN_DATABASE + "." + COMMAND_COLLECTION)
+                                .append(OBJECT_KEY + ".renameCollection", database + "." + collection)
+                ));
+    }
+
+    private void saveCheckpoint(BSONTimestamp timestamp) {
+        checkpointRepository.save(new HookIndexCheckpoint(checkpointId, toLong(timestamp)));
+    }
+
+    void apply(DBObject entry) {
+        final String operation = (String) entry.get(OPERATION_KEY);
+        final DBObject object = (DBObject) entry.get(OBJECT_KEY);
+        switch (operation) {
+            case "i":
+                hookRoutingTable.put(operations.getConverter().read(Hook.class, object));
+                break;
+            case "u":
+                final String id = String.valueOf(((DBObject) entry.get(UPDATED_OBJECT_KEY)).get(ID_KEY));
+                final Hook hook = operations.findById(id, Hook.class);
+                if (hook != null) {
+                    hookRoutingTable.put(hook);
+                } else {
+                    hookRoutingTable.remove(id);
+                }
+                break;
+            case "d":
+                hookRoutingTable.remove(String.valueOf(object.get(ID_KEY)));
+                break;
+            case "c":
+                hookRoutingTable.reload();
+                break;
+            default:
+                return;
+        }
+        counter.increment("hooks.oplog.applied");
+    }
+
+    private DBCollection getOplog() {
+        return mongoDbFactory.getDb(LOCAL_DATABASE).getCollection(OPLOG_COLLECTION);
+    }
+
+    private static BSONTimestamp getOplogTimestamp(DBCollection oplog, int order) {
+        try (DBCursor cursor = oplog.find().sort(new BasicDBObject("$natural", order)).limit(1)) {
+            return cursor.hasNext() ? (BSONTimestamp) cursor.next().get(TIMESTAMP_KEY) : null;
+        }
+    }
+
+    static long toLong(BSONTimestamp timestamp) {
+        return ((long) timestamp.getTime() << 32) | (timestamp.getInc() & 0xFFFFFFFFL);
+    }
+
+    static BSONTimestamp fromLong(long value) {
+        return new BSONTimestamp((int) (value >>> 32), (int) value);
+    }
+
+}
@@ -28,7 +28,9 @@ import io.barracks.eventdispatcher.model.Hook;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface HookRepositoryCustom {
 
@@ -42,5 +44,11 @@ public interface HookRepositoryCustom {
 
     Page<Hook> getHooksByEventType(String userId, Pageable pageable, String eventType);
 
+    Stream<Hook> streamHooksByEventType(String userId, String eventType);
+
+    List<Hook> getAllHooks();
+
+    List<Hook> getAllHooks(String userId);
+
     Hook updateHook(String name, Hook hook);
 }
@@ -33,12 +33,16 @@ import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.StreamUtils;
 import org.springframework.stereotype.Repository;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.springframework.data.mongodb.core.query.Criteria.where;
 import static org.springframework.data.mongodb.core.query.Query.query;
@@ -49,6 +53,10 @@ public class HookRepositoryImpl implements HookRepositoryCustom {
     private static final String USER_ID_KEY = "userId";
     private static final String NAME_KEY = "name";
     private static final String EVENT_TYPE_KEY = "eventType";
+    private static final String ID_KEY = "_id";
+    private static final List<String> DISPATCH_FIELDS = Arrays.asList(
+            "_class", USER_ID_KEY, NAME_KEY, EVENT_TYPE_KEY, "url", "gaTrackingId", "googleClientSecret", "changeFormat"
+    );
     private final MongoOperations operations;
 
     @Autowired
@@ -98,6 +106,25 @@ public class HookRepositoryImpl implements HookRepositoryCustom {
         return new PageImpl<>(hooks, pageable, count);
     }
 
+    @Override
+    public Stream<Hook> streamHooksByEventType(String userId, String eventType) {
+        final Query query = query(where(USER_ID_KEY).is(userId).and(EVENT_TYPE_KEY).is(eventType))
+                .with(new Sort(Sort.Direction.ASC, ID_KEY));
+        DISPATCH_FIELDS.forEach(field -> query.fields().include(field));
+        return StreamUtils.createStreamFromIterator(operations.stream(query, Hook.class));
+    }
+
+    @Override
+    public List<Hook> getAllHooks() {
+        return operations.findAll(Hook.class);
+    }
+
+    @Override
+    public List<Hook> getAllHooks(String userId) {
+        final Query query = query(where(USER_ID_KEY).is(userId));
+        return operations.find(query, Hook.class);
+    }
+
     @Override
     public Hook updateHook(String name, Hook hook) {
         if (name.equals(hook.getName()) || !getHookByUserIdAndName(hook.getUserId(), hook.getName()).isPresent()) {
@@ -32,6 +32,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 @Document(collection = "hooks")
 @CompoundIndexes({
         @CompoundIndex(name = "userId_name_idx", def = "{ 'userId' : 1, 'name' : 1 }", unique = true),
+        @CompoundIndex(name = "userId_eventType_idx", def = "{ 'userId' : 1, 'eventType' : 1, '_id' : 1 }")
 })
 public class HookDocument {
 }
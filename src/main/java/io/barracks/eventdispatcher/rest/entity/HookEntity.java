@@ -67,11 +67,14 @@ public class HookEntity {
 
     private GoogleClientSecret googleClientSecret;
 
+    private ChangeFormat changeFormat;
+
     public static HookEntity fromHook(Hook hook) {
         final HookEntity result = HookEntity.builder()
                 .eventType(hook.getEventType())
                 .userId(hook.getUserId())
                 .name(hook.getName())
+                .changeFormat(hook.getChangeFormat())
                 .build();
 
         if (hook.getClass().equals(Webhook.class)) {
@@ -102,6 +105,7 @@ public class HookEntity {
                         .userId(this.getUserId())
                         .name(this.getName())
                         .eventType(this.getEventType())
+                        .changeFormat(this.getChangeFormat())
                         .url(this.getUrl())
                         .build();
             case GOOGLE_ANALYTICS_TYPE:
@@ -109,6 +113,7 @@ public class HookEntity {
                         .userId(this.getUserId())
                         .name(this.getName())
                         .eventType(this.getEventType())
+                        .changeFormat(this.getChangeFormat())
                         .gaTrackingId(this.getGaTrackingId())
                         .build();
             case BIGQUERY_TYPE:
@@ -116,6 +121,7 @@ public class HookEntity {
                         .userId(this.getUserId())
                         .name(this.getName())
                         .eventType(this.getEventType())
+                        .changeFormat(this.getChangeFormat())
                         .googleClientSecret(this.getGoogleClientSecret())
                         .build();
             default:
@@ -24,7 +24,6 @@
 
 package io.barracks.eventdispatcher.security;
 
-import io.barracks.eventdispatcher.client.AuthorizationServiceClient;
 import io.barracks.eventdispatcher.model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,18 +44,18 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final AuthorizationServiceClient authorizationServiceClient;
+    private final TokenUserCache tokenUserCache;
 
     @Autowired
-    public TokenAuthenticationFilter(AuthorizationServiceClient authorizationServiceClient) {
-        this.authorizationServiceClient = authorizationServiceClient;
+    public TokenAuthenticationFilter(TokenUserCache tokenUserCache) {
+        this.tokenUserCache = tokenUserCache;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         final String token = request.getHeader("X-Auth-Token");
         try {
-            final User user = authorizationServiceClient.requestUserFromToken(token);
+            final User user = tokenUserCache.getUser(token);
             SecurityContextHolder.getContext().setAuthentication(new UserAuthentication(user));
         } catch (HttpClientErrorException e) {
             logger.warn("Authentication of token '{}' from '{}' thrown '{}'", token, request.getRemoteAddr(), e);
@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.security;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractNamedMvcEndpoint;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Collections;
+import java.util.Map;
+
+@Component
+public class TokenCacheEndpoint extends AbstractNamedMvcEndpoint {
+
+    private final TokenUserCache tokenUserCache;
+
+    @Autowired
+    public TokenCacheEndpoint(TokenUserCache tokenUserCache) {
+        super("tokencache", "/tokencache", true);
+        this.tokenUserCache = tokenUserCache;
+    }
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.GET)
+    public Map<String, Long> invoke() {
+        return Collections.singletonMap("size", tokenUserCache.size());
+    }
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.POST, path = "/evict")
+    public Map<String, Boolean> evict(@RequestParam("token") String token) {
+        return Collections.singletonMap("evicted", tokenUserCache.evict(token));
+    }
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.POST, path = "/evictall")
+    public Map<String, Long> evictAll() {
+        final long size = tokenUserCache.size();
+        tokenUserCache.evictAll();
+        return Collections.singletonMap("evicted", size);
+    }
+
+}
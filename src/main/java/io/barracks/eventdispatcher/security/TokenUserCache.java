@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.barracks.eventdispatcher.client.AuthorizationServiceClient;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class TokenUserCache {
+
+    private final AuthorizationServiceClient authorizationServiceClient;
+
+    private final CounterService counter;
+
+    private final LatencyHistograms latencyHistograms;
+
+    private final Cache<String, User> users;
+
+    private final Cache<String, HttpStatusCodeException> rejections;
+
+    private final SingleFlight<String, User> lookups;
+
+    @Autowired
+    public TokenUserCache(
+            AuthorizationServiceClient authorizationServiceClient,
+            CounterService counter,
+            LatencyHistograms latencyHistograms,
+            @Value("${io.barracks.tokencache.size:10000}") long size,
+            @Value("${io.barracks.tokencache.ttl:60000}") long ttl,
+            @Value("${io.barracks.tokencache.negative.ttl:5000}") long negativeTtl
+    ) {
+        this.authorizationServiceClient = authorizationServiceClient;
+        this.counter = counter;
+        this.latencyHistograms = latencyHistograms;
+        this.users = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .build();
+        this.rejections = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(negativeTtl, TimeUnit.MILLISECONDS)
+                .build();
+        this.lookups = new SingleFlight<>(counter, "authorization.token");
+    }
+
+    public User getUser(String token) {
+        if (StringUtils.isEmpty(token)) {
+            return requestUser(token);
+        }
+        final User user = users.getIfPresent(token);
+        if (user != null) {
+            counter.increment("authorization.token.cache.hit");
+            return user;
+        }
+        final HttpStatusCodeException rejection = rejections.getIfPresent(token);
+        if (rejection != null) {
+            counter.increment("authorization.token.cache.negative.hit");
+            throw rejection;
+        }
+        counter.increment("authorization.token.cache.miss");
+        return lookups.execute(token, () -> loadUser(token));
+    }
+
+    public boolean evict(String token) {
+        final boolean cached = users.getIfPresent(token) != null || rejections.getIfPresent(token) != null;
+        users.invalidate(token);
+        rejections.invalidate(token);
+        return cached;
+    }
+
+    public void evictAll() {
+        users.invalidateAll();
+        rejections.invalidateAll();
+    }
+
+    public long size() {
+        return users.size() + rejections.size();
+    }
+
+    private User loadUser(String token) {
+        final User cached = users.getIfPresent(token);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            final User result = requestUser(token);
+            users.put(token, result);
+            return result;
+        } catch (HttpStatusCodeException e) {
+            if (e.getStatusCode().is4xxClientError()) {
+                rejections.put(token, e);
+            }
+            throw e;
+        }
+    }
+
+    private User requestUser(String token) {
+        return latencyHistograms.time(LatencyHistograms.TOKEN_REQUEST, () -> authorizationServiceClient.requestUserFromToken(token));
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.client;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.verification.VerificationMode;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.ChannelCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffer;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConfirmingPublisherTest {
+
+    private static final int BATCH_SIZE = 3;
+    private static final long CONFIRM_TIMEOUT = 100;
+    private static final int RETRIES = 2;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private Channel channel;
+
+    private final CounterBuffers counterBuffers = new CounterBuffers();
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
+    private ConfirmingPublisher confirmingPublisher;
+
+    private final AtomicLong sequence = new AtomicLong(1);
+
+    private final List<ConfirmListener> confirmListeners = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        confirmingPublisher = new ConfirmingPublisher(rabbitTemplate, counterBuffers, latencyHistograms, true, BATCH_SIZE, CONFIRM_TIMEOUT, RETRIES, 1, 2.0, 4);
+        doAnswer(invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doInRabbit(channel))
+                .when(rabbitTemplate).execute(any(ChannelCallback.class));
+        doAnswer(invocation -> sequence.get()).when(channel).getNextPublishSeqNo();
+        doAnswer(invocation -> confirmListeners.add((ConfirmListener) invocation.getArguments()[0]))
+                .when(channel).addConfirmListener(any(ConfirmListener.class));
+        doAnswer(invocation -> confirmListeners.remove(invocation.getArguments()[0]))
+                .when(channel).removeConfirmListener(any(ConfirmListener.class));
+    }
+
+    @Test
+    public void publish_whenAllConfirmed_shouldPublishOnceInBatches() throws Exception {
+        // Given
+        final List<OutboundMessage> messages = getOutboundMessages(5);
+        doAnswer(invocation -> sequence.getAndIncrement()).when(channel)
+                .basicPublish(anyString(), anyString(), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+        doAnswer(invocation -> {
+            confirmListeners.forEach(listener -> ack(listener, sequence.get() - 1, true));
+            return true;
+        }).when(channel).waitForConfirms(CONFIRM_TIMEOUT);
+
+        // When
+        confirmingPublisher.publish(messages.stream());
+
+        // Then
+        verify(rabbitTemplate, times(2)).execute(any(ChannelCallback.class));
+        verify(channel, times(2)).confirmSelect();
+        verify(channel, times(2)).waitForConfirms(CONFIRM_TIMEOUT);
+        messages.forEach(message -> verifyPublished(message, times(1)));
+        assertThat(getCount("counter.message.process.success")).isEqualTo(5L);
+        assertThat(getCount("counter.message.process.error")).isZero();
+        assertThat(confirmListeners).isEmpty();
+        assertThat(latencyHistograms.metrics())
+                .extracting("name", "value")
+                .contains(tuple("histogram.dispatch.publish.replay.count", 5L));
+    }
+
+    @Test
+    public void publish_whenNacked_shouldRetryNackedMessagesOnly() throws Exception {
+        // Given
+        final List<OutboundMessage> messages = getOutboundMessages(2);
+        final List<byte[]> bodies = new ArrayList<>();
+        doAnswer(invocation -> {
+            bodies.add((byte[]) invocation.getArguments()[4]);
+            return sequence.getAndIncrement();
+        }).when(channel).basicPublish(anyString(), anyString(), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+        doAnswer(invocation -> {
+            if (bodies.size() == 2) {
+                confirmListeners.forEach(listener -> ack(listener, 1, false));
+                confirmListeners.forEach(listener -> nack(listener, 2, false));
+                return false;
+            }
+            confirmListeners.forEach(listener -> ack(listener, sequence.get() - 1, true));
+            return true;
+        }).when(channel).waitForConfirms(CONFIRM_TIMEOUT);
+
+        // When
+        confirmingPublisher.publish(messages.stream());
+
+        // Then
+        verifyPublished(messages.get(0), times(1));
+        verifyPublished(messages.get(1), times(2));
+        assertThat(getCount("counter.message.process.retry")).isEqualTo(1L);
+        assertThat(getCount("counter.message.process.success")).isEqualTo(2L);
+        assertThat(latencyHistograms.metrics())
+                .extracting("name", "value")
+                .contains(tuple("histogram.dispatch.publish.replay.count", 2L));
+        assertThat(getCount("counter.message.process.error")).isZero();
+    }
+
+    @Test
+    public void publish_whenConfirmsTimeOut_shouldRetryThenCountErrors() throws Exception {
+        // Given
+        final List<OutboundMessage> messages = getOutboundMessages(2);
+        doAnswer(invocation -> sequence.getAndIncrement()).when(channel)
+                .basicPublish(anyString(), anyString(), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+        doThrow(TimeoutException.class).when(channel).waitForConfirms(CONFIRM_TIMEOUT);
+
+        // When
+        final List<OutboundMessage> dropped = confirmingPublisher.publish(messages.stream());
+
+        // Then
+        assertThat(dropped).containsExactlyElementsOf(messages);
+        verify(rabbitTemplate, times(RETRIES + 1)).execute(any(ChannelCallback.class));
+        assertThat(getCount("counter.message.process.retry")).isEqualTo(2L * RETRIES);
+        assertThat(getCount("counter.message.process.error")).isEqualTo(2L);
+        assertThat(getCount("counter.message.process.success")).isZero();
+    }
+
+    @Test
+    public void publish_whenBrokerUnavailable_shouldRetryThenCountErrors() throws Exception {
+        // Given
+        final List<OutboundMessage> messages = getOutboundMessages(1);
+        doThrow(new AmqpConnectException(new RuntimeException())).when(rabbitTemplate).execute(any(ChannelCallback.class));
+
+        // When
+        confirmingPublisher.publish(messages.stream());
+
+        // Then
+        verify(rabbitTemplate, times(RETRIES + 1)).execute(any(ChannelCallback.class));
+        assertThat(getCount("counter.message.process.error")).isEqualTo(1L);
+    }
+
+    @Test
+    public void publish_whenEmpty_shouldNotOpenChannel() {
+        // When
+        confirmingPublisher.publish(Stream.empty());
+
+        // Then
+        verify(rabbitTemplate, never()).execute(any(ChannelCallback.class));
+        assertThat(counterBuffers.count()).isZero();
+    }
+
+    @Test
+    public void constructor_whenEnabledAndConnectionFactoryNotConfirming_shouldThrow() {
+        // Given
+        final CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
+        final RabbitTemplate template = new RabbitTemplate(connectionFactory);
+
+        // When / Then
+        assertThatThrownBy(() -> new ConfirmingPublisher(template, counterBuffers, latencyHistograms, true, BATCH_SIZE, CONFIRM_TIMEOUT, RETRIES, 1, 2.0, 4))
+                .isInstanceOf(IllegalStateException.class);
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void constructor_whenEnabledAndConnectionFactoryConfirming_shouldUseSharedTemplate() {
+        // Given
+        final CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
+        connectionFactory.setPublisherConfirms(true);
+        final RabbitTemplate template = new RabbitTemplate(connectionFactory);
+
+        // When
+        final ConfirmingPublisher publisher = new ConfirmingPublisher(template, counterBuffers, latencyHistograms, true, BATCH_SIZE, CONFIRM_TIMEOUT, RETRIES, 1, 2.0, 4);
+        connectionFactory.destroy();
+
+        // Then
+        assertThat(publisher.isEnabled()).isTrue();
+    }
+
+    @Test
+    public void getDelay_shouldBackOffExponentiallyUpToMaxDelay() {
+        // Given
+        final ConfirmingPublisher publisher = new ConfirmingPublisher(rabbitTemplate, counterBuffers, latencyHistograms, true, BATCH_SIZE, CONFIRM_TIMEOUT, RETRIES, 100, 2.0, 250);
+
+        // When / Then
+        assertThat(publisher.getDelay(0)).isEqualTo(100);
+        assertThat(publisher.getDelay(1)).isEqualTo(200);
+        assertThat(publisher.getDelay(2)).isEqualTo(250);
+    }
+
+    private long getCount(String name) {
+        final CounterBuffer buffer = counterBuffers.find(name);
+        return buffer != null ? buffer.getValue() : 0L;
+    }
+
+    private void verifyPublished(OutboundMessage message, VerificationMode mode) {
+        try {
+            verify(channel, mode).basicPublish(
+                    eq(message.getExchange()),
+                    eq(message.getRoutingKey()),
+                    eq(false),
+                    any(AMQP.BasicProperties.class),
+                    eq(message.getMessage().getBody())
+            );
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void ack(ConfirmListener listener, long deliveryTag, boolean multiple) {
+        try {
+            listener.handleAck(deliveryTag, multiple);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void nack(ConfirmListener listener, long deliveryTag, boolean multiple) {
+        try {
+            listener.handleNack(deliveryTag, multiple);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<OutboundMessage> getOutboundMessages(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new OutboundMessage(
+                        UUID.randomUUID().toString(),
+                        UUID.randomUUID().toString(),
+                        new Message(UUID.randomUUID().toString().getBytes(), new MessageProperties())
+                ))
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.client;
+
+import io.barracks.eventdispatcher.client.entity.HookInvalidation;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.util.UUID;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HookInvalidationClientTest {
+
+    private HookInvalidationClient hookInvalidationClient;
+
+    private String exchangeName = "test_hook_invalidation_exchange";
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private CounterService counterService;
+
+    @Before
+    public void setUp() {
+        hookInvalidationClient = new HookInvalidationClient(rabbitTemplate, counterService, exchangeName);
+    }
+
+    @Test
+    public void postHookInvalidation_whenServiceSucceeds_serverShouldBeCalled() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final HookInvalidation expected = HookInvalidation.builder().userId(userId).build();
+
+        // When
+        hookInvalidationClient.postHookInvalidation(userId);
+
+        // Then
+        verify(rabbitTemplate).convertAndSend(exchangeName, "", expected);
+        verify(counterService).increment("message.invalidation.success");
+    }
+
+    @Test
+    public void postHookInvalidation_whenServiceFails_shouldLogError() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final HookInvalidation expected = HookInvalidation.builder().userId(userId).build();
+        doThrow(AmqpException.class).when(rabbitTemplate).convertAndSend(exchangeName, "", expected);
+
+        // When
+        hookInvalidationClient.postHookInvalidation(userId);
+
+        // Then
+        verify(rabbitTemplate).convertAndSend(exchangeName, "", expected);
+        verify(counterService).increment("message.invalidation.error");
+    }
+
+}
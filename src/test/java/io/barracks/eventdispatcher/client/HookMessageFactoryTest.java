@@ -0,0 +1,318 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.entity.DeviceChangeEventDelta;
+import io.barracks.eventdispatcher.client.entity.DeviceChangeEventDeltaHook;
+import io.barracks.eventdispatcher.client.entity.DeviceChangeEventHook;
+import io.barracks.eventdispatcher.client.entity.DeviceEventHook;
+import io.barracks.eventdispatcher.client.entity.HookReference;
+import io.barracks.eventdispatcher.model.*;
+import io.barracks.eventdispatcher.rabbitmq.WireFormatMessageConverter;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static io.barracks.eventdispatcher.utils.BigQueryHookUtils.getBigQueryHook;
+import static io.barracks.eventdispatcher.utils.GoogleAnalyticsHookUtils.getGoogleAnalyticsHook;
+import static io.barracks.eventdispatcher.utils.WebhookUtils.getWebhook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HookMessageFactoryTest {
+
+    private HookMessageFactory hookMessageFactory;
+
+    private Jackson2JsonMessageConverter messageConverter;
+
+    private ObjectMapper objectMapper;
+
+    @Before
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        hookMessageFactory = new HookMessageFactory(objectMapper, EnvelopeFormat.FULL, EnvelopeFormat.FULL, EnvelopeFormat.FULL, WireFormat.JSON, WireFormat.JSON, WireFormat.JSON);
+        messageConverter = new Jackson2JsonMessageConverter();
+        messageConverter.setJsonObjectMapper(objectMapper);
+    }
+
+    @Test
+    public void forDeviceEvent_shouldProduceSameMessageAsConverter() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final List<Hook> hooks = Arrays.asList(getWebhook(), getGoogleAnalyticsHook(), getBigQueryHook());
+
+        // When
+        final Function<Hook, Message> factory = hookMessageFactory.forDeviceEvent(deviceEvent);
+
+        // Then
+        for (Hook hook : hooks) {
+            final Message expected = messageConverter.toMessage(
+                    DeviceEventHook.builder().deviceEvent(deviceEvent).hook(hook).build(),
+                    new MessageProperties()
+            );
+            assertSameMessage(factory.apply(hook), expected);
+            assertThat(messageConverter.fromMessage(factory.apply(hook))).isEqualTo(messageConverter.fromMessage(expected));
+        }
+    }
+
+    @Test
+    public void forRawDeviceEvent_shouldForwardOriginalBytes() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final byte[] body = objectMapper.writeValueAsBytes(deviceEvent);
+        final RawDeviceEvent rawDeviceEvent = RawDeviceEvent.builder().body(body).build();
+        final Webhook hook = getWebhook();
+
+        // When
+        final Message result = hookMessageFactory.forRawDeviceEvent(rawDeviceEvent).apply(hook);
+
+        // Then
+        final Message expected = hookMessageFactory.forDeviceEvent(deviceEvent).apply(hook);
+        assertSameMessage(result, expected);
+        assertThat(new String(result.getBody())).startsWith("{\"deviceEvent\":" + new String(body) + ",");
+    }
+
+    @Test
+    public void forDeviceChangeEvent_shouldProduceSameMessageAsConverter() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final List<Hook> hooks = Arrays.asList(getWebhook(), getGoogleAnalyticsHook(), getBigQueryHook());
+
+        // When
+        final Function<Hook, Message> factory = hookMessageFactory.forDeviceChangeEvent(deviceChangeEvent);
+
+        // Then
+        for (Hook hook : hooks) {
+            final Message expected = messageConverter.toMessage(
+                    DeviceChangeEventHook.builder().deviceChangeEvent(deviceChangeEvent).hook(hook).build(),
+                    new MessageProperties()
+            );
+            assertSameMessage(factory.apply(hook), expected);
+        }
+    }
+
+    @Test
+    public void forDeviceEvent_whenReferenceEnvelope_shouldSendHookReferenceOnly() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final BigQueryHook hook = getBigQueryHook();
+        final Webhook webhook = getWebhook();
+        hookMessageFactory = new HookMessageFactory(objectMapper, EnvelopeFormat.FULL, EnvelopeFormat.FULL, EnvelopeFormat.REFERENCE, WireFormat.JSON, WireFormat.JSON, WireFormat.JSON);
+        final Function<Hook, Message> factory = hookMessageFactory.forDeviceEvent(deviceEvent);
+
+        // When
+        final Message result = factory.apply(hook);
+
+        // Then
+        final JsonNode body = objectMapper.readTree(result.getBody());
+        assertThat(objectMapper.treeToValue(body.get("deviceEvent"), DeviceEvent.class)).isEqualTo(deviceEvent);
+        assertThat(objectMapper.treeToValue(body.get("hook"), HookReference.class)).isEqualTo(
+                HookReference.builder().id(hook.getId()).type("bigquery").userId(hook.getUserId()).name(hook.getName()).build()
+        );
+        assertThat(new String(result.getBody())).doesNotContain(hook.getGoogleClientSecret().getPrivateKey());
+        assertThat(result.getMessageProperties().getHeaders())
+                .containsEntry(HookMessageFactory.ENVELOPE_FORMAT_HEADER, "reference")
+                .containsEntry(HookMessageFactory.ENVELOPE_VERSION_HEADER, HookMessageFactory.ENVELOPE_VERSION);
+        assertThat(factory.apply(webhook).getMessageProperties().getHeaders())
+                .doesNotContainKey(HookMessageFactory.ENVELOPE_FORMAT_HEADER);
+    }
+
+    @Test
+    public void forRawDeviceEvent_whenPassthroughEnvelope_shouldReuseEventBytesAndSendHookInHeaders() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final RawDeviceEvent rawDeviceEvent = RawDeviceEvent.builder().body(objectMapper.writeValueAsBytes(deviceEvent)).build();
+        final Webhook webhook = getWebhook();
+        final GoogleAnalyticsHook googleAnalyticsHook = getGoogleAnalyticsHook();
+        hookMessageFactory = new HookMessageFactory(objectMapper, EnvelopeFormat.PASSTHROUGH, EnvelopeFormat.PASSTHROUGH, EnvelopeFormat.FULL, WireFormat.JSON, WireFormat.JSON, WireFormat.JSON);
+        final Function<Hook, Message> factory = hookMessageFactory.forRawDeviceEvent(rawDeviceEvent);
+
+        // When
+        final Message webhookMessage = factory.apply(webhook);
+        final Message googleAnalyticsMessage = factory.apply(googleAnalyticsHook);
+
+        // Then
+        assertThat(webhookMessage.getBody()).isSameAs(rawDeviceEvent.getBody());
+        assertThat(googleAnalyticsMessage.getBody()).isSameAs(rawDeviceEvent.getBody());
+        assertThat(messageConverter.fromMessage(webhookMessage)).isEqualTo(deviceEvent);
+        assertThat(webhookMessage.getMessageProperties().getHeaders())
+                .containsEntry(HookMessageFactory.ENVELOPE_FORMAT_HEADER, "passthrough")
+                .containsEntry(HookMessageFactory.ENVELOPE_VERSION_HEADER, HookMessageFactory.ENVELOPE_VERSION)
+                .containsEntry(HookMessageFactory.HOOK_ID_HEADER, webhook.getId())
+                .containsEntry(HookMessageFactory.HOOK_TYPE_HEADER, "web")
+                .containsEntry(HookMessageFactory.HOOK_USER_ID_HEADER, webhook.getUserId())
+                .containsEntry(HookMessageFactory.HOOK_NAME_HEADER, webhook.getName());
+        assertThat(googleAnalyticsMessage.getMessageProperties().getHeaders())
+                .containsEntry(HookMessageFactory.HOOK_ID_HEADER, googleAnalyticsHook.getId());
+    }
+
+    @Test
+    public void forRawDeviceChangeEvent_shouldProduceSameMessageAsDecodedEvent() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final RawDeviceEvent rawDeviceChangeEvent = RawDeviceEvent.builder().body(objectMapper.writeValueAsBytes(deviceChangeEvent)).build();
+        final BigQueryHook hook = getBigQueryHook();
+
+        // When
+        final Message result = hookMessageFactory.forRawDeviceChangeEvent(rawDeviceChangeEvent).apply(hook);
+
+        // Then
+        assertSameMessage(result, hookMessageFactory.forDeviceChangeEvent(deviceChangeEvent).apply(hook));
+    }
+
+    @Test
+    public void forDeviceEvent_whenBinaryEncoding_shouldEncodeEnvelopePerExchange() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final Webhook webhook = getWebhook();
+        final GoogleAnalyticsHook googleAnalyticsHook = getGoogleAnalyticsHook();
+        final BigQueryHook bigQueryHook = getBigQueryHook();
+        hookMessageFactory = new HookMessageFactory(objectMapper, EnvelopeFormat.FULL, EnvelopeFormat.FULL, EnvelopeFormat.FULL, WireFormat.SMILE, WireFormat.CBOR, WireFormat.JSON);
+        final Function<Hook, Message> factory = hookMessageFactory.forDeviceEvent(deviceEvent);
+
+        // When
+        final Message webhookMessage = factory.apply(webhook);
+        final Message googleAnalyticsMessage = factory.apply(googleAnalyticsHook);
+        final Message bigQueryMessage = factory.apply(bigQueryHook);
+
+        // Then
+        assertThat(webhookMessage.getMessageProperties().getContentType()).isEqualTo(WireFormat.SMILE.getContentType());
+        assertThat(webhookMessage.getMessageProperties().getContentEncoding()).isNull();
+        assertThat(new WireFormatMessageConverter(objectMapper, WireFormat.SMILE).fromMessage(webhookMessage))
+                .isEqualTo(DeviceEventHook.builder().deviceEvent(deviceEvent).hook(webhook).build());
+        assertThat(googleAnalyticsMessage.getMessageProperties().getContentType()).isEqualTo(WireFormat.CBOR.getContentType());
+        assertThat(new WireFormatMessageConverter(objectMapper, WireFormat.CBOR).fromMessage(googleAnalyticsMessage))
+                .isEqualTo(DeviceEventHook.builder().deviceEvent(deviceEvent).hook(googleAnalyticsHook).build());
+        assertThat(bigQueryMessage.getMessageProperties().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+        assertThat(messageConverter.fromMessage(bigQueryMessage))
+                .isEqualTo(DeviceEventHook.builder().deviceEvent(deviceEvent).hook(bigQueryHook).build());
+    }
+
+    @Test
+    public void forRawDeviceEvent_whenPassthroughAndBinaryEncoding_shouldTranscodeEventOnce() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final RawDeviceEvent rawDeviceEvent = RawDeviceEvent.builder().body(objectMapper.writeValueAsBytes(deviceEvent)).build();
+        hookMessageFactory = new HookMessageFactory(objectMapper, EnvelopeFormat.PASSTHROUGH, EnvelopeFormat.FULL, EnvelopeFormat.FULL, WireFormat.CBOR, WireFormat.JSON, WireFormat.JSON);
+        final Function<Hook, Message> factory = hookMessageFactory.forRawDeviceEvent(rawDeviceEvent);
+
+        // When
+        final Message first = factory.apply(getWebhook());
+        final Message second = factory.apply(getWebhook());
+
+        // Then
+        assertThat(first.getBody()).isSameAs(second.getBody());
+        assertThat(first.getMessageProperties().getContentType()).isEqualTo(WireFormat.CBOR.getContentType());
+        assertThat(first.getMessageProperties().getContentLength()).isEqualTo(first.getBody().length);
+        assertThat(new WireFormatMessageConverter(objectMapper, WireFormat.CBOR).fromMessage(first)).isEqualTo(deviceEvent);
+    }
+
+    @Test
+    public void forDeviceChangeEvent_whenHookOptsIntoDelta_shouldSendPatchOfRequestChanges() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final DeviceRequest oldRequest = deviceChangeEvent.getOldRequest();
+        final DeviceRequest newRequest = oldRequest.toBuilder()
+                .customClientData(oldRequest.getCustomClientData().deepCopy().put("battery", 42))
+                .clearPackages()
+                .addPackage(oldRequest.getPackages().get(0))
+                .build();
+        final DeviceChangeEvent changed = deviceChangeEvent.toBuilder()
+                .deviceEvent(deviceChangeEvent.getDeviceEvent().toBuilder().request(newRequest).build())
+                .build();
+        final Webhook deltaHook = getWebhook().toBuilder().changeFormat(ChangeFormat.DELTA).build();
+        final Webhook fullHook = getWebhook();
+        final Function<Hook, Message> factory = hookMessageFactory.forDeviceChangeEvent(changed);
+
+        // When
+        final Message deltaMessage = factory.apply(deltaHook);
+        final Message fullMessage = factory.apply(fullHook);
+
+        // Then
+        final Object result = messageConverter.fromMessage(deltaMessage);
+        assertThat(result).isInstanceOf(DeviceChangeEventDeltaHook.class);
+        final DeviceChangeEventDelta delta = ((DeviceChangeEventDeltaHook) result).getDeviceChangeEventDelta();
+        assertThat(delta.getUserId()).isEqualTo(changed.getDeviceEvent().getUserId());
+        assertThat(delta.getUnitId()).isEqualTo(changed.getDeviceEvent().getUnitId());
+        assertThat(delta.getChanges()).isEqualTo(objectMapper.readTree(("["
+                + "{'op':'add','path':'/customClientData/battery','value':42},"
+                + "{'op':'remove','path':'/packages/1'}"
+                + "]").replace('\'', '"')));
+        assertThat(deltaMessage.getMessageProperties().getHeaders())
+                .containsEntry(HookMessageFactory.CHANGE_FORMAT_HEADER, "delta");
+        assertThat(deltaMessage.getBody().length).isLessThan(fullMessage.getBody().length / 2);
+        assertThat(messageConverter.fromMessage(fullMessage))
+                .isEqualTo(DeviceChangeEventHook.builder().deviceChangeEvent(changed).hook(fullHook).build());
+        assertThat(fullMessage.getMessageProperties().getHeaders()).doesNotContainKey(HookMessageFactory.CHANGE_FORMAT_HEADER);
+    }
+
+    @Test
+    public void forRawDeviceChangeEvent_whenHookOptsIntoDelta_shouldProduceSameMessageAsDecodedEvent() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final RawDeviceEvent rawDeviceChangeEvent = RawDeviceEvent.builder().body(objectMapper.writeValueAsBytes(deviceChangeEvent)).build();
+        final BigQueryHook hook = getBigQueryHook().toBuilder().changeFormat(ChangeFormat.DELTA).build();
+
+        // When
+        final Message result = hookMessageFactory.forRawDeviceChangeEvent(rawDeviceChangeEvent).apply(hook);
+
+        // Then
+        assertSameMessage(result, hookMessageFactory.forDeviceChangeEvent(deviceChangeEvent).apply(hook));
+    }
+
+    @Test
+    public void toDelta_whenNoOldRequest_shouldAddEverything() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent().toBuilder().oldRequest(null).build();
+        final DeviceRequest request = deviceChangeEvent.getDeviceEvent().getRequest();
+
+        // When
+        final DeviceChangeEventDelta result = hookMessageFactory.toDelta(deviceChangeEvent);
+
+        // Then
+        assertThat(result.getChanges()).hasSize(request.getCustomClientData().size() + request.getPackages().size());
+        assertThat(result.getChanges().findValuesAsText("op")).containsOnly("add");
+    }
+
+    private static void assertSameMessage(Message result, Message expected) {
+        assertThat(new String(result.getBody())).isEqualTo(new String(expected.getBody()));
+        assertThat(result.getMessageProperties().getContentType()).isEqualTo(expected.getMessageProperties().getContentType());
+        assertThat(result.getMessageProperties().getContentEncoding()).isEqualTo(expected.getMessageProperties().getContentEncoding());
+        assertThat(result.getMessageProperties().getContentLength()).isEqualTo(expected.getMessageProperties().getContentLength());
+        assertThat(result.getMessageProperties().getHeaders()).isEqualTo(expected.getMessageProperties().getHeaders());
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JsonPatchDiffTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void diff_whenEqual_shouldReturnEmptyPatch() throws Exception {
+        // Given
+        final JsonNode source = json("{'a':1,'b':[1,2,{'c':true}]}");
+
+        // When
+        final ArrayNode result = JsonPatchDiff.diff(source, source.deepCopy());
+
+        // Then
+        assertThat(result).isEmpty();
+    }
+
+    @Test
+    public void diff_whenObjectsDiffer_shouldAddRemoveAndReplaceFields() throws Exception {
+        // Given
+        final JsonNode source = json("{'kept':1,'removed':'x','changed':{'nested':1,'same':2}}");
+        final JsonNode target = json("{'kept':1,'changed':{'nested':'one','same':2},'added':[1]}");
+
+        // When
+        final ArrayNode result = JsonPatchDiff.diff(source, target);
+
+        // Then
+        assertThat(result).isEqualTo(json("["
+                + "{'op':'remove','path':'/removed'},"
+                + "{'op':'replace','path':'/changed/nested','value':'one'},"
+                + "{'op':'add','path':'/added','value':[1]}"
+                + "]"));
+    }
+
+    @Test
+    public void diff_whenArraysDiffer_shouldPatchByIndex() throws Exception {
+        // Given
+        final JsonNode source = json("{'grown':[1,2],'shrunk':[1,2,3,4],'changed':[{'v':1},{'v':2}]}");
+        final JsonNode target = json("{'grown':[1,2,3,4],'shrunk':[1],'changed':[{'v':1},{'v':3}]}");
+
+        // When
+        final ArrayNode result = JsonPatchDiff.diff(source, target);
+
+        // Then
+        assertThat(result).isEqualTo(json("["
+                + "{'op':'add','path':'/grown/2','value':3},"
+                + "{'op':'add','path':'/grown/3','value':4},"
+                + "{'op':'remove','path':'/shrunk/3'},"
+                + "{'op':'remove','path':'/shrunk/2'},"
+                + "{'op':'remove','path':'/shrunk/1'},"
+                + "{'op':'replace','path':'/changed/1/v','value':3}"
+                + "]"));
+    }
+
+    @Test
+    public void diff_whenFieldNamesContainSeparators_shouldEscapePointer() throws Exception {
+        // Given
+        final JsonNode source = json("{}");
+        final JsonNode target = json("{'a/b~c':1}");
+
+        // When
+        final ArrayNode result = JsonPatchDiff.diff(source, target);
+
+        // Then
+        assertThat(result).isEqualTo(json("[{'op':'add','path':'/a~1b~0c','value':1}]"));
+    }
+
+    @Test
+    public void diff_whenTypesDiffer_shouldReplaceWholeValue() throws Exception {
+        // Given
+        final JsonNode source = json("{'a':{'b':1}}");
+        final JsonNode target = json("{'a':[1]}");
+
+        // When
+        final ArrayNode result = JsonPatchDiff.diff(source, target);
+
+        // Then
+        assertThat(result).isEqualTo(json("[{'op':'replace','path':'/a','value':[1]}]"));
+    }
+
+    private JsonNode json(String value) throws Exception {
+        return objectMapper.readTree(value.replace('\'', '"'));
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+import io.barracks.eventdispatcher.rabbitmq.Lz4DecompressingPostProcessor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MessageCompressorTest {
+
+    @Mock
+    private CounterService counterService;
+
+    private DelegatingDecompressingPostProcessor decompressingPostProcessor;
+
+    @Before
+    public void setUp() {
+        decompressingPostProcessor = new DelegatingDecompressingPostProcessor();
+        decompressingPostProcessor.addDecompressor(Compression.LZ4.getEncoding(), new Lz4DecompressingPostProcessor(true));
+    }
+
+    @Test
+    public void compressing_whenDisabled_shouldReturnSameFactory() {
+        // Given
+        final MessageCompressor messageCompressor = new MessageCompressor(counterService, Compression.NONE, 0);
+        final Function<String, Message> messageFactory = MessageCompressorTest::getMessage;
+
+        // When
+        final Function<String, Message> result = messageCompressor.compressing(messageFactory);
+
+        // Then
+        assertThat(result).isSameAs(messageFactory);
+        assertThat(messageCompressor.isEnabled()).isFalse();
+    }
+
+    @Test
+    public void compressing_whenBelowThreshold_shouldKeepMessage() {
+        // Given
+        final MessageCompressor messageCompressor = new MessageCompressor(counterService, Compression.GZIP, 1024);
+        final Message message = getMessage("small");
+
+        // When
+        final Message result = messageCompressor.<String>compressing(value -> message).apply("small");
+
+        // Then
+        assertThat(result).isSameAs(message);
+        verifyZeroInteractions(counterService);
+    }
+
+    @Test
+    public void compressing_whenGzip_shouldSetContentEncodingAndRoundTrip() {
+        // Given
+        final MessageCompressor messageCompressor = new MessageCompressor(counterService, Compression.GZIP, 64);
+        final Message message = getMessage(repeat("customClientData", 100));
+        final byte[] body = message.getBody();
+
+        // When
+        final Message result = messageCompressor.<String>compressing(value -> message).apply("value");
+
+        // Then
+        assertThat(result.getBody().length).isLessThan(body.length);
+        assertThat(result.getMessageProperties().getContentEncoding()).isEqualTo("gzip:UTF-8");
+        assertThat(result.getMessageProperties().getContentLength()).isEqualTo(result.getBody().length);
+        assertThat(result.getMessageProperties().getHeaders()).containsEntry(MessageProperties.SPRING_AUTO_DECOMPRESS, true);
+        final Message decompressed = decompressingPostProcessor.postProcessMessage(result);
+        assertThat(decompressed.getBody()).isEqualTo(body);
+        assertThat(decompressed.getMessageProperties().getContentEncoding()).isEqualTo("UTF-8");
+        verify(counterService).increment("message.compression.gzip");
+    }
+
+    @Test
+    public void compressing_whenLz4_shouldRoundTrip() {
+        // Given
+        final MessageCompressor messageCompressor = new MessageCompressor(counterService, Compression.LZ4, 64);
+        final byte[] body = repeat("packages", 200).getBytes(StandardCharsets.UTF_8);
+
+        // When
+        final Message result = messageCompressor.<String>compressing(value -> new Message(body, new MessageProperties())).apply("value");
+
+        // Then
+        assertThat(result.getBody().length).isLessThan(body.length);
+        assertThat(result.getMessageProperties().getContentEncoding()).isEqualTo("lz4");
+        assertThat(decompressingPostProcessor.postProcessMessage(result).getBody()).isEqualTo(body);
+        verify(counterService).increment("message.compression.lz4");
+    }
+
+    @Test
+    public void compressing_whenBodyIsShared_shouldCompressOnce() {
+        // Given
+        final MessageCompressor messageCompressor = new MessageCompressor(counterService, Compression.LZ4, 64);
+        final byte[] body = repeat("deviceEvent", 100).getBytes(StandardCharsets.UTF_8);
+        final Function<String, Message> messageFactory = messageCompressor.compressing(value -> new Message(body, new MessageProperties()));
+
+        // When
+        final Message first = messageFactory.apply("first");
+        final Message second = messageFactory.apply("second");
+
+        // Then
+        assertThat(second.getBody()).isSameAs(first.getBody());
+    }
+
+    @Test
+    public void compressing_whenCompressedIsNotSmaller_shouldKeepMessage() {
+        // Given
+        final MessageCompressor messageCompressor = new MessageCompressor(counterService, Compression.GZIP, 64);
+        final byte[] body = new byte[256];
+        new Random(42).nextBytes(body);
+        final Message message = new Message(body, new MessageProperties());
+
+        // When
+        final Message result = messageCompressor.<String>compressing(value -> message).apply("value");
+
+        // Then
+        assertThat(result).isSameAs(message);
+        verify(counterService).increment("message.compression.skipped");
+    }
+
+    private static Message getMessage(String body) {
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentEncoding("UTF-8");
+        return new Message(body.getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+    private static String repeat(String value, int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MessageSpoolTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private CounterService counterService;
+
+    private MessageSpool messageSpool;
+
+    @Before
+    public void setUp() throws IOException {
+        messageSpool = openSpool(4 * SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        messageSpool.destroy();
+    }
+
+    @Test
+    public void drain_whenMessagesAppended_shouldReplayInOrderWithProperties() {
+        // Given
+        final OutboundMessage first = getOutboundMessage("first");
+        final OutboundMessage second = getOutboundMessage("second");
+        messageSpool.append(first);
+        messageSpool.append(second);
+        final List<OutboundMessage> replayed = new ArrayList<>();
+
+        // When
+        final int drained = messageSpool.drain(replayed::add);
+
+        // Then
+        assertThat(drained).isEqualTo(2);
+        assertThat(replayed).extracting(message -> new String(message.getMessage().getBody())).containsExactly("first", "second");
+        final OutboundMessage replayedFirst = replayed.get(0);
+        assertThat(replayedFirst.getExchange()).isEqualTo(first.getExchange());
+        assertThat(replayedFirst.getRoutingKey()).isEqualTo(first.getRoutingKey());
+        final MessageProperties properties = replayedFirst.getMessage().getMessageProperties();
+        assertThat(properties.getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+        assertThat(properties.getContentEncoding()).isEqualTo("UTF-8");
+        assertThat(properties.getDeliveryMode()).isEqualTo(MessageDeliveryMode.PERSISTENT);
+        assertThat(properties.getHeaders())
+                .containsEntry("__TypeId__", "io.barracks.Type")
+                .containsEntry("x-count", 3)
+                .containsEntry("x-flag", true);
+        assertThat(messageSpool.getDepth()).isZero();
+        verify(counterService, times(2)).increment("spool.replayed");
+    }
+
+    @Test
+    public void drain_whenSenderFails_shouldKeepMessageForNextDrain() {
+        // Given
+        messageSpool.append(getOutboundMessage("first"));
+        messageSpool.append(getOutboundMessage("second"));
+
+        // When
+        final int drained = messageSpool.drain(message -> false);
+
+        // Then
+        assertThat(drained).isZero();
+        assertThat(messageSpool.getDepth()).isEqualTo(2);
+        final List<String> replayed = new ArrayList<>();
+        messageSpool.drain(message -> replayed.add(new String(message.getMessage().getBody())));
+        assertThat(replayed).containsExactly("first", "second");
+    }
+
+    @Test
+    public void open_whenSpoolReopened_shouldRecoverUnreplayedMessages() throws IOException {
+        // Given
+        messageSpool.append(getOutboundMessage("first"));
+        messageSpool.append(getOutboundMessage("second"));
+        messageSpool.append(getOutboundMessage("third"));
+        messageSpool.drain(message -> new String(message.getMessage().getBody()).equals("first"));
+        messageSpool.destroy();
+
+        // When
+        messageSpool = openSpool(4 * SEGMENT_SIZE);
+
+        // Then
+        assertThat(messageSpool.getDepth()).isEqualTo(2);
+        final List<String> replayed = new ArrayList<>();
+        messageSpool.drain(message -> replayed.add(new String(message.getMessage().getBody())));
+        assertThat(replayed).containsExactly("second", "third");
+    }
+
+    @Test
+    public void append_whenSegmentFull_shouldRollOverAndDeleteDrainedSegments() {
+        // Given
+        final int messages = 20;
+        for (int i = 0; i < messages; i++) {
+            assertThat(messageSpool.append(getOutboundMessage(String.valueOf(i)))).isTrue();
+        }
+        assertThat(segmentFiles()).isGreaterThan(1);
+
+        // When
+        final int drained = messageSpool.drain(message -> true);
+
+        // Then
+        assertThat(drained).isEqualTo(messages);
+        assertThat(segmentFiles()).isEqualTo(1);
+    }
+
+    @Test
+    public void append_whenMaxSizeReached_shouldRejectAndCountOverflow() throws IOException {
+        // Given
+        messageSpool.destroy();
+        messageSpool = openSpool(SEGMENT_SIZE);
+        int accepted = 0;
+
+        // When
+        while (messageSpool.append(getOutboundMessage(UUID.randomUUID().toString()))) {
+            accepted++;
+        }
+
+        // Then
+        assertThat(accepted).isGreaterThan(0);
+        assertThat(messageSpool.getDepth()).isEqualTo(accepted);
+        verify(counterService).increment("spool.overflow");
+    }
+
+    @Test
+    public void append_whenDisabled_shouldNotSpool() {
+        // Given
+        final MessageSpool disabled = new MessageSpool(counterService, false, folder.getRoot().getPath(), SEGMENT_SIZE, SEGMENT_SIZE, SpoolFsyncPolicy.NEVER);
+
+        // When
+        final boolean result = disabled.append(getOutboundMessage("first"));
+
+        // Then
+        assertThat(result).isFalse();
+    }
+
+    @Test
+    public void metrics_shouldExposeDepth() {
+        // Given
+        messageSpool.append(getOutboundMessage("first"));
+
+        // When
+        final List<Metric<?>> metrics = new ArrayList<>(messageSpool.metrics());
+
+        // Then
+        assertThat(metrics).extracting(Metric::getName).containsExactly("spool.depth", "spool.bytes", "spool.segments");
+        assertThat(metrics.get(0).getValue().longValue()).isEqualTo(1L);
+        assertThat(metrics.get(1).getValue().longValue()).isGreaterThan(0L);
+    }
+
+    private MessageSpool openSpool(long maxSize) throws IOException {
+        final MessageSpool spool = new MessageSpool(counterService, true, folder.getRoot().getPath(), SEGMENT_SIZE, maxSize, SpoolFsyncPolicy.ALWAYS);
+        spool.open();
+        return spool;
+    }
+
+    private long segmentFiles() {
+        final File[] files = folder.getRoot().listFiles((dir, name) -> name.startsWith("spool-"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static OutboundMessage getOutboundMessage(String body) {
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding("UTF-8");
+        properties.setHeader("__TypeId__", "io.barracks.Type");
+        properties.setHeader("x-count", 3);
+        properties.setHeader("x-flag", true);
+        return new OutboundMessage("exchange", "routing.key", new Message(body.getBytes(), properties));
+    }
+
+}
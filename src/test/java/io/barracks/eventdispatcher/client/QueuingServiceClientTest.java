@@ -24,12 +24,15 @@
 
 package io.barracks.eventdispatcher.client;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import io.barracks.eventdispatcher.client.entity.DeviceChangeEventHook;
 import io.barracks.eventdispatcher.client.entity.DeviceEventHook;
+import io.barracks.eventdispatcher.client.exception.HookDispatchException;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
 import io.barracks.eventdispatcher.model.BigQueryHook;
+import io.barracks.eventdispatcher.model.EventType;
 import io.barracks.eventdispatcher.model.GoogleAnalyticsHook;
 import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
 import io.barracks.eventdispatcher.utils.WebhookUtils;
 import io.barracks.eventdispatcher.utils.DeviceChangeEventHookUtils;
 import io.barracks.eventdispatcher.utils.DeviceEventHookUtils;
@@ -38,12 +41,25 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.boot.actuate.metrics.CounterService;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.doThrow;
-import static org.mockito.Mockito.verify;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
 public class QueuingServiceClientTest {
@@ -59,14 +75,30 @@ public class QueuingServiceClientTest {
     @Mock
     private RabbitTemplate rabbitTemplate;
 
+    @Mock
+    private HookMessageFactory hookMessageFactory;
+
+    @Mock
+    private ConfirmingPublisher confirmingPublisher;
+
+    @Mock
+    private MessageSpool messageSpool;
+
     @Mock
     private CounterService counterService;
 
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
     @Before
     public void setUp() {
         queuingServiceClient = new QueuingServiceClient(
                 rabbitTemplate,
+                confirmingPublisher,
+                hookMessageFactory,
+                new MessageCompressor(counterService, Compression.NONE, 0),
+                messageSpool,
                 counterService,
+                latencyHistograms,
                 webExchangeName,
                 gaExchangeName,
                 bigqueryExchangeName,
@@ -76,54 +108,331 @@ public class QueuingServiceClientTest {
     }
 
     @Test
-    public void postDeviceEventHook_whenServiceSucceeds_serverShouldBeCalled() throws JsonProcessingException {
+    public void postDeviceEventHooks_whenConfirmsDisabled_shouldSendEachMessage() {
+        // Given
+        final DeviceEventHook deviceEventHook = DeviceEventHookUtils.getDeviceEventHook();
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceEvent(deviceEventHook.getDeviceEvent());
+
+        // When
+        queuingServiceClient.postDeviceEventHooks(deviceEventHook.getDeviceEvent(), Stream.of(deviceEventHook.getHook()));
+
+        // Then
+        verify(rabbitTemplate).send(webExchangeName, deviceEventRoutingKey, message);
+        verify(confirmingPublisher, never()).publish(any(Stream.class));
+        verify(counterService).increment("message.process.success");
+    }
+
+    @Test
+    public void postRawDeviceEventHooks_whenConfirmsDisabled_shouldSendOnDeviceEventRoutingKey() {
+        // Given
+        final Hook hook = WebhookUtils.getWebhook();
+        final RawDeviceEvent rawDeviceEvent = RawDeviceEvent.builder().body(new byte[]{'{', '}'}).build();
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doReturn((Function<Hook, Message>) h -> message).when(hookMessageFactory).forRawDeviceEvent(rawDeviceEvent);
+
+        // When
+        queuingServiceClient.postRawDeviceEventHooks(rawDeviceEvent, EventType.PING, Stream.of(hook));
+
+        // Then
+        verify(rabbitTemplate).send(webExchangeName, deviceEventRoutingKey, message);
+        verify(counterService).increment("message.process.success");
+    }
+
+    @Test
+    public void postRawDeviceEventHooks_whenChangeEvent_shouldSendOnDeviceChangeEventRoutingKey() {
+        // Given
+        final Hook hook = WebhookUtils.getWebhook();
+        final RawDeviceEvent rawDeviceEvent = RawDeviceEvent.builder().body(new byte[]{'{', '}'}).build();
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doReturn((Function<Hook, Message>) h -> message).when(hookMessageFactory).forRawDeviceChangeEvent(rawDeviceEvent);
+
+        // When
+        queuingServiceClient.postRawDeviceEventHooks(rawDeviceEvent, EventType.DEVICE_PACKAGE_CHANGE, Stream.of(hook));
+
+        // Then
+        verify(rabbitTemplate).send(webExchangeName, deviceEventChangeRoutingKey, message);
+        verify(hookMessageFactory, never()).forRawDeviceEvent(any(RawDeviceEvent.class));
+    }
+
+    @Test
+    public void postDeviceEventHooks_whenConfirmsDisabled_shouldRecordSerializeAndPublishLatencies() {
         // Given
         final DeviceEventHook deviceEventHook = DeviceEventHookUtils.getDeviceEventHook();
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceEvent(deviceEventHook.getDeviceEvent());
 
         // When
-        queuingServiceClient.postDeviceEventHook(deviceEventHook.getDeviceEvent(), deviceEventHook.getHook());
+        queuingServiceClient.postDeviceEventHooks(deviceEventHook.getDeviceEvent(), Stream.of(deviceEventHook.getHook()));
 
         // Then
-        verify(rabbitTemplate).convertAndSend(webExchangeName, deviceEventRoutingKey, deviceEventHook);
+        assertThat(latencyHistograms.metrics())
+                .filteredOn(metric -> metric.getName().endsWith(".count"))
+                .extracting("name", "value")
+                .containsOnly(
+                        tuple("histogram.dispatch.serialize.ping.web.count", 1L),
+                        tuple("histogram.dispatch.publish.ping.web.count", 1L)
+                );
     }
 
     @Test
-    public void postDeviceEventHook_whenServiceFails_shouldLogError() throws JsonProcessingException {
+    public void postDeviceEventHooks_whenConfirmsDisabledAndServiceFails_shouldCountErrorAndThrow() {
         // Given
         final DeviceEventHook deviceEventHook = DeviceEventHookUtils.getDeviceEventHook();
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceEvent(deviceEventHook.getDeviceEvent());
+        doThrow(AmqpConnectException.class).when(rabbitTemplate).send(webExchangeName, deviceEventRoutingKey, message);
+
+        // When / Then
+        assertThatThrownBy(() -> queuingServiceClient.postDeviceEventHooks(deviceEventHook.getDeviceEvent(), Stream.of(deviceEventHook.getHook())))
+                .isInstanceOf(HookDispatchException.class)
+                .hasFieldOrPropertyWithValue("dropped", 1);
+        verify(counterService).increment("message.process.error");
+    }
+
+    @Test
+    public void postDeviceChangeEventHooks_whenNotConfirmedAndSpoolFull_shouldThrow() {
+        // Given
+        final DeviceChangeEventHook deviceChangeEventHook = DeviceChangeEventHookUtils.getDeviceChangeEventHook();
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn(true).when(confirmingPublisher).isEnabled();
+        doReturn(true).when(messageSpool).isEnabled();
+        doReturn(false).when(messageSpool).append(any(OutboundMessage.class));
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceChangeEvent(deviceChangeEventHook.getDeviceChangeEvent());
+        doAnswer(invocation -> ((Stream<OutboundMessage>) invocation.getArguments()[0]).collect(Collectors.toList()))
+                .when(confirmingPublisher).publish(any(Stream.class));
+
+        // When / Then
+        assertThatThrownBy(() -> queuingServiceClient.postDeviceChangeEventHooks(
+                deviceChangeEventHook.getDeviceChangeEvent(),
+                Stream.of(deviceChangeEventHook.getHook())
+        )).isInstanceOf(HookDispatchException.class);
+    }
 
-        doThrow(Exception.class).when(rabbitTemplate).convertAndSend(webExchangeName, deviceEventRoutingKey, deviceEventHook);
+    @Test
+    public void postDeviceEventHooks_whenConfirmsEnabled_shouldPublishMessages() {
+        // Given
+        final DeviceEventHook deviceEventHook = DeviceEventHookUtils.getDeviceEventHook();
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        final List<OutboundMessage> published = new ArrayList<>();
+        doReturn(true).when(confirmingPublisher).isEnabled();
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceEvent(deviceEventHook.getDeviceEvent());
+        doAnswer(invocation -> {
+            ((Stream<OutboundMessage>) invocation.getArguments()[0]).forEach(published::add);
+            return Collections.emptyList();
+        }).when(confirmingPublisher).publish(any(Stream.class));
 
         // When
-        queuingServiceClient.postDeviceEventHook(deviceEventHook.getDeviceEvent(), deviceEventHook.getHook());
+        queuingServiceClient.postDeviceEventHooks(deviceEventHook.getDeviceEvent(), Stream.of(deviceEventHook.getHook()));
 
         // Then
-        verify(rabbitTemplate).convertAndSend(webExchangeName, deviceEventRoutingKey, deviceEventHook);
+        assertThat(published).containsExactly(new OutboundMessage(webExchangeName, deviceEventRoutingKey, message));
+        verify(rabbitTemplate, never()).send(anyString(), anyString(), any(Message.class));
     }
 
     @Test
-    public void postDeviceChangeEventHook_whenServiceSucceeds_serverShouldBeCalled() throws JsonProcessingException {
+    public void postDeviceChangeEventHooks_whenConfirmsEnabledAndInvalidHook_shouldSkipHook() {
         // Given
         final DeviceChangeEventHook deviceChangeEventHook = DeviceChangeEventHookUtils.getDeviceChangeEventHook();
+        final Hook invalidHook = mock(Hook.class);
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        final List<OutboundMessage> published = new ArrayList<>();
+        doReturn(true).when(confirmingPublisher).isEnabled();
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceChangeEvent(deviceChangeEventHook.getDeviceChangeEvent());
+        doAnswer(invocation -> {
+            ((Stream<OutboundMessage>) invocation.getArguments()[0]).forEach(published::add);
+            return Collections.emptyList();
+        }).when(confirmingPublisher).publish(any(Stream.class));
 
         // When
-        queuingServiceClient.postDeviceChangeEventHook(deviceChangeEventHook.getDeviceChangeEvent(), deviceChangeEventHook.getHook());
+        queuingServiceClient.postDeviceChangeEventHooks(
+                deviceChangeEventHook.getDeviceChangeEvent(),
+                Stream.of(invalidHook, deviceChangeEventHook.getHook())
+        );
 
         // Then
-        verify(rabbitTemplate).convertAndSend(webExchangeName, deviceEventChangeRoutingKey, deviceChangeEventHook);
+        assertThat(published).containsExactly(new OutboundMessage(webExchangeName, deviceEventChangeRoutingKey, message));
+        verify(counterService).increment("message.process.error");
     }
 
     @Test
-    public void postDeviceChangeEventHook_whenServiceFails_shouldLogError() throws JsonProcessingException {
+    public void buildDeviceEventMessages_whenInvalidHook_shouldSkipHook() {
+        // Given
+        final DeviceEventHook deviceEventHook = DeviceEventHookUtils.getDeviceEventHook();
+        final Hook invalidHook = mock(Hook.class);
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceEvent(deviceEventHook.getDeviceEvent());
+
+        // When
+        final List<OutboundMessage> result = queuingServiceClient.buildDeviceEventMessages(
+                deviceEventHook.getDeviceEvent(),
+                Arrays.asList(invalidHook, deviceEventHook.getHook())
+        );
+
+        // Then
+        assertThat(result).containsExactly(new OutboundMessage(webExchangeName, deviceEventRoutingKey, message));
+        verify(counterService).increment("message.process.error");
+        verifyZeroInteractions(rabbitTemplate);
+    }
+
+    @Test
+    public void buildDeviceChangeEventMessages_shouldUseChangeRoutingKey() {
         // Given
         final DeviceChangeEventHook deviceChangeEventHook = DeviceChangeEventHookUtils.getDeviceChangeEventHook();
-        doThrow(Exception.class).when(rabbitTemplate).convertAndSend(webExchangeName, deviceEventChangeRoutingKey, deviceChangeEventHook);
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        doReturn((Function<Hook, Message>) hook -> message).when(hookMessageFactory).forDeviceChangeEvent(deviceChangeEventHook.getDeviceChangeEvent());
+
+        // When
+        final List<OutboundMessage> result = queuingServiceClient.buildDeviceChangeEventMessages(
+                deviceChangeEventHook.getDeviceChangeEvent(),
+                Collections.singletonList(deviceChangeEventHook.getHook())
+        );
+
+        // Then
+        assertThat(result).containsExactly(new OutboundMessage(webExchangeName, deviceEventChangeRoutingKey, message));
+    }
+
+    @Test
+    public void buildDeviceChangeEventMessages_whenCompressionEnabledAndAboveThreshold_shouldCompressBody() {
+        // Given
+        final DeviceChangeEventHook deviceChangeEventHook = DeviceChangeEventHookUtils.getDeviceChangeEventHook();
+        final byte[] body = new byte[1024];
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentEncoding("UTF-8");
+        doReturn((Function<Hook, Message>) hook -> new Message(body, properties)).when(hookMessageFactory).forDeviceChangeEvent(deviceChangeEventHook.getDeviceChangeEvent());
+        queuingServiceClient = new QueuingServiceClient(
+                rabbitTemplate,
+                confirmingPublisher,
+                hookMessageFactory,
+                new MessageCompressor(counterService, Compression.GZIP, 512),
+                messageSpool,
+                counterService,
+                latencyHistograms,
+                webExchangeName,
+                gaExchangeName,
+                bigqueryExchangeName,
+                deviceEventRoutingKey,
+                deviceEventChangeRoutingKey
+        );
+
+        // When
+        final List<OutboundMessage> result = queuingServiceClient.buildDeviceChangeEventMessages(
+                deviceChangeEventHook.getDeviceChangeEvent(),
+                Collections.singletonList(deviceChangeEventHook.getHook())
+        );
+
+        // Then
+        assertThat(result).hasSize(1);
+        final Message message = result.get(0).getMessage();
+        assertThat(message.getBody().length).isLessThan(body.length);
+        assertThat(message.getMessageProperties().getContentEncoding()).isEqualTo("gzip:UTF-8");
+        verify(counterService).increment("message.compression.gzip");
+    }
+
+    @Test
+    public void sendMessages_whenConfirmsDisabledAndServiceFails_shouldReturnFailedCount() {
+        // Given
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        final OutboundMessage failing = new OutboundMessage(webExchangeName, deviceEventRoutingKey, message);
+        final OutboundMessage succeeding = new OutboundMessage(gaExchangeName, deviceEventRoutingKey, message);
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doThrow(AmqpConnectException.class).when(rabbitTemplate).send(webExchangeName, deviceEventRoutingKey, message);
+
+        // When
+        final int result = queuingServiceClient.sendMessages(Arrays.asList(failing, succeeding));
+
+        // Then
+        assertThat(result).isEqualTo(1);
+        verify(rabbitTemplate).send(gaExchangeName, deviceEventRoutingKey, message);
+    }
+
+    @Test
+    public void sendMessages_whenConfirmsEnabled_shouldReturnDroppedCount() {
+        // Given
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        final OutboundMessage outboundMessage = new OutboundMessage(webExchangeName, deviceEventRoutingKey, message);
+        doReturn(true).when(confirmingPublisher).isEnabled();
+        doReturn(Collections.singletonList(outboundMessage)).when(confirmingPublisher).publish(any(Stream.class));
+
+        // When
+        final int result = queuingServiceClient.sendMessages(Collections.singletonList(outboundMessage));
+
+        // Then
+        assertThat(result).isEqualTo(1);
+        verify(rabbitTemplate, never()).send(anyString(), anyString(), any(Message.class));
+    }
+
+    @Test
+    public void sendMessages_whenServiceFailsAndSpoolEnabled_shouldSpoolMessage() {
+        // Given
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        final OutboundMessage outboundMessage = new OutboundMessage(webExchangeName, deviceEventRoutingKey, message);
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doReturn(true).when(messageSpool).isEnabled();
+        doReturn(true).when(messageSpool).append(outboundMessage);
+        doThrow(AmqpConnectException.class).when(rabbitTemplate).send(webExchangeName, deviceEventRoutingKey, message);
+
+        // When
+        final int result = queuingServiceClient.sendMessages(Collections.singletonList(outboundMessage));
+
+        // Then
+        assertThat(result).isZero();
+        verify(messageSpool).append(outboundMessage);
+        verify(counterService).increment("message.process.spooled");
+    }
+
+    @Test
+    public void sendMessages_whenNotConfirmedAndSpoolFull_shouldReturnFailedCount() {
+        // Given
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        final OutboundMessage outboundMessage = new OutboundMessage(webExchangeName, deviceEventRoutingKey, message);
+        doReturn(true).when(confirmingPublisher).isEnabled();
+        doReturn(Collections.singletonList(outboundMessage)).when(confirmingPublisher).publish(any(Stream.class));
+        doReturn(true).when(messageSpool).isEnabled();
+        doReturn(false).when(messageSpool).append(outboundMessage);
+
+        // When
+        final int result = queuingServiceClient.sendMessages(Collections.singletonList(outboundMessage));
+
+        // Then
+        assertThat(result).isEqualTo(1);
+    }
+
+    @Test
+    public void drainSpool_whenSpooledMessages_shouldReplayThroughBroker() {
+        // Given
+        final Message message = new Message(new byte[]{1}, new MessageProperties());
+        final OutboundMessage outboundMessage = new OutboundMessage(webExchangeName, deviceEventRoutingKey, message);
+        doReturn(false).when(confirmingPublisher).isEnabled();
+        doReturn(true).when(messageSpool).isEnabled();
+        doReturn(1L).when(messageSpool).getDepth();
+        doAnswer(invocation -> ((Predicate<OutboundMessage>) invocation.getArguments()[0]).test(outboundMessage) ? 1 : 0)
+                .when(messageSpool).drain(any(Predicate.class));
+
+        // When
+        queuingServiceClient.drainSpool();
+
+        // Then
+        verify(rabbitTemplate).send(webExchangeName, deviceEventRoutingKey, message);
+        verify(messageSpool, never()).append(any(OutboundMessage.class));
+    }
+
+    @Test
+    public void drainSpool_whenSpoolEmpty_shouldNotDrain() {
+        // Given
+        doReturn(true).when(messageSpool).isEnabled();
+        doReturn(0L).when(messageSpool).getDepth();
 
         // When
-        queuingServiceClient.postDeviceChangeEventHook(deviceChangeEventHook.getDeviceChangeEvent(), deviceChangeEventHook.getHook());
+        queuingServiceClient.drainSpool();
 
         // Then
-        verify(rabbitTemplate).convertAndSend(webExchangeName, deviceEventChangeRoutingKey, deviceChangeEventHook);
+        verify(messageSpool, never()).drain(any(Predicate.class));
     }
 
     @Test
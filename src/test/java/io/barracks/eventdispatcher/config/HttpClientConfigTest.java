@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.config;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class HttpClientConfigTest {
+
+    private final HttpClientConfig config = new HttpClientConfig();
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    private HttpServer server;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    private CloseableHttpClient httpClient;
+
+    private RestTemplate restTemplate;
+
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ok", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            final byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(1000);
+                exchange.sendResponseHeaders(204, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        connectionManager = config.httpClientConnectionManager(10, 2, 60000);
+        httpClient = config.httpClient(connectionManager, 30000);
+        final ClientHttpRequestFactory requestFactory = config.pooledClientHttpRequestFactory(httpClient, 1000, 200, 1000);
+        restTemplate = new RestTemplate();
+        config.pooledRestTemplateCustomizer(requestFactory).customize(restTemplate);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        httpClient.close();
+        connectionManager.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void exchange_whenCalledSequentially_shouldReuseConnection() {
+        // Given
+        final int requests = 5;
+
+        // When
+        for (int i = 0; i < requests; i++) {
+            assertThat(restTemplate.getForObject(baseUrl + "/ok", String.class)).isEqualTo("ok");
+        }
+
+        // Then
+        assertThat(clientPorts).hasSize(1);
+        assertThat(connectionManager.getTotalStats().getLeased()).isEqualTo(0);
+        assertThat(connectionManager.getTotalStats().getAvailable()).isEqualTo(1);
+    }
+
+    @Test
+    public void exchange_whenServerIsSlowerThanReadTimeout_shouldFail() {
+        // Given
+        final String url = baseUrl + "/slow";
+
+        // When / Then
+        assertThatExceptionOfType(ResourceAccessException.class)
+                .isThrownBy(() -> restTemplate.getForObject(url, String.class));
+        assertThat(connectionManager.getTotalStats().getLeased()).isEqualTo(0);
+    }
+
+    @Test
+    public void httpClientPoolMetrics_shouldExposePoolStats() {
+        // Given
+        restTemplate.getForObject(baseUrl + "/ok", String.class);
+
+        // When
+        final Collection<Metric<?>> metrics = config.httpClientPoolMetrics(connectionManager).metrics();
+
+        // Then
+        assertThat(metrics).extracting(Metric::getName).containsExactly(
+                "httpclient.pool.leased",
+                "httpclient.pool.available",
+                "httpclient.pool.pending",
+                "httpclient.pool.max"
+        );
+        assertThat(metrics).extracting(metric -> metric.getValue().intValue()).containsExactly(0, 1, 0, 10);
+    }
+}
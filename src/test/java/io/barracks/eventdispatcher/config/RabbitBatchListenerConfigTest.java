@@ -0,0 +1,119 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.config;
+
+import io.barracks.eventdispatcher.rabbitmq.BatchingMessageListener;
+import io.barracks.eventdispatcher.rabbitmq.DeviceEventDecoder;
+import io.barracks.eventdispatcher.rabbitmq.DeviceMessageReceiver;
+import io.barracks.eventdispatcher.rabbitmq.RetryRouter;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RabbitBatchListenerConfigTest {
+
+    @Spy
+    private MockEnvironment environment = new MockEnvironment();
+
+    @Mock
+    private ConnectionFactory connectionFactory;
+
+    @Mock
+    private DelegatingDecompressingPostProcessor decompressingPostProcessor;
+
+    @Mock
+    private MessageConverter messageConverter;
+
+    @Mock
+    private DeviceEventDecoder deviceEventDecoder;
+
+    @Mock
+    private DeviceMessageReceiver receiver;
+
+    @Mock
+    private CounterService counter;
+
+    @Mock
+    private RetryRouter retryRouter;
+
+    @Mock
+    private RabbitListenerEndpointRegistrar registrar;
+
+    @InjectMocks
+    private RabbitBatchListenerConfig config;
+
+    @After
+    public void tearDown() {
+        config.destroy();
+    }
+
+    @Test
+    public void configureRabbitListeners_whenNoBatchEnabled_shouldNotRegisterEndpoints() {
+        // When
+        config.configureRabbitListeners(registrar);
+
+        // Then
+        verifyZeroInteractions(registrar);
+    }
+
+    @Test
+    public void configureRabbitListeners_whenBatchEnabled_shouldRegisterBatchListenerOnQueue() {
+        // Given
+        final ArgumentCaptor<RabbitListenerEndpoint> endpoint = ArgumentCaptor.forClass(RabbitListenerEndpoint.class);
+        final ArgumentCaptor<SimpleRabbitListenerContainerFactory> factory = ArgumentCaptor.forClass(SimpleRabbitListenerContainerFactory.class);
+        environment.setProperty("io.barracks.devicedata.listener.batch.enabled", "true");
+        environment.setProperty("io.barracks.devicedata.queuename", "device.data.queue");
+        environment.setProperty("io.barracks.devicedata.listener.batch.size", "50");
+
+        // When
+        config.configureRabbitListeners(registrar);
+
+        // Then
+        verify(registrar).registerEndpoint(endpoint.capture(), factory.capture());
+        final SimpleMessageListenerContainer container = factory.getValue().createListenerContainer(endpoint.getValue());
+        assertThat(endpoint.getValue().getId()).isEqualTo("devicedataBatchListenerContainer");
+        assertThat(container.getQueueNames()).containsExactly("device.data.queue");
+        assertThat(container.getMessageListener()).isInstanceOf(BatchingMessageListener.class);
+    }
+
+}
@@ -26,7 +26,10 @@ package io.barracks.eventdispatcher.manager;
 
 
 import io.barracks.eventdispatcher.client.AuthorizationServiceClient;
+import io.barracks.eventdispatcher.client.HookInvalidationClient;
 import io.barracks.eventdispatcher.client.QueuingServiceClient;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.metrics.TenantLoadTracker;
 import io.barracks.eventdispatcher.model.*;
 import io.barracks.eventdispatcher.repository.HookRepository;
 import io.barracks.eventdispatcher.repository.exception.HookNotFoundException;
@@ -37,8 +40,8 @@ import io.barracks.eventdispatcher.utils.WebhookUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
-import org.mockito.internal.verification.Times;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -46,9 +49,14 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -65,9 +73,118 @@ public class DeviceEventDispatcherManagerTest {
     @Mock
     private HookRepository hookRepository;
 
+    @Mock
+    private HookRoutingTable hookRoutingTable;
+
+    @Mock
+    private HookInvalidationClient hookInvalidationClient;
+
+    private List<Hook> sentDeviceEventHooks;
+
+    private List<Hook> sentDeviceChangeEventHooks;
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
+    private final TenantLoadTracker tenantLoadTracker = new TenantLoadTracker(16, 10);
+
     @Before
     public void setUp() {
-        deviceEventDispatcherManager = new DeviceEventDispatcherManager(authorizationServiceClient, queuingServiceClient, hookRepository);
+        deviceEventDispatcherManager = new DeviceEventDispatcherManager(authorizationServiceClient, queuingServiceClient, hookRepository, hookRoutingTable, hookInvalidationClient, latencyHistograms, tenantLoadTracker);
+        doReturn(Optional.empty()).when(hookRoutingTable).getHooks(anyString(), any(EventType.class));
+        sentDeviceEventHooks = new ArrayList<>();
+        sentDeviceChangeEventHooks = new ArrayList<>();
+        doAnswer(invocation -> {
+            ((Stream<Hook>) invocation.getArguments()[1]).forEach(sentDeviceEventHooks::add);
+            return null;
+        }).when(queuingServiceClient).postDeviceEventHooks(any(DeviceEvent.class), any(Stream.class));
+        doAnswer(invocation -> {
+            ((Stream<Hook>) invocation.getArguments()[1]).forEach(sentDeviceChangeEventHooks::add);
+            return null;
+        }).when(queuingServiceClient).postDeviceChangeEventHooks(any(DeviceChangeEvent.class), any(Stream.class));
+    }
+
+    @Test
+    public void resolveHooks_whenNotCached_shouldCollectAndCloseRepositoryStream() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Hook hook = WebhookUtils.getWebhook();
+        final AtomicBoolean closed = new AtomicBoolean();
+        doReturn(Stream.of(hook).onClose(() -> closed.set(true))).when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+
+        // When
+        final List<Hook> result = deviceEventDispatcherManager.resolveHooks(userId, EventType.PING);
+
+        // Then
+        assertThat(result).containsExactly(hook);
+        assertThat(closed.get()).isTrue();
+    }
+
+    @Test
+    public void resolveHooks_shouldRecordLookupLatency() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        doReturn(Stream.empty()).when(hookRepository).streamHooksByEventType(userId, EventType.ENROLLMENT.name());
+
+        // When
+        deviceEventDispatcherManager.resolveHooks(userId, EventType.ENROLLMENT);
+
+        // Then
+        assertThat(latencyHistograms.metrics())
+                .extracting("name", "value")
+                .contains(tuple("histogram.dispatch.lookup.enrollment.count", 1L));
+    }
+
+    @Test
+    public void resolveHooks_whenCached_shouldReturnRoutingTableHooks() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<Hook> hooks = Collections.singletonList(WebhookUtils.getWebhook(userId));
+        doReturn(Optional.of(hooks)).when(hookRoutingTable).getHooks(userId, EventType.PING);
+
+        // When
+        final List<Hook> result = deviceEventDispatcherManager.resolveHooks(userId, EventType.PING);
+
+        // Then
+        assertThat(result).isSameAs(hooks);
+        verifyZeroInteractions(hookRepository);
+    }
+
+    @Test
+    public void streamHooks_shouldRecordLookupLatencyOnFirstHook() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Hook hook = WebhookUtils.getWebhook(userId);
+        doReturn(Stream.of(hook, WebhookUtils.getWebhook(userId))).when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+
+        // When
+        final Stream<Hook> hooks = deviceEventDispatcherManager.streamHooks(userId, EventType.PING);
+        final boolean recordedBeforeConsumption = latencyHistograms.metrics().stream()
+                .anyMatch(metric -> metric.getName().equals("histogram.dispatch.lookup.ping.count"));
+        final Optional<Hook> first = hooks.findFirst();
+        hooks.close();
+
+        // Then
+        assertThat(recordedBeforeConsumption).isFalse();
+        assertThat(first).contains(hook);
+        assertThat(latencyHistograms.metrics())
+                .extracting("name", "value")
+                .contains(tuple("histogram.dispatch.lookup.ping.count", 1L));
+    }
+
+    @Test
+    public void postDeviceEvent_shouldRecordTenantLoadWithStreamedHookCount() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        doReturn(Stream.of(WebhookUtils.getWebhook(userId), WebhookUtils.getWebhook(userId), WebhookUtils.getWebhook(userId)))
+                .when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+
+        // When
+        deviceEventDispatcherManager.postDeviceEvent(getDeviceEventOfUser(userId));
+
+        // Then
+        assertThat(tenantLoadTracker.getCurrent().getTenants())
+                .extracting("userId", "events", "messages")
+                .containsExactly(tuple(userId, 1L, 3L));
     }
 
     @Test
@@ -76,20 +193,19 @@ public class DeviceEventDispatcherManagerTest {
         final DeviceRequest deviceRequest = DeviceRequestUtils.getDeviceRequest().toBuilder().build();
         final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent().toBuilder().request(deviceRequest).build();
 
-        doReturn(new PageImpl<Hook>(new ArrayList<>())).when(hookRepository).getHooksByEventType(eq(deviceRequest.getUserId()), any(Pageable.class), eq(EventType.PING.name()));
+        doReturn(Stream.empty()).when(hookRepository).streamHooksByEventType(deviceRequest.getUserId(), EventType.PING.name());
 
         // When
         deviceEventDispatcherManager.postDeviceEvent(deviceEvent);
 
         // When / Then
-        verify(hookRepository).getHooksByEventType(eq(deviceRequest.getUserId()), any(Pageable.class), eq(EventType.PING.name()));
-        verify(queuingServiceClient, never()).postDeviceEventHook(eq(deviceEvent), any(Hook.class));
+        verify(hookRepository).streamHooksByEventType(deviceRequest.getUserId(), EventType.PING.name());
+        assertThat(sentDeviceEventHooks).isEmpty();
     }
 
     @Test
     public void postDeviceEvent_whenHooks_shouldSendToHooks() throws Exception {
         // Given
-        final Pageable pageable = new PageRequest(0, 10);
         final DeviceRequest deviceRequest = DeviceRequestUtils.getDeviceRequest().toBuilder()
                 .build();
 
@@ -99,22 +215,21 @@ public class DeviceEventDispatcherManagerTest {
         final Hook hook1 = WebhookUtils.getWebhook();
         final Hook hook2 = WebhookUtils.getWebhook();
         final List<Hook> hookList = Arrays.asList(hook1, hook2);
-        final Page hookPage = new PageImpl(hookList, pageable, 2L);
 
-        doReturn(hookPage).when(hookRepository).getHooksByEventType(eq(deviceRequest.getUserId()), any(Pageable.class), eq(EventType.PING.name()));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(deviceRequest.getUserId(), EventType.PING.name());
 
         // When
         deviceEventDispatcherManager.postDeviceEvent(deviceEvent);
 
         // When / Then
-        verify(hookRepository).getHooksByEventType(eq(deviceRequest.getUserId()), any(Pageable.class), eq(EventType.PING.name()));
-        verify(queuingServiceClient, new Times(2)).postDeviceEventHook(eq(deviceEvent), any(Hook.class));
+        verify(hookRepository).streamHooksByEventType(deviceRequest.getUserId(), EventType.PING.name());
+        verify(queuingServiceClient).postDeviceEventHooks(eq(deviceEvent), any(Stream.class));
+        assertThat(sentDeviceEventHooks).hasSize(2);
     }
 
     @Test
     public void postDeviceEvent_whenManyHooks_shouldSendToHooks() throws Exception {
         // Given
-        final Pageable pageable = new PageRequest(0, 10);
         final DeviceRequest deviceRequest = DeviceRequestUtils.getDeviceRequest().toBuilder()
                 .build();
 
@@ -123,20 +238,102 @@ public class DeviceEventDispatcherManagerTest {
                 .build();
 
         final List<Hook> hookList = new ArrayList<>();
-        for (int i = 0; i < 15; i++) {
+        for (int i = 0; i < 250; i++) {
             hookList.add(WebhookUtils.getWebhook(deviceRequest.getUserId()));
         }
 
-        final Page hookPage = new PageImpl(hookList, pageable, 15L);
-
-        doReturn(hookPage).when(hookRepository).getHooksByEventType(eq(deviceRequest.getUserId()), any(Pageable.class), eq(EventType.PING.name()));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(deviceRequest.getUserId(), EventType.PING.name());
 
         // When
         deviceEventDispatcherManager.postDeviceEvent(deviceEvent);
 
         // When / Then
-        verify(hookRepository, new Times(2)).getHooksByEventType(eq(deviceRequest.getUserId()), any(Pageable.class), eq(EventType.PING.name()));
-        verify(queuingServiceClient, new Times(30)).postDeviceEventHook(eq(deviceEvent), any(Hook.class));
+        verify(hookRepository).streamHooksByEventType(deviceRequest.getUserId(), EventType.PING.name());
+        verify(queuingServiceClient).postDeviceEventHooks(eq(deviceEvent), any(Stream.class));
+        assertThat(sentDeviceEventHooks).hasSize(250);
+    }
+
+    @Test
+    public void postDeviceEvent_whenHooksStreamed_shouldCloseStream() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final String userId = deviceEvent.getRequest().getUserId();
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        final Stream<Hook> hooks = Stream.<Hook>of(WebhookUtils.getWebhook(userId)).onClose(() -> closed.set(true));
+        doReturn(hooks).when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+
+        // When
+        deviceEventDispatcherManager.postDeviceEvent(deviceEvent);
+
+        // Then
+        assertThat(sentDeviceEventHooks).hasSize(1);
+        assertThat(closed.get()).isTrue();
+    }
+
+    @Test
+    public void postDeviceEvent_whenHooksInRoutingTable_shouldNotQueryRepository() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final String userId = deviceEvent.getRequest().getUserId();
+        final List<Hook> hookList = Arrays.asList(WebhookUtils.getWebhook(userId), WebhookUtils.getWebhook(userId));
+        doReturn(Optional.of(hookList)).when(hookRoutingTable).getHooks(userId, EventType.PING);
+
+        // When
+        deviceEventDispatcherManager.postDeviceEvent(deviceEvent);
+
+        // Then
+        verify(hookRoutingTable).getHooks(userId, EventType.PING);
+        verify(hookRepository, never()).streamHooksByEventType(anyString(), anyString());
+        verify(queuingServiceClient).postDeviceEventHooks(eq(deviceEvent), any(Stream.class));
+        assertThat(sentDeviceEventHooks).containsExactlyElementsOf(hookList);
+    }
+
+    @Test
+    public void postRawDeviceEvent_shouldRouteOnRequestUserId() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final RawDeviceEvent rawDeviceEvent = RawDeviceEvent.builder()
+                .userId(UUID.randomUUID().toString())
+                .requestUserId(userId)
+                .body(new byte[]{'{', '}'})
+                .build();
+        final List<Hook> hookList = Arrays.asList(WebhookUtils.getWebhook(userId), WebhookUtils.getWebhook(userId));
+        final List<Hook> sentHooks = new ArrayList<>();
+        doReturn(Optional.of(hookList)).when(hookRoutingTable).getHooks(userId, EventType.PING);
+        doAnswer(invocation -> {
+            ((Stream<Hook>) invocation.getArguments()[2]).forEach(sentHooks::add);
+            return null;
+        }).when(queuingServiceClient).postRawDeviceEventHooks(eq(rawDeviceEvent), eq(EventType.PING), any(Stream.class));
+
+        // When
+        deviceEventDispatcherManager.postRawDeviceEvent(rawDeviceEvent, EventType.PING);
+
+        // Then
+        verify(queuingServiceClient).postRawDeviceEventHooks(eq(rawDeviceEvent), eq(EventType.PING), any(Stream.class));
+        assertThat(sentHooks).containsExactlyElementsOf(hookList);
+        assertThat(tenantLoadTracker.getCurrent().getTenants())
+                .extracting("userId", "events", "messages")
+                .containsExactly(tuple(userId, 1L, 2L));
+    }
+
+    @Test
+    public void postRawDeviceEvents_whenSameUser_shouldResolveHooksOnce() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final RawDeviceEvent rawDeviceEvent1 = RawDeviceEvent.builder().requestUserId(userId).body(new byte[]{1}).build();
+        final RawDeviceEvent rawDeviceEvent2 = RawDeviceEvent.builder().requestUserId(userId).body(new byte[]{2}).build();
+        final RawDeviceEvent anonymous = RawDeviceEvent.builder().body(new byte[]{3}).build();
+        final List<Hook> hookList = Collections.singletonList(WebhookUtils.getWebhook(userId));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+
+        // When
+        deviceEventDispatcherManager.postRawDeviceEvents(Arrays.asList(rawDeviceEvent1, rawDeviceEvent2, anonymous), EventType.PING);
+
+        // Then
+        verify(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+        verify(queuingServiceClient).postRawDeviceEventHooks(eq(rawDeviceEvent1), eq(EventType.PING), any(Stream.class));
+        verify(queuingServiceClient).postRawDeviceEventHooks(eq(rawDeviceEvent2), eq(EventType.PING), any(Stream.class));
+        verify(queuingServiceClient, never()).postRawDeviceEventHooks(eq(anonymous), any(EventType.class), any(Stream.class));
     }
 
     @Test
@@ -145,7 +342,6 @@ public class DeviceEventDispatcherManagerTest {
         final String userId = UUID.randomUUID().toString();
         final String unitId = UUID.randomUUID().toString();
 
-        final Pageable pageable = new PageRequest(0, 10);
         final DeviceRequest deviceRequest = DeviceRequestUtils.getDeviceRequest().toBuilder()
                 .build();
 
@@ -157,16 +353,16 @@ public class DeviceEventDispatcherManagerTest {
         final Hook hook2 = WebhookUtils.getWebhook(EventType.ENROLLMENT);
         final Hook hook3 = WebhookUtils.getWebhook(EventType.ENROLLMENT);
         final List<Hook> hookList = Arrays.asList(hook2, hook3);
-        final Page hookPage = new PageImpl(hookList, pageable, 2L);
 
-        doReturn(hookPage).when(hookRepository).getHooksByEventType(eq(userId), any(Pageable.class), eq(EventType.ENROLLMENT.name()));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(userId, EventType.ENROLLMENT.name());
 
         // When
         deviceEventDispatcherManager.postDeviceEnrollment(deviceEvent);
 
         // When / Then
-        verify(hookRepository).getHooksByEventType(eq(userId), any(Pageable.class), eq(EventType.ENROLLMENT.name()));
-        verify(queuingServiceClient, new Times(2)).postDeviceEventHook(eq(deviceEvent), any(Hook.class));
+        verify(hookRepository).streamHooksByEventType(userId, EventType.ENROLLMENT.name());
+        verify(queuingServiceClient).postDeviceEventHooks(eq(deviceEvent), any(Stream.class));
+        assertThat(sentDeviceEventHooks).hasSize(2);
     }
 
     @Test
@@ -175,8 +371,6 @@ public class DeviceEventDispatcherManagerTest {
         final String userId = UUID.randomUUID().toString();
         final String unitId = UUID.randomUUID().toString();
 
-        final Pageable pageable = new PageRequest(0, 10);
-
         final DeviceRequest oldRequest = DeviceRequestUtils.getDeviceRequest();
         final DeviceRequest deviceRequest = DeviceRequestUtils.getDeviceRequest();
 
@@ -195,16 +389,16 @@ public class DeviceEventDispatcherManagerTest {
         final Hook hook2 = WebhookUtils.getWebhook(EventType.DEVICE_DATA_CHANGE);
         final Hook hook3 = WebhookUtils.getWebhook(EventType.DEVICE_DATA_CHANGE);
         final List<Hook> hookList = Arrays.asList(hook2, hook3);
-        final Page hookPage = new PageImpl(hookList, pageable, 2L);
 
-        doReturn(hookPage).when(hookRepository).getHooksByEventType(eq(userId), any(Pageable.class), eq(EventType.DEVICE_DATA_CHANGE.name()));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(userId, EventType.DEVICE_DATA_CHANGE.name());
 
         // When
         deviceEventDispatcherManager.postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_DATA_CHANGE);
 
         // When / Then
-        verify(hookRepository).getHooksByEventType(eq(userId), any(Pageable.class), eq(EventType.DEVICE_DATA_CHANGE.name()));
-        verify(queuingServiceClient, new Times(2)).postDeviceChangeEventHook(eq(deviceChangeEvent), any(Hook.class));
+        verify(hookRepository).streamHooksByEventType(userId, EventType.DEVICE_DATA_CHANGE.name());
+        verify(queuingServiceClient).postDeviceChangeEventHooks(eq(deviceChangeEvent), any(Stream.class));
+        assertThat(sentDeviceChangeEventHooks).hasSize(2);
     }
 
     @Test
@@ -213,8 +407,6 @@ public class DeviceEventDispatcherManagerTest {
         final String userId = UUID.randomUUID().toString();
         final String unitId = UUID.randomUUID().toString();
 
-        final Pageable pageable = new PageRequest(0, 10);
-
         final DeviceRequest oldRequest = DeviceRequestUtils.getDeviceRequest();
         final DeviceRequest deviceRequest = DeviceRequestUtils.getDeviceRequest();
 
@@ -233,16 +425,16 @@ public class DeviceEventDispatcherManagerTest {
         final Hook hook2 = WebhookUtils.getWebhook(EventType.DEVICE_PACKAGE_CHANGE);
         final Hook hook3 = WebhookUtils.getWebhook(EventType.DEVICE_PACKAGE_CHANGE);
         final List<Hook> hookList = Arrays.asList(hook2, hook3);
-        final Page hookPage = new PageImpl(hookList, pageable, 2L);
 
-        doReturn(hookPage).when(hookRepository).getHooksByEventType(eq(userId), any(Pageable.class), eq(EventType.DEVICE_PACKAGE_CHANGE.name()));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(userId, EventType.DEVICE_PACKAGE_CHANGE.name());
 
         // When
         deviceEventDispatcherManager.postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_PACKAGE_CHANGE);
 
         // When / Then
-        verify(hookRepository).getHooksByEventType(eq(userId), any(Pageable.class), eq(EventType.DEVICE_PACKAGE_CHANGE.name()));
-        verify(queuingServiceClient, new Times(2)).postDeviceChangeEventHook(eq(deviceChangeEvent), any(Hook.class));
+        verify(hookRepository).streamHooksByEventType(userId, EventType.DEVICE_PACKAGE_CHANGE.name());
+        verify(queuingServiceClient).postDeviceChangeEventHooks(eq(deviceChangeEvent), any(Stream.class));
+        assertThat(sentDeviceChangeEventHooks).hasSize(2);
     }
 
     @Test
@@ -251,8 +443,6 @@ public class DeviceEventDispatcherManagerTest {
         final String userId = UUID.randomUUID().toString();
         final String unitId = UUID.randomUUID().toString();
 
-        final Pageable pageable = new PageRequest(0, 10);
-
         final DeviceRequest oldRequest = DeviceRequestUtils.getDeviceRequest();
         final DeviceRequest deviceRequest = DeviceRequestUtils.getDeviceRequest();
 
@@ -269,20 +459,178 @@ public class DeviceEventDispatcherManagerTest {
                 .build();
 
         final List<Hook> hookList = new ArrayList<>();
-        for (int i = 0; i < 15; i++) {
+        for (int i = 0; i < 250; i++) {
             hookList.add(WebhookUtils.getWebhook(deviceRequest.getUserId()));
         }
 
-        final Page hookPage = new PageImpl(hookList, pageable, 15L);
-
-        doReturn(hookPage).when(hookRepository).getHooksByEventType(eq(deviceEvent.getRequest().getUserId()), any(Pageable.class), eq(EventType.DEVICE_PACKAGE_CHANGE.name()));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(deviceEvent.getRequest().getUserId(), EventType.DEVICE_PACKAGE_CHANGE.name());
 
         // When
         deviceEventDispatcherManager.postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_PACKAGE_CHANGE);
 
         // When / Then
-        verify(hookRepository, new Times(2)).getHooksByEventType(eq(deviceEvent.getRequest().getUserId()), any(Pageable.class), eq(EventType.DEVICE_PACKAGE_CHANGE.name()));
-        verify(queuingServiceClient, new Times(30)).postDeviceChangeEventHook(eq(deviceChangeEvent), any(Hook.class));
+        verify(hookRepository).streamHooksByEventType(deviceEvent.getRequest().getUserId(), EventType.DEVICE_PACKAGE_CHANGE.name());
+        verify(queuingServiceClient).postDeviceChangeEventHooks(eq(deviceChangeEvent), any(Stream.class));
+        assertThat(sentDeviceChangeEventHooks).hasSize(250);
+    }
+
+    @Test
+    public void postDeviceChangeEvent_whenHooksInRoutingTable_shouldNotQueryRepository() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final DeviceEvent deviceEvent = deviceChangeEvent.getDeviceEvent();
+        final String userId = deviceEvent.getUserId();
+        final Hook hook = WebhookUtils.getWebhook(EventType.DEVICE_DATA_CHANGE);
+        doReturn(Optional.of(Collections.singletonList(hook))).when(hookRoutingTable).getHooks(userId, EventType.DEVICE_DATA_CHANGE);
+
+        // When
+        deviceEventDispatcherManager.postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_DATA_CHANGE);
+
+        // Then
+        verify(hookRoutingTable).getHooks(userId, EventType.DEVICE_DATA_CHANGE);
+        verify(hookRepository, never()).streamHooksByEventType(anyString(), anyString());
+        assertThat(sentDeviceChangeEventHooks).containsExactly(hook);
+    }
+
+    @Test
+    public void postDeviceEvents_whenSameUser_shouldResolveHooksOnce() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String otherUserId = UUID.randomUUID().toString();
+        final DeviceEvent deviceEvent1 = getDeviceEventOfUser(userId);
+        final DeviceEvent deviceEvent2 = getDeviceEventOfUser(userId);
+        final DeviceEvent deviceEvent3 = getDeviceEventOfUser(otherUserId);
+        final List<Hook> hookList = Arrays.asList(WebhookUtils.getWebhook(userId), WebhookUtils.getWebhook(userId));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+        doReturn(Stream.empty()).when(hookRepository).streamHooksByEventType(otherUserId, EventType.PING.name());
+
+        // When
+        deviceEventDispatcherManager.postDeviceEvents(Arrays.asList(deviceEvent1, deviceEvent2, deviceEvent3));
+
+        // Then
+        verify(hookRoutingTable).getHooks(userId, EventType.PING);
+        verify(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+        verify(hookRepository).streamHooksByEventType(otherUserId, EventType.PING.name());
+        verify(queuingServiceClient).postDeviceEventHooks(eq(deviceEvent1), any(Stream.class));
+        verify(queuingServiceClient).postDeviceEventHooks(eq(deviceEvent2), any(Stream.class));
+        verify(queuingServiceClient, never()).postDeviceEventHooks(eq(deviceEvent3), any(Stream.class));
+        assertThat(sentDeviceEventHooks).containsExactlyElementsOf(
+                Stream.concat(hookList.stream(), hookList.stream()).collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    public void postDeviceEvents_shouldRecordTenantLoad() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<Hook> hookList = Arrays.asList(WebhookUtils.getWebhook(userId), WebhookUtils.getWebhook(userId));
+        doReturn(hookList.stream()).when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+
+        // When
+        deviceEventDispatcherManager.postDeviceEvents(Arrays.asList(getDeviceEventOfUser(userId), getDeviceEventOfUser(userId)));
+
+        // Then
+        assertThat(tenantLoadTracker.getCurrent().getTenants())
+                .extracting("userId", "events", "messages")
+                .containsExactly(tuple(userId, 2L, 4L));
+    }
+
+    @Test
+    public void postDeviceEvents_whenLookupFailsForOneUser_shouldSendOtherUsersAndRethrow() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String otherUserId = UUID.randomUUID().toString();
+        final DeviceEvent deviceEvent1 = getDeviceEventOfUser(userId);
+        final DeviceEvent deviceEvent2 = getDeviceEventOfUser(otherUserId);
+        final Hook hook = WebhookUtils.getWebhook(otherUserId);
+        final RuntimeException exception = new RuntimeException();
+        doThrow(exception).when(hookRepository).streamHooksByEventType(userId, EventType.PING.name());
+        doReturn(Stream.of(hook)).when(hookRepository).streamHooksByEventType(otherUserId, EventType.PING.name());
+
+        // When / Then
+        assertThatThrownBy(() -> deviceEventDispatcherManager.postDeviceEvents(Arrays.asList(deviceEvent1, deviceEvent2)))
+                .isSameAs(exception);
+        verify(queuingServiceClient).postDeviceEventHooks(eq(deviceEvent2), any(Stream.class));
+        assertThat(sentDeviceEventHooks).containsExactly(hook);
+    }
+
+    @Test
+    public void postDeviceEnrollments_shouldCopyIdentityToRequestAndGroupByUser() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent().toBuilder()
+                .userId(userId)
+                .request(DeviceRequestUtils.getDeviceRequest().toBuilder().userId(null).build())
+                .build();
+        final Hook hook = WebhookUtils.getWebhook(EventType.ENROLLMENT);
+        doReturn(Stream.of(hook)).when(hookRepository).streamHooksByEventType(userId, EventType.ENROLLMENT.name());
+
+        // When
+        deviceEventDispatcherManager.postDeviceEnrollments(Collections.singletonList(deviceEvent));
+
+        // Then
+        verify(queuingServiceClient).postDeviceEventHooks(argThat(new ArgumentMatcher<DeviceEvent>() {
+            @Override
+            public boolean matches(Object argument) {
+                final DeviceEvent event = (DeviceEvent) argument;
+                return userId.equals(event.getRequest().getUserId())
+                        && deviceEvent.getUnitId().equals(event.getRequest().getUnitId());
+            }
+        }), any(Stream.class));
+        assertThat(sentDeviceEventHooks).containsExactly(hook);
+    }
+
+    @Test
+    public void withRequestIdentity_whenIdentityAlreadyInRequest_shouldReturnSameEvent() {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = getDeviceChangeEventOfUser(UUID.randomUUID().toString());
+
+        // When
+        final DeviceEvent deviceEvent = deviceEventDispatcherManager.withRequestIdentity(deviceChangeEvent.getDeviceEvent());
+        final DeviceChangeEvent result = deviceEventDispatcherManager.withRequestIdentity(deviceChangeEvent);
+
+        // Then
+        assertThat(deviceEvent).isSameAs(deviceChangeEvent.getDeviceEvent());
+        assertThat(result).isSameAs(deviceChangeEvent);
+    }
+
+    @Test
+    public void withRequestIdentity_whenIdentityDiffers_shouldCopyItToRequest() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent().toBuilder()
+                .deviceEvent(getDeviceEventOfUser(UUID.randomUUID().toString()).toBuilder().userId(userId).build())
+                .build();
+
+        // When
+        final DeviceChangeEvent result = deviceEventDispatcherManager.withRequestIdentity(deviceChangeEvent);
+
+        // Then
+        assertThat(result).isNotSameAs(deviceChangeEvent);
+        assertThat(result.getDeviceEvent().getRequest().getUserId()).isEqualTo(userId);
+        assertThat(result.getDeviceEvent().getRequest().getUnitId()).isEqualTo(deviceChangeEvent.getDeviceEvent().getUnitId());
+    }
+
+    @Test
+    public void postDeviceChangeEvents_whenSameUser_shouldResolveHooksOnce() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final DeviceChangeEvent deviceChangeEvent1 = getDeviceChangeEventOfUser(userId);
+        final DeviceChangeEvent deviceChangeEvent2 = getDeviceChangeEventOfUser(userId);
+        final Hook hook = WebhookUtils.getWebhook(EventType.DEVICE_DATA_CHANGE);
+        doReturn(Stream.of(hook)).when(hookRepository).streamHooksByEventType(userId, EventType.DEVICE_DATA_CHANGE.name());
+
+        // When
+        deviceEventDispatcherManager.postDeviceChangeEvents(
+                Arrays.asList(deviceChangeEvent1, deviceChangeEvent2),
+                EventType.DEVICE_DATA_CHANGE
+        );
+
+        // Then
+        verify(hookRepository).streamHooksByEventType(userId, EventType.DEVICE_DATA_CHANGE.name());
+        verify(queuingServiceClient).postDeviceChangeEventHooks(eq(deviceChangeEvent1), any(Stream.class));
+        verify(queuingServiceClient).postDeviceChangeEventHooks(eq(deviceChangeEvent2), any(Stream.class));
+        assertThat(sentDeviceChangeEventHooks).containsExactly(hook, hook);
     }
 
     @Test
@@ -296,6 +644,8 @@ public class DeviceEventDispatcherManagerTest {
 
         //Then
         verify(hookRepository).saveHook(hook);
+        verify(hookRoutingTable).put(hook);
+        verify(hookInvalidationClient).postHookInvalidation(hook.getUserId());
         assertThat(result).isEqualTo(hook);
 
     }
@@ -332,11 +682,11 @@ public class DeviceEventDispatcherManagerTest {
     @Test
     public void getHooks_whenAllIsFine_shouldReturnHooks() {
         //Given
-        final Pageable pageable = new PageRequest(0, 10);
         final String userId = UUID.randomUUID().toString();
         final Hook hook1 = WebhookUtils.getWebhook(userId);
         final Hook hook2 = WebhookUtils.getWebhook(userId);
         final List<Hook> expectedList = Arrays.asList(hook1, hook2);
+        final Pageable pageable = new PageRequest(0, 10);
         final Page<Hook> expected = new PageImpl(expectedList, pageable, 2L);
         doReturn(expected).when(hookRepository).getHooks(userId, pageable);
 
@@ -360,6 +710,8 @@ public class DeviceEventDispatcherManagerTest {
 
         //Then
         verify(hookRepository).deleteHook(userId, name);
+        verify(hookRoutingTable).remove(userId, name);
+        verify(hookInvalidationClient).postHookInvalidation(userId);
     }
 
     @Test
@@ -379,7 +731,23 @@ public class DeviceEventDispatcherManagerTest {
         //Then
         verify(hookRepository).getHookByUserIdAndName(userId, name);
         verify(hookRepository).updateHook(eq(name), refEq(expected));
+        verify(hookRoutingTable).put(expected);
+        verify(hookInvalidationClient).postHookInvalidation(userId);
         assertThat(result).isEqualTo(expected);
     }
 
+    private static DeviceEvent getDeviceEventOfUser(String userId) {
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        return deviceEvent.toBuilder()
+                .userId(userId)
+                .request(deviceEvent.getRequest().toBuilder().userId(userId).unitId(deviceEvent.getUnitId()).build())
+                .build();
+    }
+
+    private static DeviceChangeEvent getDeviceChangeEventOfUser(String userId) {
+        return DeviceChangeEventUtils.getDeviceChangeEvent().toBuilder()
+                .deviceEvent(getDeviceEventOfUser(userId))
+                .build();
+    }
+
 }
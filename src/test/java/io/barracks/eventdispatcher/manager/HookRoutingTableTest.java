@@ -0,0 +1,258 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.manager;
+
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.Webhook;
+import io.barracks.eventdispatcher.repository.HookRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.barracks.eventdispatcher.utils.WebhookUtils.getWebhook;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HookRoutingTableTest {
+
+    @Mock
+    private HookRepository hookRepository;
+
+    @Mock
+    private CounterService counterService;
+
+    @Mock
+    private GaugeService gaugeService;
+
+    private HookRoutingTable hookRoutingTable;
+
+    @Before
+    public void setUp() {
+        hookRoutingTable = new HookRoutingTable(hookRepository, counterService, gaugeService, true);
+    }
+
+    @Test
+    public void getHooks_whenNotLoaded_shouldReturnEmptyAndCountMiss() {
+        // When
+        final Optional<List<Hook>> result = hookRoutingTable.getHooks(UUID.randomUUID().toString(), EventType.PING);
+
+        // Then
+        assertThat(result).isEmpty();
+        verify(counterService).increment("hooks.cache.miss");
+        verifyZeroInteractions(hookRepository);
+    }
+
+    @Test
+    public void getHooks_whenDisabled_shouldReturnEmpty() {
+        // Given
+        hookRoutingTable = new HookRoutingTable(hookRepository, counterService, gaugeService, false);
+        hookRoutingTable.onApplicationReady();
+
+        // When
+        final Optional<List<Hook>> result = hookRoutingTable.getHooks(UUID.randomUUID().toString(), EventType.PING);
+
+        // Then
+        assertThat(result).isEmpty();
+        verifyZeroInteractions(hookRepository, counterService);
+    }
+
+    @Test
+    public void getHooks_whenLoaded_shouldReturnHooksOfUserAndEventType() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Webhook ping1 = getWebhook(userId);
+        final Webhook ping2 = getWebhook(userId);
+        final Webhook enrollment = getWebhook(userId).toBuilder().eventType(EventType.ENROLLMENT).build();
+        final Webhook otherUser = getWebhook();
+        doReturn(Arrays.asList(ping1, ping2, enrollment, otherUser)).when(hookRepository).getAllHooks();
+        hookRoutingTable.onApplicationReady();
+
+        // When
+        final Optional<List<Hook>> result = hookRoutingTable.getHooks(userId, EventType.PING);
+
+        // Then
+        assertThat(result).isPresent();
+        assertThat(result.get()).containsExactlyInAnyOrder(ping1, ping2);
+        assertThat(hookRoutingTable.getHooks(userId, EventType.ENROLLMENT).get()).containsExactly(enrollment);
+        assertThat(hookRoutingTable.getHooks(userId, EventType.DEVICE_DATA_CHANGE).get()).isEmpty();
+        assertThat(hookRoutingTable.size()).isEqualTo(4);
+        verify(counterService, times(3)).increment("hooks.cache.hit");
+        verify(gaugeService).submit("hooks.cache.size", 4);
+    }
+
+    @Test
+    public void getHooks_whenLoadedAndUnknownUser_shouldReturnEmptyList() {
+        // Given
+        doReturn(Arrays.asList(getWebhook(), getWebhook())).when(hookRepository).getAllHooks();
+        hookRoutingTable.reload();
+
+        // When
+        final Optional<List<Hook>> result = hookRoutingTable.getHooks(UUID.randomUUID().toString(), EventType.PING);
+
+        // Then
+        assertThat(result).isPresent();
+        assertThat(result.get()).isEmpty();
+    }
+
+    @Test
+    public void put_whenHookUpdated_shouldReplacePreviousVersion() {
+        // Given
+        final Webhook hook = getWebhook();
+        doReturn(Arrays.asList(hook)).when(hookRepository).getAllHooks();
+        hookRoutingTable.reload();
+        final Webhook updated = hook.toBuilder().eventType(EventType.ENROLLMENT).build();
+
+        // When
+        hookRoutingTable.put(updated);
+
+        // Then
+        assertThat(hookRoutingTable.getHooks(hook.getUserId(), EventType.PING).get()).isEmpty();
+        assertThat(hookRoutingTable.getHooks(hook.getUserId(), EventType.ENROLLMENT).get()).containsExactly(updated);
+        assertThat(hookRoutingTable.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_whenHookOwnerChanged_shouldMoveHookToNewOwner() {
+        // Given
+        final Webhook hook = getWebhook();
+        doReturn(Arrays.asList(hook)).when(hookRepository).getAllHooks();
+        hookRoutingTable.reload();
+        final Webhook moved = hook.toBuilder().userId(UUID.randomUUID().toString()).build();
+
+        // When
+        hookRoutingTable.put(moved);
+
+        // Then
+        assertThat(hookRoutingTable.getHooks(hook.getUserId(), EventType.PING).get()).isEmpty();
+        assertThat(hookRoutingTable.getHooks(moved.getUserId(), EventType.PING).get()).containsExactly(moved);
+        assertThat(hookRoutingTable.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_whenHookUpdatedConcurrently_shouldAlwaysExposeOldOrNewVersion() throws Exception {
+        // Given
+        final Webhook hook = getWebhook();
+        doReturn(Arrays.asList(hook)).when(hookRepository).getAllHooks();
+        hookRoutingTable.reload();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger misses = new AtomicInteger();
+        final Thread reader = new Thread(() -> {
+            while (running.get()) {
+                if (hookRoutingTable.getHooks(hook.getUserId(), EventType.PING).get().size() != 1) {
+                    misses.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+
+        // When
+        for (int i = 0; i < 10000; i++) {
+            hookRoutingTable.put(hook.toBuilder().url("https://" + i + ".barracks.io").build());
+        }
+        running.set(false);
+        reader.join(5000);
+
+        // Then
+        assertThat(misses.get()).isZero();
+    }
+
+    @Test
+    public void remove_whenHookExists_shouldRemoveHook() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Webhook hook1 = getWebhook(userId);
+        final Webhook hook2 = getWebhook(userId);
+        doReturn(Arrays.asList(hook1, hook2)).when(hookRepository).getAllHooks();
+        hookRoutingTable.reload();
+
+        // When
+        hookRoutingTable.remove(userId, hook1.getName());
+
+        // Then
+        assertThat(hookRoutingTable.getHooks(userId, EventType.PING).get()).containsExactly(hook2);
+        assertThat(hookRoutingTable.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void reloadUser_whenLoaded_shouldReplaceHooksOfUser() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Webhook oldHook = getWebhook(userId);
+        final Webhook otherUserHook = getWebhook();
+        final Webhook newHook = getWebhook(userId).toBuilder().eventType(EventType.ENROLLMENT).build();
+        doReturn(Arrays.asList(oldHook, otherUserHook)).when(hookRepository).getAllHooks();
+        doReturn(Arrays.asList(newHook)).when(hookRepository).getAllHooks(userId);
+        hookRoutingTable.reload();
+
+        // When
+        hookRoutingTable.reload(userId);
+
+        // Then
+        verify(hookRepository).getAllHooks(userId);
+        assertThat(hookRoutingTable.getHooks(userId, EventType.PING).get()).isEmpty();
+        assertThat(hookRoutingTable.getHooks(userId, EventType.ENROLLMENT).get()).containsExactly(newHook);
+        assertThat(hookRoutingTable.getHooks(otherUserHook.getUserId(), EventType.PING).get()).containsExactly(otherUserHook);
+        assertThat(hookRoutingTable.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void reloadUser_whenNotLoaded_shouldNotQueryRepository() {
+        // When
+        hookRoutingTable.reload(UUID.randomUUID().toString());
+
+        // Then
+        verifyZeroInteractions(hookRepository);
+    }
+
+    @Test
+    public void scheduledReload_whenRepositoryFails_shouldKeepPreviousVersion() {
+        // Given
+        final Webhook hook = getWebhook();
+        doReturn(Arrays.asList(hook)).when(hookRepository).getAllHooks();
+        hookRoutingTable.reload();
+        doThrow(RuntimeException.class).when(hookRepository).getAllHooks();
+
+        // When
+        hookRoutingTable.scheduledReload();
+
+        // Then
+        assertThat(hookRoutingTable.getHooks(hook.getUserId(), EventType.PING).get()).containsExactly(hook);
+    }
+
+}
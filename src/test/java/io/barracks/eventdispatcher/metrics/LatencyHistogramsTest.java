@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.utils.GoogleAnalyticsHookUtils;
+import io.barracks.eventdispatcher.utils.WebhookUtils;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyHistogramsTest {
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
+    @Test
+    public void name_whenHookGiven_shouldTagEventTypeAndHookType() {
+        // When
+        final String webhook = LatencyHistograms.name(LatencyHistograms.SERIALIZE, EventType.PING, WebhookUtils.getWebhook());
+        final String googleAnalytics = LatencyHistograms.name(LatencyHistograms.PUBLISH, EventType.DEVICE_DATA_CHANGE, GoogleAnalyticsHookUtils.getGoogleAnalyticsHook());
+
+        // Then
+        assertThat(webhook).isEqualTo("serialize.ping.web");
+        assertThat(googleAnalytics).isEqualTo("publish.device_data_change.google_analytics");
+    }
+
+    @Test
+    public void name_whenCalledTwice_shouldReusePrecomputedName() {
+        // When
+        final String first = LatencyHistograms.name(LatencyHistograms.PUBLISH, EventType.ENROLLMENT, WebhookUtils.getWebhook());
+        final String second = LatencyHistograms.name(LatencyHistograms.PUBLISH, EventType.ENROLLMENT, WebhookUtils.getWebhook());
+
+        // Then
+        assertThat(first).isEqualTo("publish.enrollment.web").isSameAs(second);
+        assertThat(LatencyHistograms.name(LatencyHistograms.HANDLE, EventType.PING)).isSameAs(LatencyHistograms.name(LatencyHistograms.HANDLE, EventType.PING));
+    }
+
+    @Test
+    public void name_whenUnknownStageOrEventType_shouldFormatName() {
+        // When
+        final String stage = LatencyHistograms.name("custom", EventType.PING, WebhookUtils.getWebhook());
+        final String eventType = LatencyHistograms.name(LatencyHistograms.LOOKUP, null);
+
+        // Then
+        assertThat(stage).isEqualTo("custom.ping.web");
+        assertThat(eventType).isEqualTo("lookup.unknown");
+    }
+
+    @Test
+    public void metrics_whenLatenciesRecorded_shouldExportPercentilesInMillis() {
+        // Given
+        for (int i = 1; i <= 100; i++) {
+            latencyHistograms.record("lookup.ping", TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        // When
+        final Map<String, Number> metrics = getMetrics();
+
+        // Then
+        assertThat(metrics.get("histogram.dispatch.lookup.ping.count").longValue()).isEqualTo(100);
+        assertThat(metrics.get("histogram.dispatch.lookup.ping.p50").doubleValue()).isCloseTo(50, within(0.1));
+        assertThat(metrics.get("histogram.dispatch.lookup.ping.p99").doubleValue()).isCloseTo(99, within(0.1));
+        assertThat(metrics.get("histogram.dispatch.lookup.ping.max").doubleValue()).isCloseTo(100, within(0.1));
+        assertThat(metrics.get("histogram.dispatch.lookup.ping.mean").doubleValue()).isCloseTo(50.5, within(0.1));
+    }
+
+    @Test
+    public void rotate_whenCalledTwice_shouldForgetOldestWindow() {
+        // Given
+        latencyHistograms.record("handle.ping", 1000);
+
+        // When
+        latencyHistograms.rotate();
+        final Map<String, Number> afterFirstRotation = getMetrics();
+        latencyHistograms.rotate();
+        final Map<String, Number> afterSecondRotation = getMetrics();
+
+        // Then
+        assertThat(afterFirstRotation.get("histogram.dispatch.handle.ping.count").longValue()).isEqualTo(1);
+        assertThat(afterSecondRotation.get("histogram.dispatch.handle.ping.count").longValue()).isZero();
+    }
+
+    @Test
+    public void time_whenSupplierFails_shouldStillRecordLatency() {
+        // When
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() ->
+                latencyHistograms.time("serialize.ping.web", () -> {
+                    throw new IllegalStateException();
+                })
+        );
+
+        // Then
+        assertThat(getMetrics().get("histogram.dispatch.serialize.ping.web.count").longValue()).isEqualTo(1);
+    }
+
+    private Map<String, Number> getMetrics() {
+        return latencyHistograms.metrics().stream()
+                .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TenantLoadSketchTest {
+
+    @Test
+    public void record_whenUnderCapacity_shouldCountExactly() {
+        // Given
+        final TenantLoadSketch sketch = new TenantLoadSketch(4);
+
+        // When
+        sketch.record("a", 1, 10, 1000000);
+        sketch.record("b", 1, 1, 1000000);
+        sketch.record("a", 2, 20, 2000000);
+
+        // Then
+        assertThat(snapshot(sketch)).containsOnly(
+                TenantLoad.builder().userId("a").events(3).maxOverestimation(0).messages(30).dispatchMillis(3).build(),
+                TenantLoad.builder().userId("b").events(1).maxOverestimation(0).messages(1).dispatchMillis(1).build()
+        );
+        assertThat(sketch.getTotalEvents()).isEqualTo(4);
+        assertThat(sketch.getTotalMessages()).isEqualTo(31);
+    }
+
+    @Test
+    public void record_whenOverCapacity_shouldReplaceLeastFrequentTenant() {
+        // Given
+        final TenantLoadSketch sketch = new TenantLoadSketch(2);
+        sketch.record("a", 5, 5, 0);
+        sketch.record("b", 1, 1, 0);
+
+        // When
+        sketch.record("c", 1, 3, 0);
+
+        // Then
+        assertThat(snapshot(sketch)).containsOnly(
+                TenantLoad.builder().userId("a").events(5).maxOverestimation(0).messages(5).dispatchMillis(0).build(),
+                TenantLoad.builder().userId("c").events(2).maxOverestimation(1).messages(3).dispatchMillis(0).build()
+        );
+    }
+
+    @Test
+    public void record_whenSkewedStream_shouldKeepHeavyHittersWithinErrorBound() {
+        // Given
+        final TenantLoadSketch sketch = new TenantLoadSketch(16);
+        final Map<String, Long> exact = new HashMap<>();
+        final Random random = new Random(42);
+
+        // When
+        for (int i = 0; i < 100000; i++) {
+            final String userId = random.nextInt(10) < 5 ? "heavy" + random.nextInt(4) : "user" + random.nextInt(5000);
+            exact.merge(userId, 1L, Long::sum);
+            sketch.record(userId, 1, 1, 0);
+        }
+
+        // Then
+        final List<TenantLoad> tenants = snapshot(sketch);
+        assertThat(tenants).extracting("userId").contains("heavy0", "heavy1", "heavy2", "heavy3");
+        tenants.forEach(tenant -> {
+            final long actual = exact.get(tenant.getUserId());
+            assertThat(tenant.getEvents()).isGreaterThanOrEqualTo(actual);
+            assertThat(tenant.getEvents() - tenant.getMaxOverestimation()).isLessThanOrEqualTo(actual);
+        });
+    }
+
+    @Test
+    public void reset_shouldForgetAllTenants() {
+        // Given
+        final TenantLoadSketch sketch = new TenantLoadSketch(2);
+        sketch.record("a", 1, 1, 0);
+
+        // When
+        sketch.reset();
+        sketch.record("b", 1, 1, 0);
+
+        // Then
+        assertThat(snapshot(sketch)).extracting("userId").containsExactly("b");
+        assertThat(sketch.getTotalEvents()).isEqualTo(1);
+    }
+
+    private static List<TenantLoad> snapshot(TenantLoadSketch sketch) {
+        final List<TenantLoad> tenants = new ArrayList<>();
+        sketch.snapshot(tenants);
+        return tenants;
+    }
+
+}
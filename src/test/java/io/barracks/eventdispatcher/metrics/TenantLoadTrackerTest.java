@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class TenantLoadTrackerTest {
+
+    private final TenantLoadTracker tenantLoadTracker = new TenantLoadTracker(64, 2);
+
+    @Test
+    public void getCurrent_shouldReturnTopTenantsByEvents() {
+        // Given
+        tenantLoadTracker.record("small", 1, 1, 0);
+        tenantLoadTracker.record("large", 10, 100, 0);
+        tenantLoadTracker.record("medium", 5, 5, 0);
+
+        // When
+        final TenantLoadReport report = tenantLoadTracker.getCurrent();
+
+        // Then
+        assertThat(report.getTenants())
+                .extracting("userId", "events", "messages")
+                .containsExactly(tuple("large", 10L, 100L), tuple("medium", 5L, 5L));
+        assertThat(report.getTotalEvents()).isEqualTo(16);
+        assertThat(report.getTotalMessages()).isEqualTo(106);
+    }
+
+    @Test
+    public void record_whenNoUser_shouldIgnoreEvent() {
+        // When
+        tenantLoadTracker.record(null, 1, 1, 0);
+
+        // Then
+        assertThat(tenantLoadTracker.getCurrent().getTotalEvents()).isZero();
+    }
+
+    @Test
+    public void rotate_shouldMoveCurrentWindowToPrevious() {
+        // Given
+        tenantLoadTracker.record("user", 3, 6, 0);
+
+        // When
+        tenantLoadTracker.rotate();
+
+        // Then
+        assertThat(tenantLoadTracker.getPrevious().getTenants()).extracting("userId").containsExactly("user");
+        assertThat(tenantLoadTracker.getCurrent().getTenants()).isEmpty();
+        assertThat(tenantLoadTracker.getCurrent().getWindowStart()).isGreaterThanOrEqualTo(tenantLoadTracker.getPrevious().getWindowStart());
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TenantsEndpointTest {
+
+    private final TenantLoadTracker tenantLoadTracker = new TenantLoadTracker(16, 10);
+
+    private final TenantsEndpoint tenantsEndpoint = new TenantsEndpoint(tenantLoadTracker);
+
+    @Test
+    public void invoke_shouldReturnCurrentAndPreviousWindows() {
+        // Given
+        tenantLoadTracker.record("previous", 1, 1, 0);
+        tenantLoadTracker.rotate();
+        tenantLoadTracker.record("current", 1, 1, 0);
+
+        // When
+        final Map<String, TenantLoadReport> result = tenantsEndpoint.invoke();
+
+        // Then
+        assertThat(tenantsEndpoint.getId()).isEqualTo("tenants");
+        assertThat(result).containsOnlyKeys("current", "previous");
+        assertThat(result.get("current").getTenants()).extracting("userId").containsExactly("current");
+        assertThat(result.get("previous").getTenants()).extracting("userId").containsExactly("previous");
+    }
+
+}
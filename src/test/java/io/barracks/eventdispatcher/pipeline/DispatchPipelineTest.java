@@ -0,0 +1,358 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import io.barracks.eventdispatcher.client.OutboundMessage;
+import io.barracks.eventdispatcher.client.QueuingServiceClient;
+import io.barracks.eventdispatcher.manager.DeviceEventDispatcherManager;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.metrics.TenantLoadTracker;
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import io.barracks.eventdispatcher.rabbitmq.DeviceEventDecoder;
+import io.barracks.eventdispatcher.rabbitmq.RetryRouter;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import io.barracks.eventdispatcher.utils.WebhookUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DispatchPipelineTest {
+
+    private static final long DELIVERY_TAG = 42L;
+
+    @Mock
+    private MessageConverter messageConverter;
+
+    @Mock
+    private DeviceEventDispatcherManager deviceEventDispatcherManager;
+
+    @Mock
+    private QueuingServiceClient queuingServiceClient;
+
+    @Mock
+    private RetryRouter retryRouter;
+
+    @Mock
+    private CounterService counterService;
+
+    @Mock
+    private Channel channel;
+
+    private DispatchPipeline dispatchPipeline;
+
+    private Message message;
+
+    private Delivery delivery;
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
+    private final TenantLoadTracker tenantLoadTracker = new TenantLoadTracker(16, 10);
+
+    @Before
+    public void setUp() {
+        dispatchPipeline = new DispatchPipeline(
+                messageConverter,
+                new DeviceEventDecoder(new ObjectMapper()),
+                deviceEventDispatcherManager,
+                queuingServiceClient,
+                retryRouter,
+                counterService,
+                latencyHistograms,
+                tenantLoadTracker,
+                1, 10, 1, 10, 1, 10, 1, 10, 4, 1000, false, false, false, false
+        );
+        message = new Message(new byte[]{1}, new MessageProperties());
+        delivery = new Delivery(channel, DELIVERY_TAG);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        dispatchPipeline.destroy();
+    }
+
+    @Test
+    public void dispatch_whenPublished_shouldAckAfterPublish() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final List<Hook> hooks = Collections.singletonList(WebhookUtils.getWebhook());
+        final List<OutboundMessage> messages = Collections.singletonList(new OutboundMessage("exchange", "key", message));
+        doReturn(deviceEvent).when(messageConverter).fromMessage(message);
+        doReturn(hooks).when(deviceEventDispatcherManager).resolveHooks(deviceEvent.getRequest().getUserId(), EventType.PING);
+        doReturn(messages).when(queuingServiceClient).buildDeviceEventMessages(deviceEvent, hooks);
+        doReturn(0).when(queuingServiceClient).sendMessages(messages);
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.PING).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(queuingServiceClient).sendMessages(messages);
+        verify(channel).basicAck(DELIVERY_TAG, false);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+        verify(counterService).increment("message.process.event.success");
+        assertThat(latencyHistograms.metrics())
+                .extracting("name")
+                .contains("histogram.dispatch.pipeline.publish.count", "histogram.dispatch.pipeline.publish.wait.count");
+        assertThat(tenantLoadTracker.getCurrent().getTenants())
+                .extracting("userId", "events", "messages")
+                .containsExactly(tuple(deviceEvent.getRequest().getUserId(), 1L, 1L));
+    }
+
+    @Test
+    public void metrics_whenStageThreadsNotSet_shouldUseListenerThreadsForBlockingStages() throws Exception {
+        // Given
+        dispatchPipeline.destroy();
+        dispatchPipeline = new DispatchPipeline(
+                messageConverter,
+                new DeviceEventDecoder(new ObjectMapper()),
+                deviceEventDispatcherManager,
+                queuingServiceClient,
+                retryRouter,
+                counterService,
+                latencyHistograms,
+                tenantLoadTracker,
+                2, 10, 0, 10, 2, 10, 0, 10, 6, 1000, false, false, false, false
+        );
+
+        // When
+        final Collection<Metric<?>> metrics = dispatchPipeline.metrics();
+
+        // Then
+        assertThat(metrics)
+                .extracting("name", "value")
+                .contains(
+                        tuple("pipeline.decode.threads", 2),
+                        tuple("pipeline.resolve.threads", 6),
+                        tuple("pipeline.envelope.threads", 2),
+                        tuple("pipeline.publish.threads", 6)
+                );
+    }
+
+    @Test
+    public void dispatch_whenStreamingEnabled_shouldForwardRawPing() throws Exception {
+        // Given
+        dispatchPipeline.destroy();
+        dispatchPipeline = new DispatchPipeline(
+                messageConverter,
+                new DeviceEventDecoder(new ObjectMapper()),
+                deviceEventDispatcherManager,
+                queuingServiceClient,
+                retryRouter,
+                counterService,
+                latencyHistograms,
+                tenantLoadTracker,
+                1, 10, 1, 10, 1, 10, 1, 10, 4, 1000, true, false, false, false
+        );
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        final Message rawMessage = new Message(new ObjectMapper().writeValueAsBytes(deviceEvent), properties);
+        final List<Hook> hooks = Collections.singletonList(WebhookUtils.getWebhook());
+        final List<OutboundMessage> messages = Collections.singletonList(new OutboundMessage("exchange", "key", message));
+        doReturn(hooks).when(deviceEventDispatcherManager).resolveHooks(deviceEvent.getRequest().getUserId(), EventType.PING);
+        doReturn(messages).when(queuingServiceClient).buildRawDeviceEventMessages(any(RawDeviceEvent.class), eq(EventType.PING), eq(hooks));
+        doReturn(0).when(queuingServiceClient).sendMessages(messages);
+
+        // When
+        dispatchPipeline.dispatch(delivery, rawMessage, EventType.PING).get(5, TimeUnit.SECONDS);
+
+        // Then
+        final ArgumentCaptor<RawDeviceEvent> captor = ArgumentCaptor.forClass(RawDeviceEvent.class);
+        verify(queuingServiceClient).buildRawDeviceEventMessages(captor.capture(), eq(EventType.PING), eq(hooks));
+        assertThat(captor.getValue().getBody()).isEqualTo(rawMessage.getBody());
+        verify(queuingServiceClient).sendMessages(messages);
+        verify(channel).basicAck(DELIVERY_TAG, false);
+        verifyZeroInteractions(messageConverter);
+    }
+
+    @Test
+    public void dispatch_whenEnrollment_shouldUseRequestIdentity() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final DeviceEvent identified = DeviceEventUtils.getDeviceEvent();
+        doReturn(deviceEvent).when(messageConverter).fromMessage(message);
+        doReturn(identified).when(deviceEventDispatcherManager).withRequestIdentity(deviceEvent);
+        doReturn(Collections.emptyList()).when(deviceEventDispatcherManager).resolveHooks(identified.getRequest().getUserId(), EventType.ENROLLMENT);
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.ENROLLMENT).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(deviceEventDispatcherManager).resolveHooks(identified.getRequest().getUserId(), EventType.ENROLLMENT);
+        verify(channel).basicAck(DELIVERY_TAG, false);
+        verify(counterService).increment("message.process.enrollment.success");
+    }
+
+    @Test
+    public void dispatch_whenNoHooks_shouldAckWithoutPublishing() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        doReturn(deviceChangeEvent).when(messageConverter).fromMessage(message);
+        doReturn(deviceChangeEvent).when(deviceEventDispatcherManager).withRequestIdentity(deviceChangeEvent);
+        doReturn(Collections.emptyList()).when(deviceEventDispatcherManager).resolveHooks(
+                deviceChangeEvent.getDeviceEvent().getRequest().getUserId(), EventType.DEVICE_DATA_CHANGE
+        );
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.DEVICE_DATA_CHANGE).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(queuingServiceClient, never()).sendMessages(any());
+        verify(channel).basicAck(DELIVERY_TAG, false);
+        verify(counterService).increment("message.process.device.data.success");
+    }
+
+    @Test
+    public void dispatch_whenMessageCannotBeDecoded_shouldRejectWithoutRequeue() throws Exception {
+        // Given
+        doThrow(MessageConversionException.class).when(messageConverter).fromMessage(message);
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.PING).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(channel).basicNack(DELIVERY_TAG, false, false);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verify(counterService).increment("message.process.event.error");
+        verifyZeroInteractions(deviceEventDispatcherManager, queuingServiceClient);
+    }
+
+    @Test
+    public void dispatch_whenHookResolutionFails_shouldRequeue() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        doReturn(deviceEvent).when(messageConverter).fromMessage(message);
+        doThrow(RuntimeException.class).when(deviceEventDispatcherManager).resolveHooks(deviceEvent.getRequest().getUserId(), EventType.PING);
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.PING).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(channel).basicNack(DELIVERY_TAG, false, true);
+        verify(counterService).increment("message.process.event.error");
+        verifyZeroInteractions(queuingServiceClient);
+    }
+
+    @Test
+    public void dispatch_whenMessagesAreNotConfirmed_shouldRequeue() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final List<Hook> hooks = Collections.singletonList(WebhookUtils.getWebhook());
+        final List<OutboundMessage> messages = Collections.singletonList(new OutboundMessage("exchange", "key", message));
+        doReturn(deviceEvent).when(messageConverter).fromMessage(message);
+        doReturn(hooks).when(deviceEventDispatcherManager).resolveHooks(deviceEvent.getRequest().getUserId(), EventType.PING);
+        doReturn(messages).when(queuingServiceClient).buildDeviceEventMessages(deviceEvent, hooks);
+        doReturn(1).when(queuingServiceClient).sendMessages(messages);
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.PING).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(channel).basicNack(DELIVERY_TAG, false, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verify(counterService).increment("message.process.event.error");
+    }
+
+    @Test
+    public void dispatch_whenRetryEnabledAndResolutionFails_shouldRouteForRetryThenAck() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final RuntimeException failure = new RuntimeException();
+        doReturn(true).when(retryRouter).isEnabled();
+        doReturn(deviceEvent).when(messageConverter).fromMessage(message);
+        doThrow(failure).when(deviceEventDispatcherManager).resolveHooks(deviceEvent.getRequest().getUserId(), EventType.PING);
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.PING).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(retryRouter).recover(message, failure);
+        verify(channel).basicAck(DELIVERY_TAG, false);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    public void dispatch_whenRetryRoutingFails_shouldRequeue() throws Exception {
+        // Given
+        doReturn(true).when(retryRouter).isEnabled();
+        doThrow(MessageConversionException.class).when(messageConverter).fromMessage(message);
+        doThrow(AmqpException.class).when(retryRouter).recover(eq(message), any(Throwable.class));
+
+        // When
+        dispatchPipeline.dispatch(delivery, message, EventType.PING).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(channel).basicNack(DELIVERY_TAG, false, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void metrics_shouldExposeEveryStage() {
+        // When
+        final List<String> names = dispatchPipeline.metrics().stream()
+                .map(Metric::getName)
+                .collect(Collectors.toList());
+
+        // Then
+        assertThat(names).contains(
+                "pipeline.decode.queue.depth",
+                "pipeline.resolve.queue.depth",
+                "pipeline.envelope.queue.depth",
+                "pipeline.publish.queue.depth"
+        );
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.pipeline;
+
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class PipelineStageTest {
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
+    private PipelineStage stage;
+
+    @Before
+    public void setUp() {
+        stage = new PipelineStage("test", 1, 1, latencyHistograms);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        stage.shutdown(1000);
+    }
+
+    @Test
+    public void submit_whenTaskSucceeds_shouldCompleteWithResultAndRecordLatency() throws Exception {
+        // When
+        final CompletableFuture<String> result = stage.submit(() -> "value");
+
+        // Then
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+        assertThat(latencyHistograms.metrics())
+                .extracting("name", "value")
+                .contains(
+                        tuple("histogram.dispatch.pipeline.test.wait.count", 1L),
+                        tuple("histogram.dispatch.pipeline.test.count", 1L)
+                );
+    }
+
+    @Test
+    public void submit_whenTaskFails_shouldCompleteExceptionally() {
+        // Given
+        final IllegalStateException failure = new IllegalStateException();
+
+        // When
+        final CompletableFuture<String> result = stage.submit(() -> {
+            throw failure;
+        });
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCause(failure);
+    }
+
+    @Test
+    public void submit_whenQueueIsFull_shouldBlockUntilCapacityFrees() throws Exception {
+        // Given
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Boolean> running = stage.submit(() -> await(release));
+        final CompletableFuture<Boolean> queued = stage.submit(() -> true);
+        final CompletableFuture<CompletableFuture<Boolean>> blocked = CompletableFuture.supplyAsync(() -> stage.submit(() -> true));
+
+        // When
+        Thread.sleep(200);
+
+        // Then
+        assertThat(blocked.isDone()).isFalse();
+        assertThat(stage.getQueueDepth()).isEqualTo(1);
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void submit_whenShutdown_shouldCompleteExceptionally() throws InterruptedException {
+        // Given
+        stage.shutdown(1000);
+
+        // When
+        final CompletableFuture<String> result = stage.submit(() -> "value");
+
+        // Then
+        assertThat(result.isCompletedExceptionally()).isTrue();
+    }
+
+    @Test
+    public void metrics_shouldExposeQueueState() {
+        // When
+        final Collection<Metric<?>> metrics = stage.metrics();
+
+        // Then
+        assertThat(metrics).extracting(Metric::getName).containsExactly(
+                "pipeline.test.queue.depth",
+                "pipeline.test.queue.capacity",
+                "pipeline.test.threads",
+                "pipeline.test.active",
+                "pipeline.test.completed"
+        );
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchingMessageListenerTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    @Mock
+    private MessageConverter messageConverter;
+
+    @Mock
+    private CounterService counterService;
+
+    @Mock
+    private RetryRouter retryRouter;
+
+    @Mock
+    private Channel channel;
+
+    private final List<List<DeviceEvent>> batches = new ArrayList<>();
+
+    private BatchingMessageListener<DeviceEvent> listener;
+
+    @Before
+    public void setUp() {
+        listener = new BatchingMessageListener<>(messageConverter, DeviceEvent.class, batches::add, counterService, retryRouter, "event", BATCH_SIZE, 60000, false);
+        doReturn(true).when(channel).isOpen();
+    }
+
+    @After
+    public void tearDown() {
+        listener.destroy();
+    }
+
+    @Test
+    public void onMessage_whenBatchIsFull_shouldHandleBatchAndAckOnce() throws Exception {
+        // Given
+        final DeviceEvent event1 = DeviceEventUtils.getDeviceEvent();
+        final DeviceEvent event2 = DeviceEventUtils.getDeviceEvent();
+
+        // When
+        listener.onMessage(getMessage(event1, 1), channel);
+        listener.onMessage(getMessage(event2, 2), channel);
+
+        // Then
+        assertThat(batches).containsExactly(Arrays.asList(event1, event2));
+        verify(channel).basicAck(2, true);
+        verify(channel, never()).basicAck(1, true);
+    }
+
+    @Test
+    public void flushAll_whenBatchIsNotFull_shouldHandlePartialBatch() throws Exception {
+        // Given
+        final DeviceEvent event = DeviceEventUtils.getDeviceEvent();
+        listener.onMessage(getMessage(event, 1), channel);
+
+        // When
+        listener.flushAll();
+
+        // Then
+        assertThat(batches).containsExactly(Arrays.asList(event));
+        verify(channel).basicAck(1, true);
+    }
+
+    @Test
+    public void flushAll_whenNothingReceived_shouldNotAck() throws Exception {
+        // When
+        listener.flushAll();
+
+        // Then
+        assertThat(batches).isEmpty();
+        verifyZeroInteractions(channel);
+    }
+
+    @Test
+    public void onMessage_whenHandlerFailsAndRetryDisabled_shouldCountErrorAndRejectBatchWithoutRequeue() throws Exception {
+        // Given
+        listener = getFailingListener(new IllegalStateException(), false);
+
+        // When
+        listener.onMessage(getMessage(DeviceEventUtils.getDeviceEvent(), 1), channel);
+        listener.onMessage(getMessage(DeviceEventUtils.getDeviceEvent(), 2), channel);
+
+        // Then
+        verify(channel).basicNack(2, true, false);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verify(counterService).increment("message.process.event.batch.error");
+    }
+
+    @Test
+    public void onMessage_whenHandlerFailsAndRequeueRejectedEnabled_shouldRequeueBatch() throws Exception {
+        // Given
+        listener = getFailingListener(new IllegalStateException(), true);
+
+        // When
+        listener.onMessage(getMessage(DeviceEventUtils.getDeviceEvent(), 1), channel);
+        listener.onMessage(getMessage(DeviceEventUtils.getDeviceEvent(), 2), channel);
+
+        // Then
+        verify(channel).basicNack(2, true, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void onMessage_whenHandlerFailsAndRetryEnabled_shouldRouteAndAckEachDelivery() throws Exception {
+        // Given
+        final IllegalStateException exception = new IllegalStateException();
+        final Message message1 = getMessage(DeviceEventUtils.getDeviceEvent(), 1);
+        final Message message2 = getMessage(DeviceEventUtils.getDeviceEvent(), 2);
+        listener = getFailingListener(exception);
+        doReturn(true).when(retryRouter).isEnabled();
+
+        // When
+        listener.onMessage(message1, channel);
+        listener.onMessage(message2, channel);
+
+        // Then
+        verify(retryRouter).recover(message1, exception);
+        verify(retryRouter).recover(message2, exception);
+        verify(channel).basicAck(1, false);
+        verify(channel).basicAck(2, false);
+        verify(channel, never()).basicAck(anyLong(), eq(true));
+    }
+
+    @Test
+    public void onMessage_whenHandlerFailsAndRoutingFails_shouldRequeueDelivery() throws Exception {
+        // Given
+        final IllegalStateException exception = new IllegalStateException();
+        final Message message1 = getMessage(DeviceEventUtils.getDeviceEvent(), 1);
+        final Message message2 = getMessage(DeviceEventUtils.getDeviceEvent(), 2);
+        listener = getFailingListener(exception);
+        doReturn(true).when(retryRouter).isEnabled();
+        doThrow(AmqpException.class).when(retryRouter).recover(message1, exception);
+
+        // When
+        listener.onMessage(message1, channel);
+        listener.onMessage(message2, channel);
+
+        // Then
+        verify(channel).basicNack(1, false, true);
+        verify(channel, never()).basicAck(1, false);
+        verify(channel).basicAck(2, false);
+    }
+
+    @Test
+    public void onMessage_whenConversionFailsAndRetryDisabled_shouldRejectDeliveryWithoutRequeue() throws Exception {
+        // Given
+        final Message message1 = getMessage(DeviceEventUtils.getDeviceEvent(), 1);
+        final Message message2 = getMessage(null, 2);
+        doThrow(MessageConversionException.class).when(messageConverter).fromMessage(message2);
+
+        // When
+        listener.onMessage(message1, channel);
+        listener.onMessage(message2, channel);
+        listener.flushAll();
+
+        // Then
+        assertThat(batches).hasSize(1);
+        verify(channel).basicReject(2, false);
+        verify(channel).basicAck(1, true);
+        verify(channel, never()).basicAck(2, true);
+        verify(counterService).increment("message.process.event.batch.conversion.error");
+    }
+
+    @Test
+    public void onMessage_whenConversionFailsAndRetryEnabled_shouldDeadLetterDelivery() throws Exception {
+        // Given
+        final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        final RetryRouter router = new RetryRouter(rabbitTemplate, mock(AmqpAdmin.class), counterService, true, 5, 1000, 2.0, 60000, "eventdispatcher.dlx");
+        listener.destroy();
+        listener = new BatchingMessageListener<>(messageConverter, DeviceEvent.class, batches::add, counterService, router, "event", BATCH_SIZE, 60000, false);
+        final Message message = getMessage(null, 1);
+        message.getMessageProperties().setConsumerQueue("barracks.event");
+        doThrow(MessageConversionException.class).when(messageConverter).fromMessage(message);
+
+        // When
+        listener.onMessage(message, channel);
+        listener.flushAll();
+
+        // Then
+        assertThat(batches).isEmpty();
+        verify(rabbitTemplate).send("eventdispatcher.dlx", "barracks.event", message);
+        verify(counterService).increment("message.retry.deadlettered");
+        verify(channel).basicAck(1, false);
+        verify(channel, never()).basicAck(1, true);
+    }
+
+    @Test
+    public void flushAll_whenChannelClosed_shouldDropBatchWithoutAck() throws Exception {
+        // Given
+        listener.onMessage(getMessage(DeviceEventUtils.getDeviceEvent(), 1), channel);
+        doReturn(false).when(channel).isOpen();
+
+        // When
+        listener.flushAll();
+
+        // Then
+        assertThat(batches).isEmpty();
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    private BatchingMessageListener<DeviceEvent> getFailingListener(RuntimeException exception) {
+        return getFailingListener(exception, false);
+    }
+
+    private BatchingMessageListener<DeviceEvent> getFailingListener(RuntimeException exception, boolean requeueRejected) {
+        listener.destroy();
+        return new BatchingMessageListener<>(messageConverter, DeviceEvent.class, events -> {
+            throw exception;
+        }, counterService, retryRouter, "event", BATCH_SIZE, 60000, requeueRejected);
+    }
+
+    private Message getMessage(DeviceEvent event, long deliveryTag) {
+        final MessageProperties properties = new MessageProperties();
+        properties.setDeliveryTag(deliveryTag);
+        final Message message = new Message(new byte[0], properties);
+        Optional.ofNullable(event).ifPresent(payload -> doReturn(payload).when(messageConverter).fromMessage(message));
+        return message;
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.WireFormat;
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class DeviceEventDecoderTest {
+
+    private ObjectMapper objectMapper;
+
+    private DeviceEventDecoder deviceEventDecoder;
+
+    @Before
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        deviceEventDecoder = new DeviceEventDecoder(objectMapper);
+    }
+
+    @Test
+    public void decode_shouldExtractIdentityAndKeepBody() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final byte[] body = objectMapper.writeValueAsBytes(deviceEvent);
+
+        // When
+        final RawDeviceEvent result = deviceEventDecoder.decode(body, EventType.PING);
+
+        // Then
+        assertThat(result.getUserId()).isEqualTo(deviceEvent.getUserId());
+        assertThat(result.getUnitId()).isEqualTo(deviceEvent.getUnitId());
+        assertThat(result.getRequestUserId()).isEqualTo(deviceEvent.getRequest().getUserId());
+        assertThat(result.getRequestUnitId()).isEqualTo(deviceEvent.getRequest().getUnitId());
+        assertThat(result.getBody()).isSameAs(body);
+    }
+
+    @Test
+    public void decode_whenFieldsAreNestedOrMissing_shouldOnlyReadTopLevelAndRequest() {
+        // Given
+        final byte[] body = ("{\"response\":{\"userId\":\"nested\",\"versions\":[1,{\"unitId\":\"x\"}]},"
+                + "\"request\":{\"customClientData\":{\"userId\":\"custom\"},\"userId\":\"user\"},\"unitId\":null}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        // When
+        final RawDeviceEvent result = deviceEventDecoder.decode(body, EventType.PING);
+
+        // Then
+        assertThat(result.getUserId()).isNull();
+        assertThat(result.getUnitId()).isNull();
+        assertThat(result.getRequestUserId()).isEqualTo("user");
+        assertThat(result.getRequestUnitId()).isNull();
+    }
+
+    @Test
+    public void decode_whenEnrollment_shouldPatchRequestIdentity() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final byte[] body = objectMapper.writeValueAsBytes(deviceEvent);
+
+        // When
+        final RawDeviceEvent result = deviceEventDecoder.decode(body, EventType.ENROLLMENT);
+
+        // Then
+        assertThat(result.getRequestUserId()).isEqualTo(deviceEvent.getUserId());
+        assertThat(result.getRequestUnitId()).isEqualTo(deviceEvent.getUnitId());
+        assertThat(objectMapper.readValue(result.getBody(), DeviceEvent.class)).isEqualTo(withRequestIdentity(deviceEvent));
+    }
+
+    @Test
+    public void decode_whenEnrollmentRequestLacksIdentity_shouldInsertIt() throws Exception {
+        // Given
+        final byte[] empty = "{\"userId\":\"user\",\"unitId\":\"unit\",\"request\":{}}".getBytes(StandardCharsets.UTF_8);
+        final byte[] partial = "{\"request\":{\"ipAddress\":\"1.2.3.4\",\"unitId\":\"old\"},\"userId\":\"us\\\"er\",\"unitId\":\"unit\"}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        // When
+        final RawDeviceEvent emptyResult = deviceEventDecoder.decode(empty, EventType.ENROLLMENT);
+        final RawDeviceEvent partialResult = deviceEventDecoder.decode(partial, EventType.ENROLLMENT);
+
+        // Then
+        assertThat(new String(emptyResult.getBody(), StandardCharsets.UTF_8))
+                .isEqualTo("{\"userId\":\"user\",\"unitId\":\"unit\",\"request\":{\"userId\":\"user\",\"unitId\":\"unit\"}}");
+        assertThat(new String(partialResult.getBody(), StandardCharsets.UTF_8))
+                .isEqualTo("{\"request\":{\"userId\":\"us\\\"er\",\"ipAddress\":\"1.2.3.4\",\"unitId\":\"unit\"},\"userId\":\"us\\\"er\",\"unitId\":\"unit\"}");
+        assertThat(partialResult.getRequestUserId()).isEqualTo("us\"er");
+    }
+
+    @Test
+    public void decode_whenEnrollmentIdentityAlreadyInRequest_shouldKeepOriginalBytes() {
+        // Given
+        final byte[] body = "{\"userId\":\"user\",\"unitId\":\"unit\",\"request\":{\"unitId\":\"unit\",\"userId\":\"user\"}}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        // When
+        final RawDeviceEvent result = deviceEventDecoder.decode(body, EventType.ENROLLMENT);
+
+        // Then
+        assertThat(result.getBody()).isSameAs(body);
+    }
+
+    @Test
+    public void decode_whenChangeEvent_shouldPatchNestedRequestIdentity() throws Exception {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final byte[] body = objectMapper.writeValueAsBytes(deviceChangeEvent);
+
+        // When
+        final RawDeviceEvent result = deviceEventDecoder.decode(body, EventType.DEVICE_DATA_CHANGE);
+
+        // Then
+        assertThat(result.getRequestUserId()).isEqualTo(deviceChangeEvent.getDeviceEvent().getUserId());
+        assertThat(objectMapper.readValue(result.getBody(), DeviceChangeEvent.class)).isEqualTo(
+                deviceChangeEvent.toBuilder().deviceEvent(withRequestIdentity(deviceChangeEvent.getDeviceEvent())).build()
+        );
+    }
+
+    @Test
+    public void decode_whenEnrollmentHasNoRequest_shouldThrowConversionException() {
+        // Given
+        final byte[] body = "{\"userId\":\"user\"}".getBytes(StandardCharsets.UTF_8);
+
+        // When / Then
+        assertThatExceptionOfType(MessageConversionException.class).isThrownBy(() -> deviceEventDecoder.decode(body, EventType.ENROLLMENT));
+    }
+
+    @Test
+    public void decode_whenMalformed_shouldThrowConversionException() {
+        // Given
+        final byte[] truncated = "{\"request\":{\"userId\":\"user\"".getBytes(StandardCharsets.UTF_8);
+        final byte[] array = "[{\"userId\":\"user\"}]".getBytes(StandardCharsets.UTF_8);
+        final byte[] trailing = "{\"userId\":\"user\"} {}".getBytes(StandardCharsets.UTF_8);
+
+        // When / Then
+        assertThatExceptionOfType(MessageConversionException.class).isThrownBy(() -> deviceEventDecoder.decode(truncated, EventType.PING));
+        assertThatExceptionOfType(MessageConversionException.class).isThrownBy(() -> deviceEventDecoder.decode(array, EventType.PING));
+        assertThatExceptionOfType(MessageConversionException.class).isThrownBy(() -> deviceEventDecoder.decode(trailing, EventType.PING));
+    }
+
+    @Test
+    public void decode_whenMessageIsNotJson_shouldThrowConversionException() {
+        // Given
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+        final Message message = new Message("{}".getBytes(StandardCharsets.UTF_8), properties);
+
+        // When / Then
+        assertThatExceptionOfType(MessageConversionException.class).isThrownBy(() -> deviceEventDecoder.decode(message, EventType.PING));
+    }
+
+    @Test
+    public void decode_whenMessageIsSmile_shouldDecodeJsonBody() throws Exception {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final byte[] json = objectMapper.writeValueAsBytes(deviceEvent);
+        final MessageProperties properties = new MessageProperties();
+        properties.setContentType(WireFormat.SMILE.getContentType());
+        final Message message = new Message(WireFormat.JSON.transcode(json, WireFormat.SMILE), properties);
+
+        // When
+        final RawDeviceEvent result = deviceEventDecoder.decode(message, EventType.PING);
+
+        // Then
+        assertThat(result).isEqualTo(deviceEventDecoder.decode(json, EventType.PING));
+        assertThat(objectMapper.readValue(result.getBody(), DeviceEvent.class)).isEqualTo(deviceEvent);
+    }
+
+    private static DeviceEvent withRequestIdentity(DeviceEvent deviceEvent) {
+        return deviceEvent.toBuilder()
+                .request(deviceEvent.getRequest().toBuilder()
+                        .userId(deviceEvent.getUserId())
+                        .unitId(deviceEvent.getUnitId())
+                        .build())
+                .build();
+    }
+
+}
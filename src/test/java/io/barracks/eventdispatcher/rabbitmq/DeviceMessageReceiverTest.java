@@ -25,10 +25,13 @@
 package io.barracks.eventdispatcher.rabbitmq;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.exception.HookDispatchException;
 import io.barracks.eventdispatcher.manager.DeviceEventDispatcherManager;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
 import io.barracks.eventdispatcher.model.DeviceChangeEvent;
 import io.barracks.eventdispatcher.model.DeviceEvent;
 import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.RawDeviceEvent;
 import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
 import io.barracks.eventdispatcher.utils.DeviceEventUtils;
 import org.junit.Before;
@@ -36,8 +39,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
 import org.springframework.boot.actuate.metrics.CounterService;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -48,9 +57,14 @@ public class DeviceMessageReceiverTest {
     @Mock
     private DeviceEventDispatcherManager deviceEventDispatcherManager;
 
+    @Mock
+    private CounterService counterService;
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
     @Before
     public void setUp() {
-        deviceMessageReceiver = new DeviceMessageReceiver(deviceEventDispatcherManager, new ObjectMapper(), mock(CounterService.class));
+        deviceMessageReceiver = new DeviceMessageReceiver(deviceEventDispatcherManager, new ObjectMapper(), counterService, latencyHistograms, false);
     }
 
     @Test
@@ -65,6 +79,35 @@ public class DeviceMessageReceiverTest {
         verify(deviceEventDispatcherManager).postDeviceEvent(deviceEvent);
     }
 
+    @Test
+    public void receiveRawEventMessage_whenAllIsFine_shouldCallManager() throws Exception {
+        //Given
+        final RawDeviceEvent rawDeviceEvent = RawDeviceEvent.builder().requestUserId("user").body(new byte[]{'{', '}'}).build();
+
+        //When
+        deviceMessageReceiver.receiveRawDeviceEventMessage(rawDeviceEvent, EventType.PING);
+
+        //Then
+        verify(deviceEventDispatcherManager).postRawDeviceEvent(rawDeviceEvent, EventType.PING);
+        verify(counterService).increment("message.process.event.success");
+    }
+
+    @Test
+    public void receiveRawEventMessages_whenAllIsFine_shouldCallManager() throws Exception {
+        //Given
+        final List<RawDeviceEvent> rawDeviceEvents = Arrays.asList(
+                RawDeviceEvent.builder().requestUserId("user").body(new byte[]{1}).build(),
+                RawDeviceEvent.builder().requestUserId("user").body(new byte[]{2}).build()
+        );
+
+        //When
+        deviceMessageReceiver.receiveRawDeviceEventMessages(rawDeviceEvents, EventType.ENROLLMENT);
+
+        //Then
+        verify(deviceEventDispatcherManager).postRawDeviceEvents(rawDeviceEvents, EventType.ENROLLMENT);
+        verify(counterService, times(2)).increment("message.process.enrollment.success");
+    }
+
     @Test
     public void receiveEventMessage_whenException_shouldLogError() throws Exception {
         //Given
@@ -153,4 +196,130 @@ public class DeviceMessageReceiverTest {
         verify(deviceEventDispatcherManager).postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_PACKAGE_CHANGE);
     }
 
+    @Test
+    public void receiveEventMessages_whenAllIsFine_shouldCallManagerOnce() throws Exception {
+        //Given
+        final List<DeviceEvent> deviceEvents = Arrays.asList(DeviceEventUtils.getDeviceEvent(), DeviceEventUtils.getDeviceEvent());
+
+        //When
+        deviceMessageReceiver.receiveDeviceEventMessages(deviceEvents);
+
+        //Then
+        verify(deviceEventDispatcherManager).postDeviceEvents(deviceEvents);
+        verify(counterService, times(2)).increment("message.process.event.success");
+    }
+
+    @Test
+    public void receiveEventMessages_whenException_shouldCountErrors() throws Exception {
+        //Given
+        final List<DeviceEvent> deviceEvents = Arrays.asList(DeviceEventUtils.getDeviceEvent(), DeviceEventUtils.getDeviceEvent());
+        doThrow(Exception.class).when(deviceEventDispatcherManager).postDeviceEvents(deviceEvents);
+
+        //When
+        deviceMessageReceiver.receiveDeviceEventMessages(deviceEvents);
+
+        //Then
+        verify(counterService, times(2)).increment("message.process.event.error");
+    }
+
+    @Test
+    public void receiveEnrollmentMessages_whenAllIsFine_shouldCallManager() throws Exception {
+        //Given
+        final List<DeviceEvent> deviceEvents = Collections.singletonList(DeviceEventUtils.getDeviceEvent());
+
+        //When
+        deviceMessageReceiver.receiveEnrollmentMessages(deviceEvents);
+
+        //Then
+        verify(deviceEventDispatcherManager).postDeviceEnrollments(deviceEvents);
+    }
+
+    @Test
+    public void receiveDeviceDataMessages_whenAllIsFine_shouldCallManager() throws Exception {
+        //Given
+        final List<DeviceChangeEvent> deviceChangeEvents = Collections.singletonList(DeviceChangeEventUtils.getDeviceChangeEvent());
+
+        //When
+        deviceMessageReceiver.receiveDeviceDataMessages(deviceChangeEvents);
+
+        //Then
+        verify(deviceEventDispatcherManager).postDeviceChangeEvents(deviceChangeEvents, EventType.DEVICE_DATA_CHANGE);
+    }
+
+    @Test
+    public void receiveDevicePackageMessages_whenAllIsFine_shouldCallManager() throws Exception {
+        //Given
+        final List<DeviceChangeEvent> deviceChangeEvents = Collections.singletonList(DeviceChangeEventUtils.getDeviceChangeEvent());
+
+        //When
+        deviceMessageReceiver.receiveDevicePackageMessages(deviceChangeEvents);
+
+        //Then
+        verify(deviceEventDispatcherManager).postDeviceChangeEvents(deviceChangeEvents, EventType.DEVICE_PACKAGE_CHANGE);
+    }
+
+    @Test
+    public void receiveEventMessage_whenExceptionAndRetryEnabled_shouldRethrow() throws Exception {
+        //Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final RuntimeException exception = new RuntimeException();
+        deviceMessageReceiver = new DeviceMessageReceiver(deviceEventDispatcherManager, new ObjectMapper(), counterService, latencyHistograms, true);
+        doThrow(exception).when(deviceEventDispatcherManager).postDeviceEvent(deviceEvent);
+
+        //When / Then
+        assertThatThrownBy(() -> deviceMessageReceiver.receiveDeviceEventMessage(deviceEvent)).isSameAs(exception);
+        verify(counterService).increment("message.process.event.error");
+    }
+
+    @Test
+    public void receiveDeviceDataMessage_whenCheckedExceptionAndRetryEnabled_shouldRethrowWrapped() throws Exception {
+        //Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        deviceMessageReceiver = new DeviceMessageReceiver(deviceEventDispatcherManager, new ObjectMapper(), counterService, latencyHistograms, true);
+        doThrow(Exception.class).when(deviceEventDispatcherManager).postDeviceChangeEvent(deviceChangeEvent, EventType.DEVICE_DATA_CHANGE);
+
+        //When / Then
+        assertThatThrownBy(() -> deviceMessageReceiver.receiveDeviceDataMessage(deviceChangeEvent)).isInstanceOf(AmqpException.class);
+        verify(counterService).increment("message.process.device.data.error");
+    }
+
+    @Test
+    public void receiveEnrollmentMessage_whenHooksNotPublishedAndRetryDisabled_shouldRethrow() throws Exception {
+        //Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final HookDispatchException exception = new HookDispatchException(1);
+        doThrow(exception).when(deviceEventDispatcherManager).postDeviceEnrollment(deviceEvent);
+
+        //When / Then
+        assertThatThrownBy(() -> deviceMessageReceiver.receiveEnrollmentMessage(deviceEvent)).isSameAs(exception);
+        verify(counterService).increment("message.process.enrollment.error");
+    }
+
+    @Test
+    public void receiveDeviceDataMessages_whenHooksNotPublished_shouldCountErrorsAndRethrow() throws Exception {
+        //Given
+        final List<DeviceChangeEvent> deviceChangeEvents = Arrays.asList(DeviceChangeEventUtils.getDeviceChangeEvent(), DeviceChangeEventUtils.getDeviceChangeEvent());
+        final HookDispatchException exception = new HookDispatchException(2);
+        doThrow(exception).when(deviceEventDispatcherManager).postDeviceChangeEvents(deviceChangeEvents, EventType.DEVICE_DATA_CHANGE);
+
+        //When / Then
+        assertThatThrownBy(() -> deviceMessageReceiver.receiveDeviceDataMessages(deviceChangeEvents)).isSameAs(exception);
+        verify(counterService, times(2)).increment("message.process.device.data.error");
+    }
+
+    @Test
+    public void receiveRawDeviceEventMessages_whenExceptionAndRetryEnabled_shouldRethrow() throws Exception {
+        //Given
+        final List<RawDeviceEvent> rawDeviceEvents = Collections.singletonList(
+                RawDeviceEvent.builder().requestUserId("user").body(new byte[]{1}).build()
+        );
+        final RuntimeException exception = new RuntimeException();
+        deviceMessageReceiver = new DeviceMessageReceiver(deviceEventDispatcherManager, new ObjectMapper(), counterService, latencyHistograms, true);
+        doThrow(exception).when(deviceEventDispatcherManager).postRawDeviceEvents(rawDeviceEvents, EventType.PING);
+
+        //When / Then
+        assertThatThrownBy(() -> deviceMessageReceiver.receiveRawDeviceEventMessages(rawDeviceEvents, EventType.PING)).isSameAs(exception);
+        verify(counterService).increment("message.process.event.error");
+    }
+
 }
@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import io.barracks.eventdispatcher.client.entity.HookInvalidation;
+import io.barracks.eventdispatcher.manager.HookRoutingTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HookInvalidationReceiverTest {
+
+    private HookInvalidationReceiver hookInvalidationReceiver;
+
+    @Mock
+    private HookRoutingTable hookRoutingTable;
+
+    @Mock
+    private CounterService counterService;
+
+    @Before
+    public void setUp() {
+        hookInvalidationReceiver = new HookInvalidationReceiver(hookRoutingTable, counterService);
+    }
+
+    @Test
+    public void receiveHookInvalidationMessage_whenAllIsFine_shouldReloadUser() {
+        //Given
+        final HookInvalidation hookInvalidation = HookInvalidation.builder().userId(UUID.randomUUID().toString()).build();
+
+        //When
+        hookInvalidationReceiver.receiveHookInvalidationMessage(hookInvalidation);
+
+        //Then
+        verify(hookRoutingTable).reload(hookInvalidation.getUserId());
+        verify(counterService).increment("message.process.invalidation.success");
+    }
+
+    @Test
+    public void receiveHookInvalidationMessage_whenException_shouldLogError() {
+        //Given
+        final HookInvalidation hookInvalidation = HookInvalidation.builder().userId(UUID.randomUUID().toString()).build();
+        doThrow(RuntimeException.class).when(hookRoutingTable).reload(hookInvalidation.getUserId());
+
+        //When
+        hookInvalidationReceiver.receiveHookInvalidationMessage(hookInvalidation);
+
+        //Then
+        verify(hookRoutingTable).reload(hookInvalidation.getUserId());
+        verify(counterService).increment("message.process.invalidation.error");
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.exception.ListenerExecutionFailedException;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RetryRouterTest {
+
+    private static final String QUEUE = "test.queue";
+    private static final String DEAD_LETTER_EXCHANGE = "test.dlx";
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private AmqpAdmin amqpAdmin;
+
+    @Mock
+    private CounterService counterService;
+
+    private RetryRouter retryRouter;
+
+    @Before
+    public void setUp() {
+        retryRouter = new RetryRouter(rabbitTemplate, amqpAdmin, counterService, true, MAX_ATTEMPTS, 1000, 2.0, 3000, DEAD_LETTER_EXCHANGE);
+    }
+
+    @Test
+    public void recover_whenFirstFailure_shouldSendToFirstDelayQueue() {
+        // Given
+        final Message message = getMessage(null);
+        final ArgumentCaptor<Queue> queue = ArgumentCaptor.forClass(Queue.class);
+
+        // When
+        retryRouter.recover(message, new RuntimeException("boom"));
+
+        // Then
+        verify(amqpAdmin).declareQueue(queue.capture());
+        assertThat(queue.getValue().getName()).isEqualTo(QUEUE + ".delay.1000");
+        assertThat(queue.getValue().getArguments())
+                .containsEntry("x-message-ttl", 1000L)
+                .containsEntry("x-dead-letter-exchange", "")
+                .containsEntry("x-dead-letter-routing-key", QUEUE);
+        verify(rabbitTemplate).send("", QUEUE + ".delay.1000", message);
+        assertThat(message.getMessageProperties().getHeaders())
+                .containsEntry(RetryRouter.RETRY_COUNT_HEADER, 1)
+                .containsEntry(RetryRouter.ORIGINAL_QUEUE_HEADER, QUEUE)
+                .containsEntry(RetryRouter.ERROR_HEADER, "java.lang.RuntimeException: boom");
+        verify(counterService).increment("message.retry.scheduled");
+    }
+
+    @Test
+    public void recover_whenRetriedBefore_shouldBackOffExponentiallyUpToMaxDelay() {
+        // Given
+        final Message message = getMessage(2);
+
+        // When
+        retryRouter.recover(message, new RuntimeException());
+
+        // Then
+        verify(rabbitTemplate).send("", QUEUE + ".delay.3000", message);
+        assertThat(message.getMessageProperties().getHeaders()).containsEntry(RetryRouter.RETRY_COUNT_HEADER, 3);
+    }
+
+    @Test
+    public void recover_whenDelayQueueAlreadyDeclared_shouldNotDeclareAgain() {
+        // When
+        retryRouter.recover(getMessage(null), new RuntimeException());
+        retryRouter.recover(getMessage(null), new RuntimeException());
+
+        // Then
+        verify(amqpAdmin, times(1)).declareQueue(any(Queue.class));
+        verify(rabbitTemplate, times(2)).send(eq(""), eq(QUEUE + ".delay.1000"), any(Message.class));
+    }
+
+    @Test
+    public void recover_whenAttemptsExhausted_shouldDeadLetter() {
+        // Given
+        final Message message = getMessage(MAX_ATTEMPTS);
+
+        // When
+        retryRouter.recover(message, new RuntimeException());
+
+        // Then
+        verify(rabbitTemplate).send(DEAD_LETTER_EXCHANGE, QUEUE, message);
+        verifyZeroInteractions(amqpAdmin);
+        verify(counterService).increment("message.retry.deadlettered");
+    }
+
+    @Test
+    public void recover_whenMessageCannotBeConverted_shouldDeadLetterImmediately() {
+        // Given
+        final Message message = getMessage(null);
+        final Throwable cause = new ListenerExecutionFailedException("failed", new MessageConversionException("bad payload"), message);
+
+        // When
+        retryRouter.recover(message, cause);
+
+        // Then
+        verify(rabbitTemplate).send(DEAD_LETTER_EXCHANGE, QUEUE, message);
+        verifyZeroInteractions(amqpAdmin);
+    }
+
+    private static Message getMessage(Integer retries) {
+        final MessageProperties properties = new MessageProperties();
+        properties.setConsumerQueue(QUEUE);
+        if (retries != null) {
+            properties.setHeader(RetryRouter.RETRY_COUNT_HEADER, retries);
+        }
+        return new Message(new byte[]{1}, properties);
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.rabbitmq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.eventdispatcher.client.WireFormat;
+import io.barracks.eventdispatcher.model.DeviceChangeEvent;
+import io.barracks.eventdispatcher.model.DeviceEvent;
+import io.barracks.eventdispatcher.utils.DeviceChangeEventUtils;
+import io.barracks.eventdispatcher.utils.DeviceEventUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class WireFormatMessageConverterTest {
+
+    private ObjectMapper objectMapper;
+
+    private Jackson2JsonMessageConverter jsonMessageConverter;
+
+    @Before
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        jsonMessageConverter = new Jackson2JsonMessageConverter();
+        jsonMessageConverter.setJsonObjectMapper(objectMapper);
+    }
+
+    @Test
+    public void toMessage_whenSmile_shouldRoundTripAndBeSmallerThanJson() {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final WireFormatMessageConverter converter = new WireFormatMessageConverter(objectMapper, WireFormat.SMILE);
+
+        // When
+        final Message message = converter.toMessage(deviceEvent, new MessageProperties());
+
+        // Then
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(WireFormat.SMILE.getContentType());
+        assertThat(message.getMessageProperties().getContentLength()).isEqualTo(message.getBody().length);
+        assertThat(message.getBody().length).isLessThan(jsonMessageConverter.toMessage(deviceEvent, new MessageProperties()).getBody().length);
+        assertThat(converter.fromMessage(message)).isEqualTo(deviceEvent);
+    }
+
+    @Test
+    public void toMessage_whenCbor_shouldRoundTrip() {
+        // Given
+        final DeviceChangeEvent deviceChangeEvent = DeviceChangeEventUtils.getDeviceChangeEvent();
+        final WireFormatMessageConverter converter = new WireFormatMessageConverter(objectMapper, WireFormat.CBOR);
+
+        // When
+        final Message message = converter.toMessage(deviceChangeEvent, new MessageProperties());
+
+        // Then
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(WireFormat.CBOR.getContentType());
+        assertThat(converter.fromMessage(message)).isEqualTo(deviceChangeEvent);
+    }
+
+    @Test
+    public void fromMessage_whenContentTypeDoesNotMatch_shouldThrowConversionException() {
+        // Given
+        final Message message = jsonMessageConverter.toMessage(DeviceEventUtils.getDeviceEvent(), new MessageProperties());
+        final WireFormatMessageConverter converter = new WireFormatMessageConverter(objectMapper, WireFormat.CBOR);
+
+        // When / Then
+        assertThatExceptionOfType(MessageConversionException.class).isThrownBy(() -> converter.fromMessage(message));
+    }
+
+    @Test
+    public void fromMessage_whenDelegatingOnContentType_shouldDecodeEveryFormat() {
+        // Given
+        final DeviceEvent deviceEvent = DeviceEventUtils.getDeviceEvent();
+        final ContentTypeDelegatingMessageConverter converter = new ContentTypeDelegatingMessageConverter(jsonMessageConverter);
+        converter.addDelegate(WireFormat.SMILE.getContentType(), new WireFormatMessageConverter(objectMapper, WireFormat.SMILE));
+        converter.addDelegate(WireFormat.CBOR.getContentType(), new WireFormatMessageConverter(objectMapper, WireFormat.CBOR));
+
+        // When / Then
+        for (WireFormat wireFormat : WireFormat.values()) {
+            final MessageProperties properties = new MessageProperties();
+            properties.setContentType(wireFormat.getContentType());
+            final Message message = converter.toMessage(deviceEvent, properties);
+            assertThat(message.getMessageProperties().getContentType()).isEqualTo(wireFormat.getContentType());
+            assertThat(converter.fromMessage(message)).isEqualTo(deviceEvent);
+        }
+    }
+
+}
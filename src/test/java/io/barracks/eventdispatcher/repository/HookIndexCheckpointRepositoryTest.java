@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.repository;
+
+import io.barracks.eventdispatcher.repository.document.HookIndexCheckpoint;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@BarracksRepositoryTest
+public class HookIndexCheckpointRepositoryTest {
+
+    @Autowired
+    private HookIndexCheckpointRepository checkpointRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        checkpointRepository.deleteAll();
+    }
+
+    @Test
+    public void save_whenCheckpointExists_shouldReplaceTimestamp() {
+        // Given
+        final String id = UUID.randomUUID().toString();
+        checkpointRepository.save(new HookIndexCheckpoint(id, 1L));
+
+        // When
+        checkpointRepository.save(new HookIndexCheckpoint(id, 2L));
+
+        // Then
+        assertThat(checkpointRepository.count()).isEqualTo(1);
+        assertThat(checkpointRepository.findOne(id)).isEqualTo(new HookIndexCheckpoint(id, 2L));
+    }
+
+}
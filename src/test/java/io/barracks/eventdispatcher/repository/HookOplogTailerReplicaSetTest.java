@@ -0,0 +1,232 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClient;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.config.Storage;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import io.barracks.eventdispatcher.manager.HookRoutingTable;
+import io.barracks.eventdispatcher.model.EventType;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.Webhook;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static io.barracks.eventdispatcher.utils.WebhookUtils.getWebhook;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class HookOplogTailerReplicaSetTest {
+
+    private static final String REPLICA_SET = "rs0";
+
+    private static MongodExecutable mongodExecutable;
+
+    private static MongoClient mongoClient;
+
+    private SimpleMongoDbFactory mongoDbFactory;
+
+    private MongoTemplate operations;
+
+    private HookRepositoryImpl hookRepositoryImpl;
+
+    private HookRepository hookRepository;
+
+    private HookIndexCheckpointRepository checkpointRepository;
+
+    private HookRoutingTable hookRoutingTable;
+
+    private HookOplogTailer hookOplogTailer;
+
+    private String checkpointId;
+
+    @BeforeClass
+    public static void startReplicaSet() throws Exception {
+        final int port = Network.getFreeServerPort();
+        mongodExecutable = MongodStarter.getDefaultInstance().prepare(new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(port, Network.localhostIsIPv6()))
+                .replication(new Storage(null, REPLICA_SET, 10))
+                .build());
+        mongodExecutable.start();
+        mongoClient = new MongoClient("localhost", port);
+        mongoClient.getDB("admin").command(new BasicDBObject("replSetInitiate", new BasicDBObject("_id", REPLICA_SET)
+                .append("members", Collections.singletonList(new BasicDBObject("_id", 0).append("host", "localhost:" + port)))));
+        waitFor(() -> Boolean.TRUE.equals(mongoClient.getDB("admin").command("isMaster").get("ismaster")));
+    }
+
+    @AfterClass
+    public static void stopReplicaSet() {
+        if (mongoClient != null) {
+            mongoClient.close();
+        }
+        if (mongodExecutable != null) {
+            mongodExecutable.stop();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mongoDbFactory = new SimpleMongoDbFactory(mongoClient, "barracks");
+        operations = new MongoTemplate(mongoDbFactory);
+        hookRepositoryImpl = new HookRepositoryImpl(operations);
+        hookRepository = mock(HookRepository.class);
+        doAnswer(invocation -> hookRepositoryImpl.getAllHooks()).when(hookRepository).getAllHooks();
+        checkpointRepository = new MongoRepositoryFactory(operations).getRepository(HookIndexCheckpointRepository.class);
+        hookRoutingTable = new HookRoutingTable(hookRepository, mock(CounterService.class), mock(GaugeService.class), true);
+        checkpointId = UUID.randomUUID().toString();
+        operations.dropCollection(Hook.class);
+        hookOplogTailer = getTailer();
+    }
+
+    @After
+    public void tearDown() {
+        hookOplogTailer.stop();
+    }
+
+    @Test
+    public void start_whenHookInserted_shouldAddHookToRoutingTable() throws Exception {
+        // Given
+        final Webhook webhook = getWebhook();
+        startTailer(hookOplogTailer);
+
+        // When
+        hookRepositoryImpl.saveHook(webhook);
+
+        // Then
+        waitFor(() -> getHooks(webhook).contains(webhook));
+    }
+
+    @Test
+    public void start_whenHookUpdated_shouldReplaceHookInRoutingTable() throws Exception {
+        // Given
+        final Webhook webhook = getWebhook();
+        final Webhook updated = webhook.toBuilder().name(UUID.randomUUID().toString()).url(UUID.randomUUID().toString()).build();
+        hookRepositoryImpl.saveHook(webhook);
+        startTailer(hookOplogTailer);
+        assertThat(getHooks(webhook)).containsExactly(webhook);
+
+        // When
+        hookRepositoryImpl.updateHook(webhook.getName(), updated);
+
+        // Then
+        waitFor(() -> getHooks(webhook).contains(updated));
+        assertThat(getHooks(webhook)).containsExactly(updated);
+    }
+
+    @Test
+    public void start_whenHookDeleted_shouldRemoveHookFromRoutingTable() throws Exception {
+        // Given
+        final Webhook webhook = getWebhook();
+        hookRepositoryImpl.saveHook(webhook);
+        startTailer(hookOplogTailer);
+        assertThat(getHooks(webhook)).containsExactly(webhook);
+
+        // When
+        hookRepositoryImpl.deleteHook(webhook.getUserId(), webhook.getName());
+
+        // Then
+        waitFor(() -> getHooks(webhook).isEmpty());
+        assertThat(hookRoutingTable.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void start_whenRestartedFromCheckpoint_shouldApplyMissedChangesWithoutReloading() throws Exception {
+        // Given
+        final Webhook webhook = getWebhook();
+        final Webhook missed = getWebhook(webhook.getUserId());
+        startTailer(hookOplogTailer);
+        hookRepositoryImpl.saveHook(webhook);
+        waitFor(() -> getHooks(webhook).contains(webhook));
+        hookOplogTailer.stop();
+        hookRepositoryImpl.saveHook(missed);
+
+        // When
+        hookOplogTailer = getTailer();
+        startTailer(hookOplogTailer);
+
+        // Then
+        waitFor(() -> getHooks(webhook).contains(missed));
+        assertThat(getHooks(webhook)).containsOnly(webhook, missed);
+        verify(hookRepository, times(1)).getAllHooks();
+    }
+
+    private HookOplogTailer getTailer() {
+        return new HookOplogTailer(
+                mongoDbFactory,
+                operations,
+                checkpointRepository,
+                hookRoutingTable,
+                mock(CounterService.class),
+                true,
+                checkpointId,
+                100,
+                10,
+                0,
+                1
+        );
+    }
+
+    private void startTailer(HookOplogTailer tailer) throws Exception {
+        tailer.start();
+        assertThat(tailer.isRunning()).isTrue();
+        waitFor(() -> checkpointRepository.exists(checkpointId));
+    }
+
+    private List<Hook> getHooks(Webhook webhook) {
+        final Optional<List<Hook>> hooks = hookRoutingTable.getHooks(webhook.getUserId(), EventType.PING);
+        return hooks.orElse(Collections.emptyList());
+    }
+
+    private static void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.get()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(50);
+        }
+    }
+
+}
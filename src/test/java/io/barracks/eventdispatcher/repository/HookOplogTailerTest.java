@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import io.barracks.eventdispatcher.manager.HookRoutingTable;
+import io.barracks.eventdispatcher.model.Hook;
+import io.barracks.eventdispatcher.model.Webhook;
+import io.barracks.eventdispatcher.repository.document.HookIndexCheckpoint;
+import org.bson.types.BSONTimestamp;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.util.List;
+import java.util.UUID;
+
+import static io.barracks.eventdispatcher.utils.WebhookUtils.getWebhook;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HookOplogTailerTest {
+
+    @Mock
+    private MongoDbFactory mongoDbFactory;
+
+    @Mock
+    private MongoOperations operations;
+
+    @Mock
+    private MongoConverter converter;
+
+    @Mock
+    private HookIndexCheckpointRepository checkpointRepository;
+
+    @Mock
+    private HookRoutingTable hookRoutingTable;
+
+    @Mock
+    private CounterService counterService;
+
+    private HookOplogTailer hookOplogTailer;
+
+    private String checkpointId;
+
+    @Before
+    public void setUp() {
+        hookOplogTailer = new HookOplogTailer(
+                mongoDbFactory,
+                operations,
+                checkpointRepository,
+                hookRoutingTable,
+                counterService,
+                true,
+                checkpointId = UUID.randomUUID().toString(),
+                1000,
+                100,
+                1000,
+                100
+        );
+        doReturn(converter).when(operations).getConverter();
+    }
+
+    @Test
+    public void apply_whenInsert_shouldPutReadHook() {
+        // Given
+        final Webhook webhook = getWebhook();
+        final DBObject object = new BasicDBObject("_id", webhook.getId());
+        final DBObject entry = new BasicDBObject("op", "i").append("o", object);
+        doReturn(webhook).when(converter).read(Hook.class, object);
+
+        // When
+        hookOplogTailer.apply(entry);
+
+        // Then
+        verify(converter).read(Hook.class, object);
+        verify(hookRoutingTable).put(webhook);
+        verify(counterService).increment("hooks.oplog.applied");
+    }
+
+    @Test
+    public void apply_whenUpdate_shouldPutFreshHook() {
+        // Given
+        final Webhook webhook = getWebhook();
+        final DBObject entry = new BasicDBObject("op", "u")
+                .append("o", new BasicDBObject("$set", new BasicDBObject("url", webhook.getUrl())))
+                .append("o2", new BasicDBObject("_id", webhook.getId()));
+        doReturn(webhook).when(operations).findById(webhook.getId(), Hook.class);
+
+        // When
+        hookOplogTailer.apply(entry);
+
+        // Then
+        verify(operations).findById(webhook.getId(), Hook.class);
+        verify(hookRoutingTable).put(webhook);
+        verify(counterService).increment("hooks.oplog.applied");
+    }
+
+    @Test
+    public void apply_whenUpdateOfDeletedHook_shouldRemoveHook() {
+        // Given
+        final String id = UUID.randomUUID().toString();
+        final DBObject entry = new BasicDBObject("op", "u")
+                .append("o", new BasicDBObject())
+                .append("o2", new BasicDBObject("_id", id));
+        doReturn(null).when(operations).findById(id, Hook.class);
+
+        // When
+        hookOplogTailer.apply(entry);
+
+        // Then
+        verify(hookRoutingTable).remove(id);
+        verify(hookRoutingTable, never()).put(any(Hook.class));
+    }
+
+    @Test
+    public void apply_whenDelete_shouldRemoveHook() {
+        // Given
+        final String id = UUID.randomUUID().toString();
+        final DBObject entry = new BasicDBObject("op", "d").append("o", new BasicDBObject("_id", id));
+
+        // When
+        hookOplogTailer.apply(entry);
+
+        // Then
+        verify(hookRoutingTable).remove(id);
+        verify(counterService).increment("hooks.oplog.applied");
+    }
+
+    @Test
+    public void apply_whenCommand_shouldReloadTable() {
+        // Given
+        final DBObject entry = new BasicDBObject("op", "c").append("o", new BasicDBObject("drop", "hooks"));
+
+        // When
+        hookOplogTailer.apply(entry);
+
+        // Then
+        verify(hookRoutingTable).reload();
+    }
+
+    @Test
+    public void getQuery_shouldMatchHookEntriesAndCommandsDroppingHooks() {
+        // Given
+        final BSONTimestamp position = new BSONTimestamp(1487000000, 42);
+        final DB db = mock(DB.class);
+        doReturn(db).when(mongoDbFactory).getDb();
+        doReturn("barracks").when(db).getName();
+        doReturn("hooks").when(operations).getCollectionName(Hook.class);
+
+        // When
+        final DBObject result = hookOplogTailer.getQuery(position);
+
+        // Then
+        assertThat(result.get("ts")).isEqualTo(new BasicDBObject("$gt", position));
+        assertThat((List<?>) result.get("$or")).containsExactly(
+                new BasicDBObject("ns", "barracks.hooks"),
+                new BasicDBObject("ns", "barracks.$cmd").append("o.drop", "hooks"),
+                new BasicDBObject("ns", "barracks.$cmd").append("o.dropDatabase", 1),
+                new BasicDBObject("ns", "admin.$cmd").append("o.renameCollection", "barracks.hooks")
+        );
+    }
+
+    @Test
+    public void apply_whenNoop_shouldIgnoreEntry() {
+        // Given
+        final DBObject entry = new BasicDBObject("op", "n").append("o", new BasicDBObject());
+
+        // When
+        hookOplogTailer.apply(entry);
+
+        // Then
+        verifyZeroInteractions(hookRoutingTable, counterService);
+    }
+
+    @Test
+    public void getStartPosition_whenCheckpointWithinOplog_shouldResumeFromCheckpoint() {
+        // Given
+        final BSONTimestamp checkpoint = new BSONTimestamp(1487000100, 1);
+        mockOplog(new BSONTimestamp(1487000000, 1), new BSONTimestamp(1487000200, 1));
+        doReturn(new HookIndexCheckpoint(checkpointId, HookOplogTailer.toLong(checkpoint))).when(checkpointRepository).findOne(checkpointId);
+
+        // When
+        final BSONTimestamp result = hookOplogTailer.getStartPosition(null);
+
+        // Then
+        assertThat(result).isEqualTo(checkpoint);
+        verify(hookRoutingTable, never()).reload();
+        verify(checkpointRepository, never()).save(any(HookIndexCheckpoint.class));
+    }
+
+    @Test
+    public void getStartPosition_whenCheckpointOlderThanOplog_shouldReloadAndResetCheckpoint() {
+        // Given
+        final BSONTimestamp latest = new BSONTimestamp(1487000200, 1);
+        mockOplog(new BSONTimestamp(1487000000, 1), latest);
+        doReturn(new HookIndexCheckpoint(checkpointId, HookOplogTailer.toLong(new BSONTimestamp(1486999999, 1)))).when(checkpointRepository).findOne(checkpointId);
+
+        // When
+        final BSONTimestamp result = hookOplogTailer.getStartPosition(null);
+
+        // Then
+        assertThat(result).isEqualTo(latest);
+        verify(hookRoutingTable).reload();
+        verify(checkpointRepository).save(new HookIndexCheckpoint(checkpointId, HookOplogTailer.toLong(latest)));
+        verify(counterService).increment("hooks.oplog.rollover");
+    }
+
+    @Test
+    public void getStartPosition_whenReconnectingPastOplog_shouldReloadAndResetCheckpoint() {
+        // Given
+        final BSONTimestamp latest = new BSONTimestamp(1487000200, 1);
+        mockOplog(new BSONTimestamp(1487000000, 1), latest);
+
+        // When
+        final BSONTimestamp result = hookOplogTailer.getStartPosition(new BSONTimestamp(1486999999, 1));
+
+        // Then
+        assertThat(result).isEqualTo(latest);
+        verify(checkpointRepository, never()).findOne(anyString());
+        verify(hookRoutingTable).reload();
+        verify(checkpointRepository).save(new HookIndexCheckpoint(checkpointId, HookOplogTailer.toLong(latest)));
+        verify(counterService).increment("hooks.oplog.rollover");
+    }
+
+    @Test
+    public void getStartPosition_whenNoCheckpoint_shouldReloadAndStartFromOplogEnd() {
+        // Given
+        final BSONTimestamp latest = new BSONTimestamp(1487000200, 1);
+        mockOplog(new BSONTimestamp(1487000000, 1), latest);
+
+        // When
+        final BSONTimestamp result = hookOplogTailer.getStartPosition(null);
+
+        // Then
+        assertThat(result).isEqualTo(latest);
+        verify(hookRoutingTable).reload();
+        verify(checkpointRepository).save(new HookIndexCheckpoint(checkpointId, HookOplogTailer.toLong(latest)));
+        verify(counterService, never()).increment("hooks.oplog.rollover");
+    }
+
+    @Test
+    public void toLong_whenConvertedBack_shouldReturnSameTimestamp() {
+        // Given
+        final BSONTimestamp timestamp = new BSONTimestamp(1487000000, 42);
+
+        // When
+        final BSONTimestamp result = HookOplogTailer.fromLong(HookOplogTailer.toLong(timestamp));
+
+        // Then
+        assertThat(result).isEqualTo(timestamp);
+        assertThat(HookOplogTailer.toLong(new BSONTimestamp(1487000000, 43))).isGreaterThan(HookOplogTailer.toLong(timestamp));
+    }
+
+    private void mockOplog(BSONTimestamp oldest, BSONTimestamp latest) {
+        final DB local = mock(DB.class);
+        final DBCollection oplog = mock(DBCollection.class);
+        final DBCursor cursor = mock(DBCursor.class);
+        final DBCursor oldestCursor = mockCursor(oldest);
+        final DBCursor latestCursor = mockCursor(latest);
+        doReturn(local).when(mongoDbFactory).getDb(HookOplogTailer.LOCAL_DATABASE);
+        doReturn(oplog).when(local).getCollection(HookOplogTailer.OPLOG_COLLECTION);
+        doReturn(cursor).when(oplog).find();
+        doReturn(oldestCursor).when(cursor).sort(new BasicDBObject("$natural", 1));
+        doReturn(latestCursor).when(cursor).sort(new BasicDBObject("$natural", -1));
+    }
+
+    private DBCursor mockCursor(BSONTimestamp timestamp) {
+        final DBCursor cursor = mock(DBCursor.class);
+        doReturn(cursor).when(cursor).limit(1);
+        doReturn(true).when(cursor).hasNext();
+        doReturn(new BasicDBObject("ts", timestamp)).when(cursor).next();
+        return cursor;
+    }
+
+}
@@ -24,6 +24,7 @@
 
 package io.barracks.eventdispatcher.repository;
 
+import io.barracks.eventdispatcher.model.BigQueryHook;
 import io.barracks.eventdispatcher.model.EventType;
 import io.barracks.eventdispatcher.model.Hook;
 import io.barracks.eventdispatcher.model.Webhook;
@@ -40,12 +41,15 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static io.barracks.eventdispatcher.utils.BigQueryHookUtils.getBigQueryHook;
 import static io.barracks.eventdispatcher.utils.WebhookUtils.getWebhook;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -202,6 +206,84 @@ public class HookRepositoryTest {
         assertThat(result).hasSize(2).isSubsetOf(hookList);
     }
 
+    @Test
+    public void streamHooksByEventType_whenHooks_shouldReturnMatchingHooksOrderedById() {
+        // Given
+        final String userId1 = UUID.randomUUID().toString();
+        final String userId2 = UUID.randomUUID().toString();
+
+        final Webhook hook1 = getWebhook(userId1).toBuilder().eventType(EventType.PING).build();
+        final Webhook hook2 = getWebhook(userId1).toBuilder().eventType(EventType.PING).build();
+        final Webhook hook3 = getWebhook(userId1).toBuilder().eventType(EventType.ENROLLMENT).build();
+        final Webhook hook4 = getWebhook(userId2).toBuilder().eventType(EventType.PING).build();
+        hookRepository.insert(hook1);
+        hookRepository.insert(hook2);
+        hookRepository.insert(hook3);
+        hookRepository.insert(hook4);
+        final List<Hook> expected = Stream.of(hook1, hook2)
+                .sorted(Comparator.comparing(Hook::getId))
+                .collect(Collectors.toList());
+
+        // When
+        final List<Hook> result;
+        try (Stream<Hook> hooks = hookRepository.streamHooksByEventType(userId1, EventType.PING.name())) {
+            result = hooks.collect(Collectors.toList());
+        }
+
+        // Then
+        assertThat(result).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void streamHooksByEventType_whenBigQueryHook_shouldReturnFullHook() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final BigQueryHook hook = getBigQueryHook(userId);
+        hookRepository.insert(hook);
+
+        // When
+        final List<Hook> result;
+        try (Stream<Hook> hooks = hookRepository.streamHooksByEventType(userId, EventType.PING.name())) {
+            result = hooks.collect(Collectors.toList());
+        }
+
+        // Then
+        assertThat(result).containsExactly(hook);
+    }
+
+    @Test
+    public void getAllHooks_whenHooks_shouldReturnHooksOfAllUsers() {
+        // Given
+        final Webhook hook1 = getWebhook();
+        final Webhook hook2 = getWebhook();
+        hookRepository.insert(hook1);
+        hookRepository.insert(hook2);
+
+        // When
+        final List<Hook> result = hookRepository.getAllHooks();
+
+        // Then
+        assertThat(result).containsExactlyInAnyOrder(hook1, hook2);
+    }
+
+    @Test
+    public void getAllHooksOfUser_whenHooks_shouldReturnHooksOfUser() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Webhook hook1 = getWebhook(userId);
+        final Webhook hook2 = getWebhook(userId).toBuilder().eventType(EventType.ENROLLMENT).build();
+        final Webhook hook3 = getWebhook();
+        hookRepository.insert(hook1);
+        hookRepository.insert(hook2);
+        hookRepository.insert(hook3);
+
+        // When
+        final List<Hook> result = hookRepository.getAllHooks(userId);
+
+        // Then
+        assertThat(result).containsExactlyInAnyOrder(hook1, hook2);
+    }
+
     @Test
     public void updateHook_whenWebhook_shouldReturnWebhook() {
         // Given
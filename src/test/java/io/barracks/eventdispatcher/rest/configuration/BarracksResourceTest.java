@@ -25,6 +25,7 @@
 package io.barracks.eventdispatcher.rest.configuration;
 
 import io.barracks.eventdispatcher.security.TokenAuthenticationFilter;
+import io.barracks.eventdispatcher.security.TokenCacheEndpoint;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.ComponentScan;
@@ -40,7 +41,7 @@ import java.lang.annotation.*;
 @Inherited
 @WebMvcTest(
         secure = false,
-        excludeFilters = @ComponentScan.Filter(classes = {TokenAuthenticationFilter.class}, type = FilterType.ASSIGNABLE_TYPE),
+        excludeFilters = @ComponentScan.Filter(classes = {TokenAuthenticationFilter.class, TokenCacheEndpoint.class}, type = FilterType.ASSIGNABLE_TYPE),
         includeFilters = @ComponentScan.Filter(classes = {EnableSpringDataWebSupport.class}, type = FilterType.ANNOTATION)
 )
 @EnableSpringDataWebSupport
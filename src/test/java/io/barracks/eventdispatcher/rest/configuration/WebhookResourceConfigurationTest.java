@@ -28,6 +28,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import io.barracks.commons.test.PagedResourcesUtils;
 import io.barracks.commons.util.Endpoint;
+import io.barracks.eventdispatcher.model.ChangeFormat;
 import io.barracks.eventdispatcher.model.EventType;
 import io.barracks.eventdispatcher.model.Hook;
 import io.barracks.eventdispatcher.model.Webhook;
@@ -114,6 +115,7 @@ public class WebhookResourceConfigurationTest {
                 .name("hookName")
                 .url("http://webhook/data")
                 .userId("userName")
+                .changeFormat(ChangeFormat.DELTA)
                 .build();
 
         final Hook hook = entity.toHook();
@@ -139,14 +141,16 @@ public class WebhookResourceConfigurationTest {
                                 fieldWithPath("eventType").description("The type of event we send to the hook"),
                                 fieldWithPath("name").description("The name of this webhook"),
                                 fieldWithPath("userId").description("The ID of the user"),
-                                fieldWithPath("url").description("The url for this webhook")
+                                fieldWithPath("url").description("The url for this webhook"),
+                                fieldWithPath("changeFormat").description("The format of the device change events sent to this hook: `FULL` (the complete device request) or `DELTA` (a JSON Patch of the changes). Defaults to `FULL`").optional()
                         ),
                         responseFields(
                                 fieldWithPath("type").description("The type of hook we consider"),
                                 fieldWithPath("userId").description("The ID of the user"),
                                 fieldWithPath("name").description("The name of this webhook"),
                                 fieldWithPath("eventType").description("The type of event we send to the hook"),
-                                fieldWithPath("url").description("The url for this webhook")
+                                fieldWithPath("url").description("The url for this webhook"),
+                                fieldWithPath("changeFormat").description("The format of the device change events sent to this hook: `FULL` (the complete device request) or `DELTA` (a JSON Patch of the changes). Defaults to `FULL`")
                         )
                 ));
     }
@@ -162,6 +166,7 @@ public class WebhookResourceConfigurationTest {
                 .name("hookName")
                 .url("http://webhook/data")
                 .userId("userName")
+                .changeFormat(ChangeFormat.DELTA)
                 .build();
 
         final Hook hook = entity.toHook();
@@ -194,6 +199,7 @@ public class WebhookResourceConfigurationTest {
                 .name("hookName")
                 .url("http://webhook/data")
                 .userId("userName")
+                .changeFormat(ChangeFormat.DELTA)
                 .build();
 
         final Hook hook = entity.toHook();
@@ -222,14 +228,16 @@ public class WebhookResourceConfigurationTest {
                                 fieldWithPath("eventType").description("The type of event we send to the hook"),
                                 fieldWithPath("name").description("The name of this webhook"),
                                 fieldWithPath("userId").description("The ID of the user"),
-                                fieldWithPath("url").description("The url for this webhook")
+                                fieldWithPath("url").description("The url for this webhook"),
+                                fieldWithPath("changeFormat").description("The format of the device change events sent to this hook: `FULL` (the complete device request) or `DELTA` (a JSON Patch of the changes). Defaults to `FULL`").optional()
                         ),
                         responseFields(
                                 fieldWithPath("type").description("The type of hook we consider"),
                                 fieldWithPath("userId").description("The ID of the user"),
                                 fieldWithPath("name").description("The name of this webhook"),
                                 fieldWithPath("eventType").description("The type of event we send to the hook"),
-                                fieldWithPath("url").description("The url for this webhook")
+                                fieldWithPath("url").description("The url for this webhook"),
+                                fieldWithPath("changeFormat").description("The format of the device change events sent to this hook: `FULL` (the complete device request) or `DELTA` (a JSON Patch of the changes). Defaults to `FULL`")
                         )
                 ));
     }
@@ -246,6 +254,7 @@ public class WebhookResourceConfigurationTest {
                 .name("hookName")
                 .url("http://webhook/data")
                 .userId("userName")
+                .changeFormat(ChangeFormat.DELTA)
                 .build();
 
         final Hook hook = entity.toHook();
@@ -277,6 +286,7 @@ public class WebhookResourceConfigurationTest {
                 .url("http://webhook/data")
                 .eventType(EventType.PING)
                 .userId("userName")
+                .changeFormat(ChangeFormat.DELTA)
                 .build();
         final HookEntity hookEntity = fromHook(hook);
         doReturn(hookEntity).when(webhookResource).getHook(eq(name), any(Principal.class));
@@ -301,7 +311,8 @@ public class WebhookResourceConfigurationTest {
                                 fieldWithPath("userId").description("The ID of the user"),
                                 fieldWithPath("name").description("The name of this webhook"),
                                 fieldWithPath("eventType").description("The type of event we send to the hook"),
-                                fieldWithPath("url").description("The url for this webhook")
+                                fieldWithPath("url").description("The url for this webhook"),
+                                fieldWithPath("changeFormat").description("The format of the device change events sent to this hook: `FULL` (the complete device request) or `DELTA` (a JSON Patch of the changes). Defaults to `FULL`")
                         )
                 ));
     }
@@ -315,6 +326,7 @@ public class WebhookResourceConfigurationTest {
                 .name("hookName")
                 .url("http://webhook/data")
                 .userId("userName")
+                .changeFormat(ChangeFormat.DELTA)
                 .build();
         final HookEntity hookEntity = fromHook(hook);
         doReturn(hookEntity).when(webhookResource).getHook(eq(name), any(Principal.class));
@@ -54,6 +54,20 @@ public class HookEntityTest {
         assertThat(result).isEqualTo(excepted);
     }
 
+    @Test
+    public void toHook_whenDeltaChangeFormat_shouldKeepChangeFormat() {
+        //Given
+        final HookEntity entity = HookEntityUtils.getWebHookEntity().toBuilder()
+                .changeFormat(ChangeFormat.DELTA)
+                .build();
+
+        //When
+        final Hook result = entity.toHook();
+
+        //Then
+        assertThat(result.getChangeFormat()).isEqualTo(ChangeFormat.DELTA);
+    }
+
     @Test
     public void toHook_whenGoogleAnalytics_shouldReturnGAHook() {
         //Given
@@ -100,6 +114,7 @@ public class HookEntityTest {
                 .name(hook.getName())
                 .url(hook.getUrl())
                 .type("web")
+                .changeFormat(hook.getChangeFormat())
                 .build();
 
         //When
@@ -119,6 +134,7 @@ public class HookEntityTest {
                 .name(hook.getName())
                 .gaTrackingId(hook.getGaTrackingId())
                 .type("google_analytics")
+                .changeFormat(hook.getChangeFormat())
                 .build();
 
         //When
@@ -138,6 +154,7 @@ public class HookEntityTest {
                 .name(hook.getName())
                 .googleClientSecret(hook.getGoogleClientSecret().getHiddenClientSecret())
                 .type("bigquery")
+                .changeFormat(hook.getChangeFormat())
                 .build();
 
         //When
@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.eventdispatcher.security;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    @Mock
+    private CounterService counterService;
+
+    private SingleFlight<String, String> singleFlight;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        singleFlight = new SingleFlight<>(counterService, "test");
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void execute_whenCalledConcurrentlyWithSameKey_shouldCallSupplierOnce() throws Exception {
+        // Given
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // When
+        final List<Future<String>> results = submitAll(() -> singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "value";
+        }));
+        awaitInFlight();
+        waitForWaiters();
+        release.countDown();
+
+        // Then
+        for (Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(singleFlight.inFlight()).isEqualTo(0);
+        verify(counterService, times(CALLERS - 1)).increment("singleflight.test.coalesced");
+    }
+
+    @Test
+    public void execute_whenSupplierFails_shouldPropagateSameExceptionToAllCallers() throws Exception {
+        // Given
+        final IllegalStateException failure = new IllegalStateException("boom");
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // When
+        final List<Future<String>> results = submitAll(() -> singleFlight.execute("key", () -> {
+            await(release);
+            throw failure;
+        }));
+        awaitInFlight();
+        waitForWaiters();
+        release.countDown();
+
+        // Then
+        for (Future<String> result : results) {
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                    .withCause(failure);
+        }
+        assertThat(singleFlight.inFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void execute_whenPreviousCallCompleted_shouldCallSupplierAgain() {
+        // Given
+        final AtomicInteger calls = new AtomicInteger();
+        singleFlight.execute("key", () -> "value" + calls.incrementAndGet());
+
+        // When
+        final String result = singleFlight.execute("key", () -> "value" + calls.incrementAndGet());
+
+        // Then
+        assertThat(result).isEqualTo("value2");
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void execute_whenKeysDiffer_shouldNotCoalesce() {
+        // Given
+        final AtomicInteger calls = new AtomicInteger();
+
+        // When
+        final String first = singleFlight.execute("first", () -> singleFlight.execute("second", () -> "value" + calls.incrementAndGet()));
+
+        // Then
+        assertThat(first).isEqualTo("value1");
+        assertThat(calls.get()).isEqualTo(1);
+        verify(counterService, times(0)).increment("singleflight.test.coalesced");
+    }
+
+    private List<Future<String>> submitAll(Callable<String> callable) {
+        final List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(callable));
+        }
+        return results;
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.inFlight() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void waitForWaiters() throws InterruptedException {
+        Thread.sleep(200);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
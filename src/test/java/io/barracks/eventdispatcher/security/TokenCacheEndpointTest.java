@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.security;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TokenCacheEndpointTest {
+
+    @Mock
+    private TokenUserCache tokenUserCache;
+
+    private TokenCacheEndpoint tokenCacheEndpoint;
+
+    @Before
+    public void setUp() {
+        tokenCacheEndpoint = new TokenCacheEndpoint(tokenUserCache);
+    }
+
+    @Test
+    public void invoke_shouldReturnCacheSize() {
+        // Given
+        doReturn(3L).when(tokenUserCache).size();
+
+        // When
+        final Map<String, Long> result = tokenCacheEndpoint.invoke();
+
+        // Then
+        assertThat(tokenCacheEndpoint.getName()).isEqualTo("tokencache");
+        assertThat(tokenCacheEndpoint.isSensitive()).isTrue();
+        assertThat(result).containsExactly(entry("size", 3L));
+    }
+
+    @Test
+    public void evict_shouldEvictTokenFromCache() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        doReturn(true).when(tokenUserCache).evict(token);
+
+        // When
+        final Map<String, Boolean> result = tokenCacheEndpoint.evict(token);
+
+        // Then
+        verify(tokenUserCache).evict(token);
+        assertThat(result).containsExactly(entry("evicted", true));
+    }
+
+    @Test
+    public void evictAll_shouldEmptyCache() {
+        // Given
+        doReturn(2L).when(tokenUserCache).size();
+
+        // When
+        final Map<String, Long> result = tokenCacheEndpoint.evictAll();
+
+        // Then
+        verify(tokenUserCache).evictAll();
+        assertThat(result).containsExactly(entry("evicted", 2L));
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.barracks.eventdispatcher.security;
+
+import io.barracks.eventdispatcher.client.AuthorizationServiceClient;
+import io.barracks.eventdispatcher.metrics.LatencyHistograms;
+import io.barracks.eventdispatcher.model.User;
+import io.barracks.eventdispatcher.utils.UserUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TokenUserCacheTest {
+
+    @Mock
+    private AuthorizationServiceClient authorizationServiceClient;
+
+    @Mock
+    private CounterService counterService;
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms();
+
+    private TokenUserCache tokenUserCache;
+
+    @Before
+    public void setUp() {
+        tokenUserCache = new TokenUserCache(authorizationServiceClient, counterService, latencyHistograms, 100, 60000, 60000);
+    }
+
+    @Test
+    public void getUser_whenCalledTwice_shouldRequestUserOnce() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = UserUtils.getUser();
+        doReturn(user).when(authorizationServiceClient).requestUserFromToken(token);
+
+        // When
+        final User first = tokenUserCache.getUser(token);
+        final User second = tokenUserCache.getUser(token);
+
+        // Then
+        assertThat(first).isEqualTo(user);
+        assertThat(second).isEqualTo(user);
+        verify(authorizationServiceClient).requestUserFromToken(token);
+        verify(counterService).increment("authorization.token.cache.miss");
+        verify(counterService).increment("authorization.token.cache.hit");
+        assertThat(latencyHistograms.metrics())
+                .extracting("name", "value")
+                .contains(tuple("histogram.dispatch.authorization.token.request.count", 1L));
+    }
+
+    @Test
+    public void getUser_whenTokenRejected_shouldCacheRejection() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final HttpClientErrorException exception = new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+        doThrow(exception).when(authorizationServiceClient).requestUserFromToken(token);
+
+        // When / Then
+        assertThatExceptionOfType(HttpClientErrorException.class).isThrownBy(() -> tokenUserCache.getUser(token));
+        assertThatExceptionOfType(HttpClientErrorException.class).isThrownBy(() -> tokenUserCache.getUser(token));
+        verify(authorizationServiceClient).requestUserFromToken(token);
+        verify(counterService).increment("authorization.token.cache.negative.hit");
+    }
+
+    @Test
+    public void getUser_whenServerError_shouldNotCacheRejection() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        doThrow(new HttpServerErrorException(HttpStatus.BAD_GATEWAY)).when(authorizationServiceClient).requestUserFromToken(token);
+
+        // When / Then
+        assertThatExceptionOfType(HttpServerErrorException.class).isThrownBy(() -> tokenUserCache.getUser(token));
+        assertThatExceptionOfType(HttpServerErrorException.class).isThrownBy(() -> tokenUserCache.getUser(token));
+        verify(authorizationServiceClient, times(2)).requestUserFromToken(token);
+    }
+
+    @Test
+    public void getUser_whenNoToken_shouldBypassCache() {
+        // Given
+        final User user = UserUtils.getUser();
+        doReturn(user).when(authorizationServiceClient).requestUserFromToken(null);
+
+        // When
+        tokenUserCache.getUser(null);
+        tokenUserCache.getUser(null);
+
+        // Then
+        verify(authorizationServiceClient, times(2)).requestUserFromToken(null);
+        assertThat(tokenUserCache.size()).isZero();
+    }
+
+    @Test
+    public void evict_whenTokenCached_shouldRequestUserAgain() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        doReturn(UserUtils.getUser()).when(authorizationServiceClient).requestUserFromToken(token);
+        tokenUserCache.getUser(token);
+
+        // When
+        final boolean result = tokenUserCache.evict(token);
+        tokenUserCache.getUser(token);
+
+        // Then
+        assertThat(result).isTrue();
+        verify(authorizationServiceClient, times(2)).requestUserFromToken(token);
+    }
+
+    @Test
+    public void evict_whenTokenNotCached_shouldReturnFalse() {
+        // When
+        final boolean result = tokenUserCache.evict(UUID.randomUUID().toString());
+
+        // Then
+        assertThat(result).isFalse();
+        verifyZeroInteractions(authorizationServiceClient);
+    }
+
+    @Test
+    public void evictAll_whenTokensCached_shouldEmptyCache() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        doReturn(UserUtils.getUser()).when(authorizationServiceClient).requestUserFromToken(token);
+        tokenUserCache.getUser(token);
+
+        // When
+        tokenUserCache.evictAll();
+
+        // Then
+        assertThat(tokenUserCache.size()).isZero();
+    }
+
+    @Test
+    public void getUser_whenCalledConcurrentlyOnColdCache_shouldRequestUserOnce() throws Exception {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = UserUtils.getUser();
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return user;
+        }).when(authorizationServiceClient).requestUserFromToken(token);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            // When
+            final List<Future<User>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> tokenUserCache.getUser(token)));
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            // Then
+            for (Future<User> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(user);
+            }
+            verify(authorizationServiceClient).requestUserFromToken(token);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
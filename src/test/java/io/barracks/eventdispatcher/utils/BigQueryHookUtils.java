@@ -25,6 +25,7 @@
 package io.barracks.eventdispatcher.utils;
 
 import io.barracks.eventdispatcher.model.BigQueryHook;
+import io.barracks.eventdispatcher.model.ChangeFormat;
 import io.barracks.eventdispatcher.model.EventType;
 
 import java.util.UUID;
@@ -40,6 +41,7 @@ public class BigQueryHookUtils {
                 .name(UUID.randomUUID().toString())
                 .googleClientSecret(GoogleClientSecretUtils.getGoogleClientSecret())
                 .userId(UUID.randomUUID().toString())
+                .changeFormat(ChangeFormat.FULL)
                 .build();
         assertThat(bigQueryHook).hasNoNullFieldsOrProperties();
         return bigQueryHook;
@@ -52,6 +54,7 @@ public class BigQueryHookUtils {
                 .name(UUID.randomUUID().toString())
                 .googleClientSecret(GoogleClientSecretUtils.getGoogleClientSecret())
                 .userId(userId)
+                .changeFormat(ChangeFormat.FULL)
                 .build();
         assertThat(bigQueryHook).hasNoNullFieldsOrProperties();
         return bigQueryHook;
@@ -24,6 +24,7 @@
 
 package io.barracks.eventdispatcher.utils;
 
+import io.barracks.eventdispatcher.model.ChangeFormat;
 import io.barracks.eventdispatcher.model.EventType;
 import io.barracks.eventdispatcher.model.GoogleAnalyticsHook;
 
@@ -40,6 +41,7 @@ public class GoogleAnalyticsHookUtils {
                 .name(UUID.randomUUID().toString())
                 .gaTrackingId(UUID.randomUUID().toString())
                 .userId(UUID.randomUUID().toString())
+                .changeFormat(ChangeFormat.FULL)
                 .build();
         assertThat(googleAnalyticsHook).hasNoNullFieldsOrProperties();
         return googleAnalyticsHook;
@@ -52,6 +54,7 @@ public class GoogleAnalyticsHookUtils {
                 .name(UUID.randomUUID().toString())
                 .gaTrackingId(UUID.randomUUID().toString())
                 .userId(userId)
+                .changeFormat(ChangeFormat.FULL)
                 .build();
         assertThat(googleAnalyticsHook).hasNoNullFieldsOrProperties();
         return googleAnalyticsHook;
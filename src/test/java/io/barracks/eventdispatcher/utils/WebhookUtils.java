@@ -24,6 +24,7 @@
 
 package io.barracks.eventdispatcher.utils;
 
+import io.barracks.eventdispatcher.model.ChangeFormat;
 import io.barracks.eventdispatcher.model.EventType;
 import io.barracks.eventdispatcher.model.Webhook;
 
@@ -40,6 +41,7 @@ public class WebhookUtils {
                 .name(UUID.randomUUID().toString())
                 .url(UUID.randomUUID().toString())
                 .userId(UUID.randomUUID().toString())
+                .changeFormat(ChangeFormat.FULL)
                 .build();
         assertThat(webhook).hasNoNullFieldsOrProperties();
         return webhook;
@@ -52,6 +54,7 @@ public class WebhookUtils {
                 .name(UUID.randomUUID().toString())
                 .url(UUID.randomUUID().toString())
                 .userId(userId)
+                .changeFormat(ChangeFormat.FULL)
                 .build();
         assertThat(webhook).hasNoNullFieldsOrProperties();
         return webhook;
@@ -64,6 +67,7 @@ public class WebhookUtils {
                 .name(UUID.randomUUID().toString())
                 .url(UUID.randomUUID().toString())
                 .userId(UUID.randomUUID().toString())
+                .changeFormat(ChangeFormat.FULL)
                 .build();
         assertThat(webhook).hasNoNullFieldsOrProperties();
         return webhook;